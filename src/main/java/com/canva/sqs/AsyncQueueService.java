@@ -0,0 +1,54 @@
+package com.canva.sqs;
+
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous counterpart of message operations of {@link QueueService}, semantics and limits are the same.
+ * Errors, including invalid arguments, complete the returned future exceptionally instead of being thrown.
+ * <p>
+ * Long polling receive takes no thread while it waits for messages. Once woken up, it goes on in the service's
+ * own threads, so callbacks of its future never run on the producer's thread that sent the message
+ * nor on the service's timers.
+ * <p>
+ * Queue management stays synchronous, see {@link QueueService}.
+ * {@link BlockingQueueService} keeps blocking callers working on top of this interface.
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+public interface AsyncQueueService {
+
+    CompletableFuture<SendMessageResult> sendMessageAsync(String queueUrl, String messageBody);
+
+    /**
+     * @see QueueService#sendMessageBatch(String, List)
+     */
+    CompletableFuture<SendMessageBatchResult> sendMessageBatchAsync(String queueUrl,
+                                                                    List<SendMessageBatchRequestEntry> entries);
+
+    default CompletableFuture<ReceiveMessageResult> receiveMessageAsync(String queueUrl) {
+        return receiveMessageAsync(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 0);
+    }
+
+    /**
+     * @see QueueService#receiveMessage(String, int, int, int)
+     */
+    CompletableFuture<ReceiveMessageResult> receiveMessageAsync(String queueUrl, int maxNumberOfMessages,
+                                                                int visibilityTimeoutSeconds, int waitTimeSeconds);
+
+    CompletableFuture<Void> deleteMessageAsync(String queueUrl, String receiptHandle);
+
+    /**
+     * @see QueueService#deleteMessageBatch(String, List)
+     */
+    CompletableFuture<DeleteMessageBatchResult> deleteMessageBatchAsync(String queueUrl,
+                                                                        List<DeleteMessageBatchRequestEntry> entries);
+}
@@ -0,0 +1,109 @@
+package com.canva.sqs;
+
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.ListQueuesResult;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * {@link QueueService} that runs message operations through an {@link AsyncQueueService} and waits for them,
+ * so that blocking callers keep working on top of asynchronous implementation.
+ * <p>
+ * Exception that failed the future is rethrown as is, the same way the blocking implementation throws it.
+ * Queue management and {@link #invalidateNow(String, String)} are not asynchronous, they are delegated
+ * to the given {@link QueueService}, usually the same object.
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@ThreadSafe
+public class BlockingQueueService implements QueueService {
+    private final AsyncQueueService async;
+    private final QueueService management;
+
+    public BlockingQueueService(AsyncQueueService async, QueueService management) {
+        this.async = async;
+        this.management = management;
+    }
+
+    @Override
+    public SendMessageResult sendMessage(String queueUrl, String messageBody) {
+        return join(async.sendMessageAsync(queueUrl, messageBody));
+    }
+
+    @Override
+    public SendMessageBatchResult sendMessageBatch(String queueUrl, List<SendMessageBatchRequestEntry> entries) {
+        return join(async.sendMessageBatchAsync(queueUrl, entries));
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(String queueUrl) {
+        return join(async.receiveMessageAsync(queueUrl));
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(String queueUrl, int maxNumberOfMessages, int visibilityTimeoutSeconds,
+                                               int waitTimeSeconds) {
+        return join(async.receiveMessageAsync(queueUrl, maxNumberOfMessages, visibilityTimeoutSeconds,
+                waitTimeSeconds));
+    }
+
+    @Override
+    public void deleteMessage(String queueUrl, String receiptHandle) {
+        join(async.deleteMessageAsync(queueUrl, receiptHandle));
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(String queueUrl, List<DeleteMessageBatchRequestEntry> entries) {
+        return join(async.deleteMessageBatchAsync(queueUrl, entries));
+    }
+
+    @Override
+    public CreateQueueResult createQueue(String queueName) {
+        return management.createQueue(queueName);
+    }
+
+    @Override
+    public void deleteQueue(String queueUrl) {
+        management.deleteQueue(queueUrl);
+    }
+
+    @Override
+    public ListQueuesResult listQueues() {
+        return management.listQueues();
+    }
+
+    @Override
+    public GetQueueUrlResult getQueueUrl(String queueName) {
+        return management.getQueueUrl(queueName);
+    }
+
+    @Override
+    public void invalidateNow(String queueUrl, String receiptHandle) {
+        management.invalidateNow(queueUrl, receiptHandle);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
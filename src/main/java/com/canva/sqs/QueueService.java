@@ -2,6 +2,8 @@ package com.canva.sqs;
 
 import com.amazonaws.services.sqs.model.*;
 
+import java.util.List;
+
 /**
  * Not that much comments in this class.
  * Please refer to comments in implementation classes.
@@ -9,6 +11,22 @@ import com.amazonaws.services.sqs.model.*;
  * Hence I decided to put more comments regarding implementation details to those classes.
  */
 public interface QueueService {
+    /**
+     * Max number of entries in a single batch request, the same as SQS has
+     */
+    int MAX_BATCH_ENTRIES = 10;
+    /**
+     * Visibility timeout that keeps inflight timeout of the queue
+     */
+    int DEFAULT_VISIBILITY_TIMEOUT = -1;
+    /**
+     * Max visibility timeout in seconds, the same as SQS has
+     */
+    int MAX_VISIBILITY_TIMEOUT = 12 * 60 * 60;
+    /**
+     * Max time in seconds a receive may wait for messages to arrive, the same as SQS has
+     */
+    int MAX_WAIT_TIME_SECONDS = 20;
 
     //
     // Task 1: Define me.
@@ -22,15 +40,47 @@ public interface QueueService {
     //   pushes a message onto a queue.
     SendMessageResult sendMessage(String queueUrl, String messageBody);
 
+    /**
+     * Pushes up to {@value #MAX_BATCH_ENTRIES} messages onto a queue, mirrors SQS SendMessageBatch:
+     * result has an entry, successful or failed, for every request entry.
+     */
+    SendMessageBatchResult sendMessageBatch(String queueUrl, List<SendMessageBatchRequestEntry> entries);
+
     // - pull
     //   retrieves a single message from a queue.
     ReceiveMessageResult receiveMessage(String queueUrl);
 
+    /**
+     * Retrieves up to maxNumberOfMessages messages, at most {@value #MAX_BATCH_ENTRIES}, mirrors SQS ReceiveMessage.
+     *
+     * @param visibilityTimeoutSeconds how long received messages stay invisible,
+     *                                 {@link #DEFAULT_VISIBILITY_TIMEOUT} for the queue's timeout
+     */
+    default ReceiveMessageResult receiveMessage(String queueUrl, int maxNumberOfMessages, int visibilityTimeoutSeconds) {
+        return receiveMessage(queueUrl, maxNumberOfMessages, visibilityTimeoutSeconds, 0);
+    }
+
+    /**
+     * Long polling receive, mirrors SQS ReceiveMessage with WaitTimeSeconds:
+     * if the queue is empty, waits up to waitTimeSeconds, at most {@value #MAX_WAIT_TIME_SECONDS},
+     * for a message to arrive and returns as soon as any is received. Result is empty if none arrived in time.
+     *
+     * @param waitTimeSeconds 0 to return at once, as {@link #receiveMessage(String, int, int)} does
+     */
+    ReceiveMessageResult receiveMessage(String queueUrl, int maxNumberOfMessages, int visibilityTimeoutSeconds,
+                                        int waitTimeSeconds);
+
     // - delete
     //   deletes a message from the queue that was received by pull().
 
     void deleteMessage(String queueUrl, String receiptHandle);
 
+    /**
+     * Deletes up to {@value #MAX_BATCH_ENTRIES} received messages, mirrors SQS DeleteMessageBatch:
+     * result has an entry, successful or failed, for every request entry.
+     */
+    DeleteMessageBatchResult deleteMessageBatch(String queueUrl, List<DeleteMessageBatchRequestEntry> entries);
+
     // Queue management section
     CreateQueueResult createQueue(String queueName);
 
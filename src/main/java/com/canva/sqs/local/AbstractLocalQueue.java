@@ -1,22 +1,55 @@
 package com.canva.sqs.local;
 
-import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.BatchEntryIdsNotDistinctException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.EmptyBatchRequestException;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.amazonaws.services.sqs.model.TooManyEntriesInBatchRequestException;
+import com.canva.sqs.AsyncQueueService;
 import com.canva.sqs.QueueService;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toList;
 
 /**
  * QueueServices abstraction relevant both for File-based SQS and Inmemory SQS
+ * <p>
+ * Asynchronous operations run the blocking ones on {@link #asyncExecutor()},
+ * long polling receive takes no thread while it waits.
  *
  * @author Alexander Pronin
  * @since 06/11/2017
  */
-public abstract class AbstractLocalQueue implements QueueService {
+public abstract class AbstractLocalQueue implements QueueService, AsyncQueueService {
+    // runs asynchronous operation in the calling thread
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+    // error code of SQS for OverLimitException
+    private static final String OVER_LIMIT_ERROR_CODE = "OverLimit";
+    // error code of SQS for ReceiptHandleIsInvalidException
+    private static final String INVALID_RECEIPT_HANDLE_ERROR_CODE = "ReceiptHandleIsInvalid";
+
     /**
      * Pushes message to queue and returns it's id.
      * Returns empty result if queueUrl does not exists.
+     * Throws {@link com.amazonaws.services.sqs.model.OverLimitException} if queue can't take the message,
+     * so that producer can back off instead of treating it as a missing queue.
      */
     @Override
     public SendMessageResult sendMessage(String queueUrl, String messageBody) {
@@ -26,6 +59,54 @@ public abstract class AbstractLocalQueue implements QueueService {
                 .orElse(new SendMessageResult());
     }
 
+    /**
+     * Pushes messages of the batch to queue in the order of entries, queue stores them in a single pass.
+     * Returns empty result if queueUrl does not exists.
+     * Entries the queue can't take are failed with code of {@link com.amazonaws.services.sqs.model.OverLimitException},
+     * they are always the last entries of the batch, so that producer can resend them in order.
+     */
+    @Override
+    public SendMessageBatchResult sendMessageBatch(String queueUrl, List<SendMessageBatchRequestEntry> entries) {
+        validateBatch(entries.stream().map(SendMessageBatchRequestEntry::getId).collect(toList()));
+        Queue queue = getQueue(queueUrl);
+        if (queue == null) {
+            return new SendMessageBatchResult();
+        }
+        List<String> messageIds = queue.sendMessageBatch(queueUrl,
+                entries.stream().map(SendMessageBatchRequestEntry::getMessageBody).collect(toList()));
+
+        SendMessageBatchResult result = new SendMessageBatchResult();
+        for (int i = 0; i < entries.size(); i++) {
+            String id = entries.get(i).getId();
+            if (i < messageIds.size()) {
+                result.withSuccessful(new SendMessageBatchResultEntry().withId(id).withMessageId(messageIds.get(i)));
+            } else {
+                result.withFailed(new BatchResultErrorEntry().withId(id).withCode(OVER_LIMIT_ERROR_CODE)
+                        .withSenderFault(false).withMessage("Queue " + queueUrl + " is full"));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks batch request the way SQS does
+     *
+     * @param ids ids of request entries
+     */
+    protected static void validateBatch(List<String> ids) {
+        if (ids.isEmpty()) {
+            throw new EmptyBatchRequestException("Batch request contains no entries");
+        }
+        if (ids.size() > MAX_BATCH_ENTRIES) {
+            throw new TooManyEntriesInBatchRequestException(
+                    "Batch request contains more than " + MAX_BATCH_ENTRIES + " entries: " + ids.size());
+        }
+        Set<String> distinct = new HashSet<>(ids);
+        if (distinct.size() != ids.size()) {
+            throw new BatchEntryIdsNotDistinctException("Batch request entries must have distinct ids");
+        }
+    }
+
     /**
      * Retrieves just one message for simplicity
      * Returns empty result if queueUrl does not exists
@@ -34,21 +115,216 @@ public abstract class AbstractLocalQueue implements QueueService {
     public ReceiveMessageResult receiveMessage(String queueUrl) {
         return Optional.ofNullable(getQueue(queueUrl))
                 .flatMap(q -> q.receiveMessage(queueUrl))
-                .map(m -> new Message()
-                        .withMessageId(m.getMessageId())
-                        .withBody(m.getBody())
-                        .withReceiptHandle(m.getReceiptHandle()))
+                .map(ReceivedMessage::toMessage)
+                .map(new ReceiveMessageResult()::withMessages)
+                .orElse(new ReceiveMessageResult());
+    }
+
+    /**
+     * Retrieves up to maxNumberOfMessages messages, queue takes them in a single pass.
+     * If there are none, waits for them up to waitTimeSeconds: the attempt is repeated every time
+     * the queue signals that messages may have arrived, see {@link #awaitMessages(String, long, long)}.
+     * Returns empty result if queueUrl does not exists
+     *
+     * @throws IllegalArgumentException if number of messages, visibility timeout or wait time is out of SQS limits
+     */
+    @Override
+    public ReceiveMessageResult receiveMessage(String queueUrl, int maxNumberOfMessages, int visibilityTimeoutSeconds,
+                                               int waitTimeSeconds) {
+        validateReceive(maxNumberOfMessages, visibilityTimeoutSeconds, waitTimeSeconds);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(waitTimeSeconds);
+        try {
+            while (true) {
+                long arrivals = waitTimeSeconds == 0 ? 0 : arrivals(queueUrl);
+                ReceiveMessageResult result = tryReceiveMessage(queueUrl, maxNumberOfMessages, visibilityTimeoutSeconds);
+                if (!result.getMessages().isEmpty() || waitTimeSeconds == 0
+                        || !awaitMessages(queueUrl, arrivals, deadline)) {
+                    return result;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ReceiveMessageResult();
+        }
+    }
+
+    private static void validateReceive(int maxNumberOfMessages, int visibilityTimeoutSeconds, int waitTimeSeconds) {
+        if (maxNumberOfMessages < 1 || maxNumberOfMessages > MAX_BATCH_ENTRIES) {
+            throw new IllegalArgumentException("Max number of messages must be between 1 and " + MAX_BATCH_ENTRIES
+                    + ": " + maxNumberOfMessages);
+        }
+        if (visibilityTimeoutSeconds != DEFAULT_VISIBILITY_TIMEOUT
+                && (visibilityTimeoutSeconds < 0 || visibilityTimeoutSeconds > MAX_VISIBILITY_TIMEOUT)) {
+            throw new IllegalArgumentException("Visibility timeout must be between 0 and " + MAX_VISIBILITY_TIMEOUT
+                    + " seconds: " + visibilityTimeoutSeconds);
+        }
+        if (waitTimeSeconds < 0 || waitTimeSeconds > MAX_WAIT_TIME_SECONDS) {
+            throw new IllegalArgumentException("Wait time must be between 0 and " + MAX_WAIT_TIME_SECONDS
+                    + " seconds: " + waitTimeSeconds);
+        }
+    }
+
+    /**
+     * Single attempt of {@link #receiveMessage(String, int, int, int)} that doesn't wait
+     */
+    protected ReceiveMessageResult tryReceiveMessage(String queueUrl, int maxNumberOfMessages,
+                                                     int visibilityTimeoutSeconds) {
+        return Optional.ofNullable(getQueue(queueUrl))
+                .map(q -> q.receiveMessages(queueUrl, maxNumberOfMessages, visibilityTimeoutSeconds))
+                .map(messages -> messages.stream().map(ReceivedMessage::toMessage).collect(toList()))
                 .map(new ReceiveMessageResult()::withMessages)
                 .orElse(new ReceiveMessageResult());
     }
 
+    /**
+     * @return token to pass to {@link #awaitMessages(String, long, long)}, taken before an attempt to receive
+     */
+    protected long arrivals(String queueUrl) {
+        return 0;
+    }
+
+    /**
+     * Waits until messages may have been sent to the queue or become visible again after the token was taken.
+     * Doesn't wait unless the service supports long polling.
+     *
+     * @return false if deadline has passed or queue does not exist
+     */
+    protected boolean awaitMessages(String queueUrl, long arrivals, long deadlineNanos) throws InterruptedException {
+        return false;
+    }
+
+    /**
+     * Executor of asynchronous operations. Operations run in the calling thread by default,
+     * service that blocks on I/O runs them on its own executor.
+     */
+    protected Executor asyncExecutor() {
+        return DIRECT_EXECUTOR;
+    }
+
+    @Override
+    public CompletableFuture<SendMessageResult> sendMessageAsync(String queueUrl, String messageBody) {
+        return supplyAsync(() -> sendMessage(queueUrl, messageBody));
+    }
+
+    @Override
+    public CompletableFuture<SendMessageBatchResult> sendMessageBatchAsync(String queueUrl,
+                                                                           List<SendMessageBatchRequestEntry> entries) {
+        return supplyAsync(() -> sendMessageBatch(queueUrl, entries));
+    }
+
+    /**
+     * Asynchronous {@link #receiveMessage(String, int, int, int)}: attempts run on {@link #asyncExecutor()},
+     * no thread is taken between them, see {@link #awaitMessagesAsync(String, long, long)}.
+     */
+    @Override
+    public CompletableFuture<ReceiveMessageResult> receiveMessageAsync(String queueUrl, int maxNumberOfMessages,
+                                                                       int visibilityTimeoutSeconds,
+                                                                       int waitTimeSeconds) {
+        try {
+            validateReceive(maxNumberOfMessages, visibilityTimeoutSeconds, waitTimeSeconds);
+        } catch (IllegalArgumentException e) {
+            return failed(e);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(waitTimeSeconds);
+        return pollAsync(queueUrl, maxNumberOfMessages, visibilityTimeoutSeconds, waitTimeSeconds > 0, deadline);
+    }
+
+    private CompletableFuture<ReceiveMessageResult> pollAsync(String queueUrl, int maxNumberOfMessages,
+                                                              int visibilityTimeoutSeconds, boolean wait,
+                                                              long deadlineNanos) {
+        long arrivals = wait ? arrivals(queueUrl) : 0;
+        return supplyAsync(() -> tryReceiveMessage(queueUrl, maxNumberOfMessages, visibilityTimeoutSeconds))
+                .thenCompose(result -> {
+                    if (!result.getMessages().isEmpty() || !wait) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    return awaitMessagesAsync(queueUrl, arrivals, deadlineNanos).thenCompose(retry -> retry
+                            ? pollAsync(queueUrl, maxNumberOfMessages, visibilityTimeoutSeconds, true, deadlineNanos)
+                            : CompletableFuture.completedFuture(result));
+                });
+    }
+
+    /**
+     * Asynchronous {@link #awaitMessages(String, long, long)} that takes no thread while it waits.
+     * Doesn't wait unless the service supports long polling.
+     *
+     * @return future completed with false if deadline has passed or queue does not exist
+     */
+    protected CompletableFuture<Boolean> awaitMessagesAsync(String queueUrl, long arrivals, long deadlineNanos) {
+        return CompletableFuture.completedFuture(false);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteMessageAsync(String queueUrl, String receiptHandle) {
+        return supplyAsync(() -> {
+            deleteMessage(queueUrl, receiptHandle);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<DeleteMessageBatchResult> deleteMessageBatchAsync(
+            String queueUrl, List<DeleteMessageBatchRequestEntry> entries) {
+        return supplyAsync(() -> deleteMessageBatch(queueUrl, entries));
+    }
+
+    /**
+     * Runs operation on {@link #asyncExecutor()}, operation rejected by the executor fails the future
+     */
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> operation) {
+        try {
+            return CompletableFuture.supplyAsync(operation, asyncExecutor());
+        } catch (RejectedExecutionException e) {
+            return failed(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
     /**
      * Deletes message from queue
-     * Does nothing if queue does not exists or if "inflight" timeout already expired
+     * Does nothing if queue does not exists, if receipt handle is malformed or if "inflight" timeout already expired
      */
     @Override
     public void deleteMessage(String queueUrl, String receiptHandle) {
-        Optional.ofNullable(getQueue(queueUrl)).ifPresent(q -> q.deleteMessage(queueUrl, receiptHandle));
+        long handle = ReceivedMessage.parseReceiptHandle(receiptHandle);
+        if (handle != ReceivedMessage.INVALID_RECEIPT_HANDLE) {
+            Optional.ofNullable(getQueue(queueUrl)).ifPresent(q -> q.deleteMessage(queueUrl, handle));
+        }
+    }
+
+    /**
+     * Deletes messages of the batch from queue at once.
+     * Returns empty result if queueUrl does not exists.
+     * Entries with malformed receipt handles fail, other entries succeed even if "inflight" timeout already expired.
+     */
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(String queueUrl, List<DeleteMessageBatchRequestEntry> entries) {
+        validateBatch(entries.stream().map(DeleteMessageBatchRequestEntry::getId).collect(toList()));
+        Queue queue = getQueue(queueUrl);
+        if (queue == null) {
+            return new DeleteMessageBatchResult();
+        }
+        DeleteMessageBatchResult result = new DeleteMessageBatchResult();
+        List<Long> handles = new ArrayList<>(entries.size());
+        for (DeleteMessageBatchRequestEntry entry : entries) {
+            long handle = ReceivedMessage.parseReceiptHandle(entry.getReceiptHandle());
+            if (handle == ReceivedMessage.INVALID_RECEIPT_HANDLE) {
+                result.withFailed(new BatchResultErrorEntry().withId(entry.getId()).withCode(INVALID_RECEIPT_HANDLE_ERROR_CODE)
+                        .withSenderFault(true).withMessage("Receipt handle is invalid: " + entry.getReceiptHandle()));
+            } else {
+                handles.add(handle);
+                result.withSuccessful(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+            }
+        }
+        if (!handles.isEmpty()) {
+            queue.deleteMessageBatch(queueUrl, handles);
+        }
+        return result;
     }
 
     protected abstract Queue getQueue(String queueUrl);
@@ -57,6 +333,9 @@ public abstract class AbstractLocalQueue implements QueueService {
      * TESTING purpose only!
      */
     public void invalidateNow(String queueUrl, String receiptHandler) {
-        getQueue(queueUrl).invalidateNow(queueUrl, receiptHandler);
+        long handle = ReceivedMessage.parseReceiptHandle(receiptHandler);
+        if (handle != ReceivedMessage.INVALID_RECEIPT_HANDLE) {
+            getQueue(queueUrl).invalidateNow(queueUrl, handle);
+        }
     }
 }
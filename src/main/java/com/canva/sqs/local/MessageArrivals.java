@@ -0,0 +1,155 @@
+package com.canva.sqs.local;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parks long polling receivers of a queue until messages may have become visible in it.
+ * <p>
+ * Receiver takes {@link #count()} before an attempt to receive and waits with it if the attempt finds nothing,
+ * anything signalled in between ends the wait at once, so a message can't slip past the receiver.
+ * Signal costs a single atomic increment unless somebody waits.
+ * <p>
+ * Asynchronous receiver takes no thread while it waits, see {@link #awaitAsync(long)}.
+ * Its future is completed on the given executor, so that its continuations run neither on the producer's thread
+ * that signals nor on the caller's timer that cancels it, see {@link #newCompletionExecutor(String)}.
+ *
+ * @author Alexander Pronin
+ * @see AbstractLocalQueue#receiveMessage(String, int, int, int)
+ * @since 18/10/2026
+ */
+@ThreadSafe
+public class MessageArrivals {
+    private final AtomicLong arrivals = new AtomicLong();
+    // guarded by this
+    private final List<CompletableFuture<Boolean>> pending = new ArrayList<>();
+    // blocked and pending receivers, modified under the lock
+    private volatile int waiters;
+    private final Executor completions;
+
+    /**
+     * @param completions executor that completes futures of asynchronous receivers
+     */
+    public MessageArrivals(Executor completions) {
+        this.completions = completions;
+    }
+
+    /**
+     * Creates dedicated executor to complete futures of asynchronous receivers with.
+     * Its daemon threads stop once idle, so the service that never long polls asynchronously keeps none.
+     */
+    public static ExecutorService newCompletionExecutor(String threadName) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return token to pass to {@link #await(long, long)}, taken before an attempt to receive
+     */
+    public long count() {
+        return arrivals.get();
+    }
+
+    /**
+     * Messages were sent or became visible again, all waiting receivers are woken up
+     */
+    public void signal() {
+        arrivals.incrementAndGet();
+        if (waiters > 0) {
+            List<CompletableFuture<Boolean>> woken;
+            synchronized (this) {
+                notifyAll();
+                woken = new ArrayList<>(pending);
+                waiters -= pending.size();
+                pending.clear();
+            }
+            // completed outside of the lock, continuations may receive and wait again
+            woken.forEach(future -> complete(future, true));
+        }
+    }
+
+    /**
+     * Waits until anything is signalled after the token was taken
+     *
+     * @return false if deadline has passed
+     */
+    public boolean await(long count, long deadlineNanos) throws InterruptedException {
+        synchronized (this) {
+            waiters++;
+            try {
+                while (arrivals.get() == count) {
+                    long remaining = deadlineNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                return true;
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /**
+     * Asynchronous {@link #await(long, long)}, the caller is responsible for the deadline
+     *
+     * @return future completed with true once anything is signalled after the token was taken,
+     * or with false by {@link #cancel(CompletableFuture)}
+     */
+    public CompletableFuture<Boolean> awaitAsync(long count) {
+        synchronized (this) {
+            // registered before the check, the same way blocked receiver is, so signal can't be missed
+            waiters++;
+            if (arrivals.get() != count) {
+                waiters--;
+                return CompletableFuture.completedFuture(true);
+            }
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        }
+    }
+
+    /**
+     * Completes the future of {@link #awaitAsync(long)} with false once its deadline has passed.
+     * Does nothing if it was signalled already.
+     */
+    public void cancel(CompletableFuture<Boolean> future) {
+        synchronized (this) {
+            if (!pending.remove(future)) {
+                return;
+            }
+            waiters--;
+        }
+        complete(future, false);
+    }
+
+    /**
+     * Completes the future on the executor, or right away once the executor is shut down,
+     * so that no receiver waits forever
+     */
+    private void complete(CompletableFuture<Boolean> future, boolean signalled) {
+        try {
+            completions.execute(() -> future.complete(signalled));
+        } catch (RejectedExecutionException e) {
+            future.complete(signalled);
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package com.canva.sqs.local;
 
-import com.amazonaws.services.sqs.model.Message;
+import com.canva.sqs.QueueService;
 
 import javax.annotation.Nonnull;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -10,6 +11,8 @@ import java.util.Optional;
  * <p>
  * I decided to abstract Queue from QueueService.
  * Let the service focus on queues management and response mapping.
+ * <p>
+ * Receipt handles are numbers, see {@link ReceivedMessage}.
  *
  * @author Alexander Pronin
  * @since 04/11/2017
@@ -20,9 +23,35 @@ public interface Queue {
     @Nonnull
     String sendMessage(String queueUrl, String messageBody);
 
-    Optional<Message> receiveMessage(String queueUrl);
+    /**
+     * Sends messages in the given order with a single pass over queue's storage.
+     * Once a message can't be accepted the rest of the batch isn't sent either, so order of messages is kept.
+     *
+     * @return ids of accepted messages, a prefix of the batch
+     */
+    @Nonnull
+    List<String> sendMessageBatch(String queueUrl, List<String> messageBodies);
+
+    default Optional<ReceivedMessage> receiveMessage(String queueUrl) {
+        return receiveMessages(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT).stream().findFirst();
+    }
+
+    /**
+     * Receives up to maxNumberOfMessages messages with a single pass over queue's storage
+     *
+     * @param visibilityTimeoutSeconds how long received messages stay inflight,
+     *                                 {@link QueueService#DEFAULT_VISIBILITY_TIMEOUT} for {@value #INFLIGHT_TIMEOUT_SECONDS_KEY}
+     */
+    @Nonnull
+    List<ReceivedMessage> receiveMessages(String queueUrl, int maxNumberOfMessages, int visibilityTimeoutSeconds);
 
-    void deleteMessage(String queueUrl, String receiptHandle);
+    void deleteMessage(String queueUrl, long receiptHandle);
+
+    /**
+     * Deletes messages with a single pass over queue's storage.
+     * Unknown receipt handles and ones of messages that are not inflight anymore are ignored.
+     */
+    void deleteMessageBatch(String queueUrl, List<Long> receiptHandles);
 
     void cleanup(String queueUrl);
 
@@ -32,5 +61,5 @@ public interface Queue {
      * @param queueUrl
      * @param receiptHandle message to invalidate inflight
      */
-    void invalidateNow(String queueUrl, String receiptHandle);
+    void invalidateNow(String queueUrl, long receiptHandle);
 }
@@ -0,0 +1,63 @@
+package com.canva.sqs.local;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Message received from a {@link Queue}.
+ * <p>
+ * Local queues issue numeric receipt handles, they are formatted as strings only by {@link AbstractLocalQueue}
+ * on the way to the client and parsed back on the way in.
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@Immutable
+public final class ReceivedMessage {
+    /**
+     * Receipt handles are non-negative, anything else could not be issued by a local queue
+     */
+    public static final long INVALID_RECEIPT_HANDLE = -1;
+
+    private final String messageId;
+    private final String body;
+    private final long receiptHandle;
+
+    public ReceivedMessage(String messageId, String body, long receiptHandle) {
+        this.messageId = messageId;
+        this.body = body;
+        this.receiptHandle = receiptHandle;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public long getReceiptHandle() {
+        return receiptHandle;
+    }
+
+    public Message toMessage() {
+        return new Message()
+                .withMessageId(messageId)
+                .withBody(body)
+                .withReceiptHandle(String.valueOf(receiptHandle));
+    }
+
+    /**
+     * @return receipt handle or {@link #INVALID_RECEIPT_HANDLE} if it is malformed
+     */
+    public static long parseReceiptHandle(String receiptHandle) {
+        try {
+            long handle = Long.parseLong(receiptHandle);
+            return handle < 0 ? INVALID_RECEIPT_HANDLE : handle;
+        } catch (NumberFormatException e) {
+            return INVALID_RECEIPT_HANDLE;
+        }
+    }
+}
@@ -3,7 +3,7 @@ package com.canva.sqs.local;
 import com.amazonaws.services.sqs.model.Message;
 
 import javax.annotation.concurrent.ThreadSafe;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Simple by efficient ids generator based on atomics.
@@ -15,19 +15,52 @@ import java.util.concurrent.atomic.AtomicInteger;
 @ThreadSafe
 public class SimpleIdsGenerator implements IdsGenerator {
 
-    private static final AtomicInteger messageIds= new AtomicInteger();
-    private static final AtomicInteger recipientsHandleIds = new AtomicInteger();
+    private static final AtomicLong messageIds = new AtomicLong();
+    private static final AtomicLong recipientsHandleIds = new AtomicLong();
 
     public String generateMessageId() {
         return String.valueOf(messageIds.getAndIncrement());
     }
 
+    /**
+     * Reserves consecutive message ids at once
+     *
+     * @return the first of reserved ids
+     */
+    public long generateMessageIds(int count) {
+        return messageIds.getAndAdd(count);
+    }
+
     /**
      * Probably recipientHandler should be calculated based on message content somehow,
      * but something more tricky than just taking MD5.
      * Let's ignore it for the purpose of simplicity
      */
     public String generateRecipientHandlerId(Message message) {
-        return String.valueOf(recipientsHandleIds.getAndIncrement());
+        return String.valueOf(generateReceiptHandle());
+    }
+
+    /**
+     * Receipt handle as is, for queues that keep it as a number
+     */
+    public long generateReceiptHandle() {
+        return recipientsHandleIds.getAndIncrement();
+    }
+
+    /**
+     * Reserves consecutive receipt handles at once
+     *
+     * @return the first of reserved handles
+     */
+    public long generateReceiptHandles(int count) {
+        return recipientsHandleIds.getAndAdd(count);
+    }
+
+    /**
+     * Makes sure ids generated from now on are greater than the given ones, e.g. ones restored after restart
+     */
+    public static void reserveUpTo(long messageId, long receiptHandle) {
+        messageIds.accumulateAndGet(messageId + 1, Math::max);
+        recipientsHandleIds.accumulateAndGet(receiptHandle + 1, Math::max);
     }
 }
@@ -0,0 +1,114 @@
+package com.canva.sqs.local.filesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Positioned reads and writes that transfer the whole buffer.
+ * <p>
+ * Channels written by current thread between {@link #trackWritten()} and {@link #takeWritten()} are remembered,
+ * so that operation can make its writes durable, see {@link FileDurability}.
+ * Writes outside of an operation, e.g. of background threads, are not remembered, so no closed channel is kept.
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+final class ChannelIO {
+    // null unless current thread runs an operation
+    private static final ThreadLocal<Set<FileChannel>> WRITTEN = new ThreadLocal<>();
+
+    private ChannelIO() {
+    }
+
+    /**
+     * Starts remembering channels written by current thread
+     */
+    static void trackWritten() {
+        WRITTEN.set(new HashSet<>());
+    }
+
+    /**
+     * Stops remembering channels written by current thread
+     *
+     * @return channels written since {@link #trackWritten()}
+     */
+    static Collection<FileChannel> takeWritten() {
+        Set<FileChannel> written = WRITTEN.get();
+        WRITTEN.remove();
+        return written == null ? Collections.emptySet() : written;
+    }
+
+    /**
+     * Reads until buffer is full or end of file is reached.
+     *
+     * @return number of bytes read
+     */
+    static int read(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        int read = 0;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Reads until buffer is full, fails if file ends earlier.
+     */
+    static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        int expected = dst.remaining();
+        if (read(channel, dst, position) < expected) {
+            throw new EOFException("Unexpected end of file at position " + position);
+        }
+    }
+
+    /**
+     * Reads whole file content.
+     */
+    static ByteBuffer readAll(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        read(channel, buffer, 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Remembers channel whose file was written bypassing the channel, e.g. through a mapping
+     */
+    static void markWritten(FileChannel channel) {
+        Set<FileChannel> written = WRITTEN.get();
+        if (written != null) {
+            written.add(channel);
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        markWritten(channel);
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    /**
+     * Replaces whole file content. New content is written first and file is truncated afterwards,
+     * so file never appears empty to a reader of another process that ignores locks.
+     */
+    static void rewrite(FileChannel channel, ByteBuffer src) throws IOException {
+        long size = src.remaining();
+        writeFully(channel, src, 0);
+        channel.truncate(size);
+    }
+
+    static void append(FileChannel channel, ByteBuffer src) throws IOException {
+        writeFully(channel, src, channel.size());
+    }
+}
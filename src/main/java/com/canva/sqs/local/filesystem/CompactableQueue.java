@@ -0,0 +1,58 @@
+package com.canva.sqs.local.filesystem;
+
+import com.canva.sqs.local.Queue;
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * File based queue that leaves files behind which are not referenced anymore.
+ * Queue that keeps its state apart from the data files may also checkpoint it and recover from the checkpoint.
+ *
+ * @author Alexander Pronin
+ * @see FileQueueCompactor
+ * @see FileQueueCheckpointer
+ * @since 18/10/2026
+ */
+interface CompactableQueue extends Queue {
+    /**
+     * Finds body files, segments and other queue files that are not referenced by queue records.
+     * Must not block foreground operations for longer than a single operation does.
+     *
+     * @param queueUrl  queue to inspect
+     * @param ioLimiter every byte read while looking for garbage must be acquired from this limiter
+     * @return files that could be deleted
+     */
+    Collection<Path> findGarbage(String queueUrl, RateLimiter ioLimiter) throws IOException;
+
+    /**
+     * Durably saves current state of the queue into {@link FileDescriptor#CHECKPOINT} file.
+     * Must not block foreground operations for longer than a single operation does.
+     *
+     * @return true if checkpoint was written, false if state didn't change or queue has no state to checkpoint
+     */
+    default boolean checkpoint(String queueUrl) throws IOException {
+        return false;
+    }
+
+    /**
+     * Brings state of the queue in line with its data files after a crash,
+     * replaying only data written after the latest checkpoint.
+     *
+     * @return true if state of the queue had to be repaired
+     */
+    default boolean recover(String queueUrl) throws IOException {
+        return false;
+    }
+
+    /**
+     * Inflight messages expire lazily, nothing is written once they do,
+     * so long polling receivers wake up by themselves at the returned time.
+     *
+     * @return time by queue's clock when an inflight message may become visible again,
+     * {@link Long#MAX_VALUE} if there is no inflight message
+     */
+    long nextExpiry(String queueUrl) throws IOException;
+}
@@ -13,12 +13,17 @@ public enum FileDescriptor {
     MESSAGES("messages"),
     INFLIGHT("inflight"),
     IDS_CONFIG("ids"),
-    SEMAPHORE("semaphore") {
-        @Override
-        public Path getPath(String queueUrl) {
-            return Paths.get(queueUrl + ".semaphore");
-        }
-    };
+    // packed message bodies
+    BODIES("bodies"),
+    BODIES_TAIL("bodies-tail"),
+    // segmented log engine
+    MESSAGES_LOG("messages-log"),
+    INFLIGHT_LOG("inflight-log"),
+    CURSOR("cursor"),
+    // durable copy of queue state, see FileQueueCheckpointer
+    CHECKPOINT("checkpoint"),
+    // lock of operations in flight, see FileQueueService
+    SEMAPHORE("semaphore");
 
     private final String name;
 
@@ -0,0 +1,104 @@
+package com.canva.sqs.local.filesystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Properties;
+
+/**
+ * Durability modes of file based SQS.
+ * Selected by {@value #SQS_FILE_DURABILITY_KEY} property, {@link #NONE} is used by default.
+ * <p>
+ * Files written by an operation are made durable when the operation completes,
+ * caller of {@link FileQueueService} is released only after that.
+ *
+ * @author Alexander Pronin
+ * @see FileQueueService
+ * @since 18/10/2026
+ */
+public enum FileDurability {
+    /**
+     * Written data stays in page cache, it survives crash of the process but not of the host
+     */
+    NONE("none") {
+        @Override
+        Committer newCommitter(Properties props) {
+            return written -> {
+            };
+        }
+    },
+    /**
+     * Files written by many operations are synced together.
+     * Batch is synced every {@value #GROUP_COMMIT_MILLIS_KEY} ms
+     * or once it has {@value #GROUP_COMMIT_OPERATIONS_KEY} operations, whichever comes first.
+     * Interval is 0 by default: batch collects operations arrived during the previous sync.
+     */
+    GROUP_COMMIT("group") {
+        @Override
+        Committer newCommitter(Properties props) {
+            return new GroupCommitter(props);
+        }
+    },
+    /**
+     * Every operation syncs files it has written
+     */
+    SYNC("sync") {
+        @Override
+        Committer newCommitter(Properties props) {
+            return written -> {
+                try {
+                    force(written);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+        }
+    };
+
+    public static final String SQS_FILE_DURABILITY_KEY = "sqs.file.durability";
+    public static final String GROUP_COMMIT_MILLIS_KEY = "sqs.file.group.commit.ms";
+    public static final String GROUP_COMMIT_OPERATIONS_KEY = "sqs.file.group.commit.operations";
+
+    private final String name;
+
+    FileDurability(String name) {
+        this.name = name;
+    }
+
+    abstract Committer newCommitter(Properties props);
+
+    public static FileDurability fromProperties(Properties props) {
+        String name = props.getProperty(SQS_FILE_DURABILITY_KEY, NONE.name);
+        for (FileDurability durability : values()) {
+            if (durability.name.equals(name)) {
+                return durability;
+            }
+        }
+        throw new IllegalStateException("Unknown file durability: " + name);
+    }
+
+    static void force(Collection<FileChannel> channels) throws IOException {
+        for (FileChannel channel : channels) {
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // closed by FileHandleCache, which syncs channels it closes
+            }
+        }
+    }
+
+    /**
+     * Makes files written by an operation durable
+     */
+    interface Committer {
+        /**
+         * Returns once written channels are durable
+         */
+        void commit(Collection<FileChannel> written);
+
+        default void shutdown() {
+        }
+    }
+}
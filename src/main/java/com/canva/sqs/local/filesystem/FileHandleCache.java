@@ -0,0 +1,295 @@
+package com.canva.sqs.local.filesystem;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Process wide cache of open {@link FileChannel}s of file based queues.
+ * <p>
+ * Channels are grouped by queue directory and stay open for queue's lifetime,
+ * so a queue operation does not open and close lock and data files every time.
+ * Number of open files is bounded by {@value #MAX_OPEN_FILES_KEY} property:
+ * once it is exceeded, least recently used queues that are not being worked with are closed.
+ * Queue's channels are closed by {@link #close(Path)} when queue is deleted.
+ * <p>
+ * File may also be mapped once, the mapping is dropped together with the channel, see {@link Handle#map(long)}.
+ * <p>
+ * Queue may be deleted and recreated by another process. Cache notices it by the change of queue directory
+ * identity and reopens the channels, this check is done at most once per {@value #VALIDATION_INTERVAL_MILLIS} ms.
+ * <p>
+ * Usage example:
+ * try (FileHandleCache.Handle handle = FileHandleCache.getInstance().open(queueDir, file)) {
+ * handle.channel().read(...)
+ * }
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@ThreadSafe
+public final class FileHandleCache {
+    public static final String MAX_OPEN_FILES_KEY = "sqs.file.handles.max";
+    static final int DEFAULT_MAX_OPEN_FILES = 1024;
+    private static final long VALIDATION_INTERVAL_MILLIS = 1000;
+
+    private static final FileHandleCache INSTANCE = new FileHandleCache();
+
+    private final ConcurrentHashMap<Path, QueueHandles> queues = new ConcurrentHashMap<>();
+    private final AtomicInteger openFiles = new AtomicInteger();
+    private volatile int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+    private volatile boolean forceOnClose;
+
+    private FileHandleCache() {
+    }
+
+    public static FileHandleCache getInstance() {
+        return INSTANCE;
+    }
+
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * Makes channels synced before they are closed, so data written but not synced yet
+     * by {@link FileDurability} modes is not lost when a queue is evicted.
+     * Once enabled stays enabled.
+     */
+    void enableForceOnClose() {
+        forceOnClose = true;
+    }
+
+    public int getOpenFiles() {
+        return openFiles.get();
+    }
+
+    /**
+     * Returns cached channel of the file, opens it if needed. File is created if it does not exist.
+     * Channel must not be closed by the caller, close the handle instead.
+     *
+     * @param queueDir directory of the queue file belongs to
+     * @param file     file to open
+     */
+    public Handle open(Path queueDir, Path file) throws IOException {
+        queueDir = normalize(queueDir);
+        file = normalize(file);
+        while (true) {
+            QueueHandles handles = queues.computeIfAbsent(queueDir, QueueHandles::new);
+            FileChannel channel;
+            synchronized (handles) {
+                if (handles.closed) {
+                    // evicted or deleted concurrently
+                    continue;
+                }
+                handles.validate();
+                channel = handles.channels.get(file);
+                if (channel == null || !channel.isOpen()) {
+                    channel = FileChannel.open(file, CREATE, READ, WRITE);
+                    handles.channels.put(file, channel);
+                    openFiles.incrementAndGet();
+                }
+                handles.users++;
+                handles.lastUsed = System.nanoTime();
+            }
+            if (openFiles.get() > maxOpenFiles) {
+                evictIdle();
+            }
+            return new Handle(handles, file, channel);
+        }
+    }
+
+    /**
+     * Closes all channels of the queue. Channels currently used are closed by their last user.
+     */
+    public void close(Path queueDir) {
+        QueueHandles handles = queues.remove(normalize(queueDir));
+        if (handles != null) {
+            synchronized (handles) {
+                handles.closed = true;
+                if (handles.users == 0) {
+                    handles.closeAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes channel of a single file, e.g. before the file is deleted.
+     */
+    void closeFile(Path queueDir, Path file) {
+        QueueHandles handles = queues.get(normalize(queueDir));
+        if (handles != null) {
+            Path key = normalize(file);
+            synchronized (handles) {
+                FileChannel channel = handles.channels.remove(key);
+                handles.mappings.remove(key);
+                if (channel != null) {
+                    handles.retired.add(channel);
+                    if (handles.users == 0) {
+                        handles.closeRetired();
+                    }
+                }
+            }
+        }
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private synchronized void evictIdle() {
+        int target = maxOpenFiles - maxOpenFiles / 10;
+        if (openFiles.get() <= maxOpenFiles) {
+            return;
+        }
+        List<QueueHandles> lru = new ArrayList<>(queues.values());
+        lru.sort(Comparator.comparingLong(h -> h.lastUsed));
+        for (QueueHandles handles : lru) {
+            if (openFiles.get() <= target) {
+                break;
+            }
+            synchronized (handles) {
+                if (handles.users == 0 && !handles.closed) {
+                    handles.closed = true;
+                    queues.remove(handles.queueDir, handles);
+                    handles.closeAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Channel borrowed from the cache
+     */
+    public final class Handle implements AutoCloseable {
+        private final QueueHandles handles;
+        private final Path file;
+        private final FileChannel channel;
+        private boolean released;
+
+        private Handle(QueueHandles handles, Path file, FileChannel channel) {
+            this.handles = handles;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        public FileChannel channel() {
+            return channel;
+        }
+
+        /**
+         * Returns cached read-write mapping of the file, maps it if needed.
+         * Mapping is shared, use absolute access or a duplicate of it.
+         * File must never be truncated below the mapped size.
+         *
+         * @param size bytes to map if the file is not mapped yet or mapped smaller, file grows to this size;
+         *             0 maps the whole file
+         */
+        MappedByteBuffer map(long size) throws IOException {
+            synchronized (handles) {
+                MappedByteBuffer mapping = handles.mappings.get(file);
+                if (mapping == null || mapping.capacity() < size) {
+                    mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size > 0 ? size : channel.size());
+                    if (handles.channels.get(file) == channel) {
+                        handles.mappings.put(file, mapping);
+                    }
+                }
+                return mapping;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (released) {
+                return;
+            }
+            released = true;
+            synchronized (handles) {
+                handles.users--;
+                if (handles.users == 0) {
+                    handles.closeRetired();
+                    if (handles.closed) {
+                        handles.closeAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Channels of a single queue. Guarded by its own monitor.
+     */
+    private final class QueueHandles {
+        private final Path queueDir;
+        private Map<Path, FileChannel> channels = new HashMap<>();
+        // unmapped by GC once dropped
+        private Map<Path, MappedByteBuffer> mappings = new HashMap<>();
+        // channels of deleted files, closed once nobody uses the queue
+        private final List<FileChannel> retired = new ArrayList<>();
+        private int users;
+        private boolean closed;
+        private volatile long lastUsed;
+        private Object queueDirKey;
+        private long validatedAt;
+
+        QueueHandles(Path queueDir) {
+            this.queueDir = queueDir;
+        }
+
+        void validate() throws IOException {
+            long now = System.nanoTime();
+            if (queueDirKey != null && now - validatedAt < TimeUnit.MILLISECONDS.toNanos(VALIDATION_INTERVAL_MILLIS)) {
+                return;
+            }
+            Object key = Files.readAttributes(queueDir, BasicFileAttributes.class).fileKey();
+            if (queueDirKey != null && !queueDirKey.equals(key)) {
+                retired.addAll(channels.values());
+                channels = new HashMap<>();
+                mappings = new HashMap<>();
+                if (users == 0) {
+                    closeRetired();
+                }
+            }
+            queueDirKey = key;
+            validatedAt = now;
+        }
+
+        void closeRetired() {
+            retired.forEach(this::closeChannel);
+            retired.clear();
+        }
+
+        void closeAll() {
+            channels.values().forEach(this::closeChannel);
+            channels.clear();
+            mappings.clear();
+            closeRetired();
+        }
+
+        void closeChannel(FileChannel channel) {
+            try {
+                if (forceOnClose) {
+                    channel.force(false);
+                }
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            openFiles.decrementAndGet();
+        }
+    }
+}
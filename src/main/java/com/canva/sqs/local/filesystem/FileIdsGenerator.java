@@ -4,13 +4,20 @@ import com.amazonaws.services.sqs.model.Message;
 import com.canva.sqs.local.IdsGenerator;
 import org.apache.http.annotation.ThreadSafe;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
@@ -19,23 +26,61 @@ import static java.nio.file.StandardOpenOption.WRITE;
  * Ids generation is suitable for single-host usage.
  * All methods are atomic (in scope of single-host) and thread-safe.
  * <p>
- * This implementation leverages {@link GlobalCloseableLock} to achieve exclusive locking during id generation.
+ * Ids are not taken from the file one by one: generator leases a range of {@code leaseSize} ids
+ * with a single durable update of the file and hands them out from memory.
+ * File keeps the first id that has not been leased yet, so ranges of different generators
+ * (e.g. of different processes) never overlap and ids are not reused after a crash.
+ * Ids left in the range of a stopped process are lost, ids are unique but may have gaps.
+ * Generator with lease size 1 updates the file for every id.
+ * <p>
+ * Queue may be deleted and recreated by another process, leased range is not valid for the new ids file.
+ * Lease remembers identity of the file it was taken from, the identity is checked before an id is handed out
+ * and the range is leased again from the new file once it differs.
+ * Ids file is kept open by the generator itself, not by {@link FileHandleCache} that may evict it:
+ * open file can't be reused by the recreated one, so identity of the new file is always different.
+ * Generator has to be closed once its queue is deleted.
+ * <p>
+ * This implementation leverages {@link GlobalCloseableLock} to achieve exclusive locking during leasing.
  *
  * @author Alexander Pronin
  * @see GlobalCloseableLock
  * @since 06/11/2017
  */
 @ThreadSafe
-public class FileIdsGenerator implements IdsGenerator {
+public class FileIdsGenerator implements IdsGenerator, Closeable {
+    public static final String LEASE_SIZE_KEY = "sqs.ids.lease.size";
+    static final int DEFAULT_LEASE_SIZE = 10_000;
+    private static final int MESSAGE_IDS = 0;
+    private static final int RECEIPT_HANDLES = 1;
+    // identity of the file that does not exist
+    private static final Object DELETED = new Object();
 
     private final Path file;
+    private final int leaseSize;
+    private final Lease[] leases = {new Lease(0, 0, null), new Lease(0, 0, null)};
+    // guarded by this
+    private FileChannel channel;
+    private Object channelKey;
 
     /**
      * @param file file that will be used to store state of id generator
      */
     @SuppressWarnings("WeakerAccess")
     public FileIdsGenerator(Path file) {
+        this(file, DEFAULT_LEASE_SIZE);
+    }
+
+    /**
+     * @param file      file that will be used to store state of id generator
+     * @param leaseSize number of ids reserved by a single update of the file
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FileIdsGenerator(Path file, int leaseSize) {
+        if (leaseSize < 1) {
+            throw new IllegalArgumentException("Lease size must be positive: " + leaseSize);
+        }
         this.file = file;
+        this.leaseSize = leaseSize;
     }
 
     /**
@@ -45,7 +90,7 @@ public class FileIdsGenerator implements IdsGenerator {
      */
     @Override
     public String generateMessageId() {
-        return getByIndexAndIncrement(0);
+        return String.valueOf(nextId(MESSAGE_IDS));
     }
 
     /**
@@ -56,22 +101,82 @@ public class FileIdsGenerator implements IdsGenerator {
      */
     @Override
     public String generateRecipientHandlerId(Message message) {
-        return getByIndexAndIncrement(1);
+        return String.valueOf(nextId(RECEIPT_HANDLES));
     }
 
-    private String getByIndexAndIncrement(int index) {
-        String result = "";
+    private long nextId(int index) {
+        while (true) {
+            Lease lease = leases[index];
+            if (Objects.equals(lease.fileKey, fileKey())) {
+                long id = lease.next.getAndIncrement();
+                if (id < lease.end) {
+                    return id;
+                }
+            }
+            synchronized (this) {
+                // only the first thread that found the lease exhausted or outdated takes a new one
+                if (leases[index] == lease) {
+                    leases[index] = lease(index);
+                }
+            }
+        }
+    }
+
+    private Lease lease(int index) {
         try (GlobalCloseableLock ignored = new GlobalCloseableLock(file.toString()).lock()) {
-            List<String> ids = Files.readAllLines(file);
-            if (ids.isEmpty()) {
-                ids = Arrays.asList("0", "0");
+            if (channel == null || !Objects.equals(channelKey, fileKey())) {
+                close();
+                channel = FileChannel.open(file, CREATE, READ, WRITE);
+                channelKey = fileKey();
             }
-            result = ids.get(index);
-            ids.set(index, String.valueOf(Integer.valueOf(result) + 1));
-            Files.write(file, ids, WRITE, TRUNCATE_EXISTING);
+            String content = StandardCharsets.UTF_8.decode(ChannelIO.readAll(channel)).toString();
+            List<String> ids = content.isEmpty() ? Arrays.asList("0", "0") : Arrays.asList(content.split("\\R"));
+            long start = Long.parseLong(ids.get(index));
+            ids.set(index, String.valueOf(start + leaseSize));
+            ChannelIO.rewrite(channel, StandardCharsets.UTF_8.encode(String.join("\n", ids) + "\n"));
+            // range must be durable before any of its ids is handed out
+            channel.force(false);
+            return new Lease(start, start + leaseSize, channelKey);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to lease ids from " + file, e);
+        }
+    }
+
+    private Object fileKey() {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
         } catch (IOException e) {
-            e.printStackTrace();
+            return DELETED;
+        }
+    }
+
+    /**
+     * Closes the ids file, the next id leases a range again
+     */
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Range of ids [next, end) owned by this generator, leased from the file of the given identity
+     */
+    private static class Lease {
+        private final AtomicLong next;
+        private final long end;
+        private final Object fileKey;
+
+        Lease(long start, long end, Object fileKey) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+            this.fileKey = fileKey;
         }
-        return result;
     }
 }
@@ -0,0 +1,93 @@
+package com.canva.sqs.local.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * I/O modes of fixed-size index data of file based SQS: cursor and inflight entries of {@link SegmentedLogQueue}.
+ * Selected by {@value #SQS_FILE_IO_KEY} property, {@link #CHANNEL} is used by default.
+ * <p>
+ * Index data is only read and updated in place, files are never truncated, so they are safe to map.
+ * Variable size data, e.g. message records, always goes through channels.
+ *
+ * @author Alexander Pronin
+ * @see FileHandleCache.Handle#map(long)
+ * @since 18/10/2026
+ */
+public enum FileIoMode {
+    /**
+     * Positioned reads and writes of the file channel, a system call per access
+     */
+    CHANNEL("channel") {
+        @Override
+        int read(FileHandleCache.Handle handle, ByteBuffer dst, long position, long mapBytes) throws IOException {
+            return ChannelIO.read(handle.channel(), dst, position);
+        }
+
+        @Override
+        void write(FileHandleCache.Handle handle, ByteBuffer src, long position, long mapBytes) throws IOException {
+            ChannelIO.writeFully(handle.channel(), src, position);
+        }
+    },
+    /**
+     * Memory operations on the file mapped once and kept in {@link FileHandleCache}.
+     * Mapped pages share page cache with the channel, they are synced by the channel
+     * when {@link FileDurability} needs it.
+     */
+    MMAP("mmap") {
+        @Override
+        int read(FileHandleCache.Handle handle, ByteBuffer dst, long position, long mapBytes) throws IOException {
+            ByteBuffer mapped = handle.map(mapBytes);
+            int length = (int) Math.max(0, Math.min(dst.remaining(), mapped.capacity() - position));
+            if (length == 0) {
+                return 0;
+            }
+            ByteBuffer src = mapped.duplicate();
+            src.limit((int) position + length).position((int) position);
+            dst.put(src);
+            return length;
+        }
+
+        @Override
+        void write(FileHandleCache.Handle handle, ByteBuffer src, long position, long mapBytes) throws IOException {
+            ByteBuffer dst = handle.map(mapBytes).duplicate();
+            dst.position((int) position);
+            dst.put(src);
+            ChannelIO.markWritten(handle.channel());
+        }
+    };
+
+    public static final String SQS_FILE_IO_KEY = "sqs.file.io";
+
+    private final String name;
+
+    FileIoMode(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Reads until buffer is full or end of file is reached.
+     *
+     * @param mapBytes bytes to map if the file is not mapped yet, 0 maps the whole file
+     * @return number of bytes read
+     */
+    abstract int read(FileHandleCache.Handle handle, ByteBuffer dst, long position, long mapBytes) throws IOException;
+
+    /**
+     * Writes the whole buffer.
+     *
+     * @param mapBytes bytes to map if the file is not mapped yet, file grows to this size
+     */
+    abstract void write(FileHandleCache.Handle handle, ByteBuffer src, long position, long mapBytes) throws IOException;
+
+    public static FileIoMode fromProperties(Properties props) {
+        String name = props.getProperty(SQS_FILE_IO_KEY, CHANNEL.name);
+        for (FileIoMode mode : values()) {
+            if (mode.name.equals(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalStateException("Unknown file io mode: " + name);
+    }
+}
@@ -1,8 +1,11 @@
 package com.canva.sqs.local.filesystem;
 
 import com.amazonaws.services.sqs.model.Message;
+import com.canva.sqs.QueueService;
 import com.canva.sqs.local.IdsGenerator;
 import com.canva.sqs.local.Queue;
+import com.canva.sqs.local.ReceivedMessage;
+import com.google.common.util.concurrent.RateLimiter;
 import org.apache.http.annotation.ThreadSafe;
 
 import javax.annotation.Nonnull;
@@ -14,6 +17,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Clock;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -31,8 +37,13 @@ import static java.util.stream.Collectors.*;
  * <p>
  * Actually queue implementation is stateless. Singleton pattern used for dependency injection in {@link com.canva.sqs.local.AbstractLocalQueue}.
  * <p>
+ * Message bodies are packed into a few large files by {@link PackedBodyStore}.
+ * <p>
  * Uses "lazy" invalidation of inflight message.
- * Queue tries to invalidate messages on each {@link #receiveMessage(String)} request.
+ * Queue tries to invalidate messages on each {@link #receiveMessages(String, int, int)} request,
+ * {@link InflightIndex} tells whether any of them has expired without reading inflight file.
+ * Visibility timeout other than the queue's one is kept as a shifted receive time of inflight record,
+ * so that the record expires once the given timeout passes and the file format stays the same.
  *
  * @author Alexander Pronin
  * @see GlobalCloseableLock
@@ -40,34 +51,40 @@ import static java.util.stream.Collectors.*;
  * @since 04/11/2017
  */
 @ThreadSafe
-public class FileQueue implements Queue {
+public class FileQueue implements CompactableQueue {
     private static final String SQS_QUEUES_DIR_KEY = "sqs.queues.dir";
 
-    private static final Function<List<String>, Map<Boolean, List<Message>>> FIRST_MESSAGE_EXTRACTOR =
-            messageRecords -> {
-                final int[] i = {1};
+    private static final Function<Integer, Function<List<MessageRecord>, Map<Boolean, List<MessageRecord>>>>
+            FIRST_MESSAGES_EXTRACTOR =
+            n -> messageRecords -> {
+                final int[] i = {0};
                 return messageRecords.stream()
-                        .map(MessageRecord::fromStringToMessage)
-                        .collect(partitioningBy(m -> i[0]++ == 1));
+                        .collect(partitioningBy(m -> i[0]++ < n));
             };
 
-    private static final Function<String, Function<List<String>, Map<Boolean, List<Message>>>>
+    private static final Function<Long, Function<List<MessageRecord>, Map<Boolean, List<MessageRecord>>>>
             BY_RECEIPT_HANDLER_SPLITTER =
             s -> messageRecords -> messageRecords.stream()
-                    .map(MessageRecord::fromStringToMessage)
-                    .collect(partitioningBy(m -> m.getReceiptHandle().equals(s)));
+                    .collect(partitioningBy(m -> m.getReceiptHandle() == s));
+
+    private static final Function<Set<Long>, Function<List<MessageRecord>, Map<Boolean, List<MessageRecord>>>>
+            BY_RECEIPT_HANDLERS_SPLITTER =
+            s -> messageRecords -> messageRecords.stream()
+                    .collect(partitioningBy(m -> s.contains(m.getReceiptHandle())));
 
-    private static final BiFunction<Long, Long, Function<List<String>, Map<Boolean, List<Message>>>>
+    private static final BiFunction<Long, Long, Function<List<MessageRecord>, Map<Boolean, List<MessageRecord>>>>
             BY_INFLIGHT_DELAY_SPLITTER =
-            (inflightDelay, curTime) -> messageRecords -> messageRecords.stream().map(MessageRecord::fromString)
-                    .collect(partitioningBy(mr -> curTime - mr.getInflightSince() > inflightDelay,
-                            mapping(MessageRecord::toMessage, toList())));
+            (inflightDelay, curTime) -> messageRecords -> messageRecords.stream()
+                    .collect(partitioningBy(mr -> curTime - mr.getInflightSince() > inflightDelay));
 
     private static final FileQueue INSTANCE = new FileQueue();
     private static Properties properties;
 
+    private final ConcurrentMap<String, FileIdsGenerator> idsGenerators = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, InflightIndex> inflightIndexes = new ConcurrentHashMap<>();
+
     @SuppressWarnings("WeakerAccess")
-    public static Queue getInstance() {
+    public static FileQueue getInstance() {
         return INSTANCE;
     }
 
@@ -76,11 +93,18 @@ public class FileQueue implements Queue {
     }
 
     private long getInflightDelay() {
-        return Long.parseLong(properties.getProperty(INFLIGHT_TIMEOUT_SECONDS_KEY));
+        return TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty(INFLIGHT_TIMEOUT_SECONDS_KEY)));
+    }
+
+    private InflightIndex getInflightIndex(String queueUrl) {
+        return inflightIndexes.computeIfAbsent(queueUrl, url -> new InflightIndex());
     }
 
     private IdsGenerator getIdsGenerator(String queueDir) {
-        return new FileIdsGenerator(IDS_CONFIG.getPath(queueDir));
+        // generator keeps its leased ids, so it lives as long as the queue
+        return idsGenerators.computeIfAbsent(queueDir, dir -> new FileIdsGenerator(IDS_CONFIG.getPath(dir),
+                Integer.parseInt(properties.getProperty(FileIdsGenerator.LEASE_SIZE_KEY,
+                        String.valueOf(FileIdsGenerator.DEFAULT_LEASE_SIZE)))));
     }
 
     private FileQueue() {
@@ -89,59 +113,161 @@ public class FileQueue implements Queue {
     @Override
     @Nonnull
     public String sendMessage(String queueUrl, String messageBody) {
-        String messageId = getIdsGenerator(queueUrl).generateMessageId();
-        Message message = new Message().withBody(messageBody).withMessageId(String.valueOf(messageId));
-        addMessageToEndOfFile(Collections.singletonList(message), MESSAGES.getPath(queueUrl), timeService.millis());
-        return messageId;
+        return sendMessageBatch(queueUrl, Collections.singletonList(messageBody)).get(0);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Bodies are appended to {@link PackedBodyStore} at once, records are appended to messages file
+     * under a single lock, so the whole batch costs the same file operations as a single message.
+     * Queue size is not limited, every message is accepted.
+     */
     @Override
-    public Optional<Message> receiveMessage(String queueUrl) {
+    @Nonnull
+    public List<String> sendMessageBatch(String queueUrl, List<String> messageBodies) {
+        IdsGenerator idsGenerator = getIdsGenerator(queueUrl);
+        List<Long> bodyOffsets = PackedBodyStore.append(queueUrl, messageBodies);
+        long time = timeService.millis();
+        List<String> messageIds = new ArrayList<>(messageBodies.size());
+        List<MessageRecord> records = new ArrayList<>(messageBodies.size());
+        for (Long bodyOffset : bodyOffsets) {
+            String messageId = idsGenerator.generateMessageId();
+            messageIds.add(messageId);
+            records.add(MessageRecord.newRecord(Long.parseLong(messageId), bodyOffset, time));
+        }
+        addMessageToEndOfFile(records, MESSAGES.getPath(queueUrl));
+        return messageIds;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Records are claimed by a single rewrite of messages file and appended to inflight file at once.
+     */
+    @Override
+    @Nonnull
+    public List<ReceivedMessage> receiveMessages(String queueUrl, int maxNumberOfMessages, int visibilityTimeoutSeconds) {
         invalidateInflight(queueUrl);
-        return removeMessagesFromFile(MESSAGES.getPath(queueUrl), FIRST_MESSAGE_EXTRACTOR, timeService.millis())
-                .stream()
-                .findFirst()
-                .map(message -> {
-                    String receiptHandle = getIdsGenerator(queueUrl).generateRecipientHandlerId(message);
-                    message.withReceiptHandle(receiptHandle);
-                    addMessageToEndOfFile(Collections.singletonList(message), INFLIGHT.getPath(queueUrl),
-                            timeService.millis());
-                    return message;
-                });
+        List<MessageRecord> records =
+                removeMessagesFromFile(MESSAGES.getPath(queueUrl), FIRST_MESSAGES_EXTRACTOR.apply(maxNumberOfMessages));
+        if (records.isEmpty()) {
+            return Collections.emptyList();
+        }
+        IdsGenerator idsGenerator = getIdsGenerator(queueUrl);
+        long inflightSince = timeService.millis() + visibilityShift(visibilityTimeoutSeconds);
+        List<MessageRecord> inflight = new ArrayList<>(records.size());
+        List<ReceivedMessage> result = new ArrayList<>(records.size());
+        for (MessageRecord record : records) {
+            Message message = record.toMessage(PackedBodyStore.read(queueUrl, record));
+            long receiptHandle = Long.parseLong(idsGenerator.generateRecipientHandlerId(message));
+            inflight.add(record.withReceiptHandle(receiptHandle, inflightSince));
+            result.add(new ReceivedMessage(message.getMessageId(), message.getBody(), receiptHandle));
+        }
+        addMessageToEndOfFile(inflight, INFLIGHT.getPath(queueUrl), getInflightIndex(queueUrl));
+        return result;
     }
 
+    /**
+     * @return how much later than now receive time of inflight record has to be for it to expire after the given timeout
+     */
+    private long visibilityShift(int visibilityTimeoutSeconds) {
+        return visibilityTimeoutSeconds == QueueService.DEFAULT_VISIBILITY_TIMEOUT ? 0
+                : TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) - getInflightDelay();
+    }
+
+    /**
+     * Returns expired inflight messages to the queue.
+     * Inflight file is neither read nor written unless {@link InflightIndex} has an expired message
+     * or the file was modified by another process.
+     */
     private void invalidateInflight(String queueUrl) {
         long curTime = getCurrentTime();
-        addMessagesToBeginningOfFile(
-                removeMessagesFromFile(INFLIGHT.getPath(queueUrl),
-                        BY_INFLIGHT_DELAY_SPLITTER.apply(getInflightDelay(), curTime), timeService.millis()),
-                MESSAGES.getPath(queueUrl),
-                timeService.millis()
-        );
+        long inflightDelay = getInflightDelay();
+        Path inflightFile = INFLIGHT.getPath(queueUrl);
+        InflightIndex index = getInflightIndex(queueUrl);
+        try {
+            if (index.isStale(readModCount(inflightFile))) {
+                readMessagesFromFile(inflightFile, index::rebuild);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!index.mayHaveExpired(curTime, inflightDelay)) {
+            return;
+        }
+        returnToMessages(queueUrl,
+                removeMessagesFromFile(inflightFile, BY_INFLIGHT_DELAY_SPLITTER.apply(inflightDelay, curTime), index));
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Answered by {@link InflightIndex}, the index is stale only if inflight file was modified by another process
+     * after the last receive, then the receiver is told to retry right away.
+     */
+    @Override
+    public long nextExpiry(String queueUrl) {
+        return getInflightIndex(queueUrl).nextExpiry(getInflightDelay());
+    }
 
     @Override
-    public void invalidateNow(String queueUrl, String receiptHandle) {
+    public void invalidateNow(String queueUrl, long receiptHandle) {
+        returnToMessages(queueUrl,
+                removeMessagesFromFile(INFLIGHT.getPath(queueUrl), BY_RECEIPT_HANDLER_SPLITTER.apply(receiptHandle),
+                        getInflightIndex(queueUrl)));
+    }
+
+    private void returnToMessages(String queueUrl, List<MessageRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        long time = timeService.millis();
         addMessagesToBeginningOfFile(
-                removeMessagesFromFile(
-                        INFLIGHT.getPath(queueUrl),
-                        BY_RECEIPT_HANDLER_SPLITTER.apply(receiptHandle),
-                        timeService.millis()
-                ),
-                MESSAGES.getPath(queueUrl),
-                timeService.millis()
+                records.stream().map(r -> r.withReceiptHandle(MessageRecord.NO_RECEIPT_HANDLE, time)).collect(toList()),
+                MESSAGES.getPath(queueUrl)
         );
     }
 
     @Override
-    public void deleteMessage(String queueUrl, String receiptHandle) {
+    public void deleteMessage(String queueUrl, long receiptHandle) {
         removeMessagesFromFile(INFLIGHT.getPath(queueUrl), BY_RECEIPT_HANDLER_SPLITTER.apply(receiptHandle),
-                timeService.millis());
+                getInflightIndex(queueUrl));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Records are removed by a single rewrite of inflight file.
+     */
+    @Override
+    public void deleteMessageBatch(String queueUrl, List<Long> receiptHandles) {
+        removeMessagesFromFile(INFLIGHT.getPath(queueUrl), BY_RECEIPT_HANDLERS_SPLITTER.apply(new HashSet<>(receiptHandles)),
+                getInflightIndex(queueUrl));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Bodies of records that are neither in messages nor in inflight file are garbage.
+     */
+    @Override
+    public Collection<Path> findGarbage(String queueUrl, RateLimiter ioLimiter) throws IOException {
+        List<MessageRecord> liveRecords = new ArrayList<>();
+        for (FileDescriptor file : Arrays.asList(MESSAGES, INFLIGHT)) {
+            FileQueueCompactor.acquire(ioLimiter, Files.size(file.getPath(queueUrl)));
+            liveRecords.addAll(readMessagesFromFile(file.getPath(queueUrl)));
+        }
+        return PackedBodyStore.findUnreferenced(queueUrl, liveRecords);
     }
 
     @Override
     public void cleanup(String queueUrl) {
+        FileIdsGenerator idsGenerator = idsGenerators.remove(queueUrl);
+        if (idsGenerator != null) {
+            idsGenerator.close();
+        }
+        inflightIndexes.remove(queueUrl);
         try {
             Path rootPath = Paths.get(queueUrl);
             Files.walk(rootPath, FileVisitOption.FOLLOW_LINKS)
@@ -175,6 +301,7 @@ public class FileQueue implements Queue {
                 Files.createFile(IDS_CONFIG.getPath(queueUrl.toString()));
                 Files.createFile(MESSAGES.getPath(queueUrl.toString()));
                 Files.createFile(INFLIGHT.getPath(queueUrl.toString()));
+                Files.createDirectory(BODIES.getPath(queueUrl.toString()));
             }
         } catch (IOException e) {
             e.printStackTrace();
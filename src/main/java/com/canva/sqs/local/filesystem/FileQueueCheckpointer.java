@@ -0,0 +1,129 @@
+package com.canva.sqs.local.filesystem;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Background checkpointing of file based queues.
+ * <p>
+ * Periodically walks over all queues and saves their state next to their files, see {@link FileDescriptor#CHECKPOINT}.
+ * On startup every queue is recovered from its latest checkpoint, so only data written after the checkpoint
+ * is replayed and restart time does not depend on queue depth.
+ * Checkpoint interval is set by {@value #INTERVAL_MILLIS_KEY} property, it bounds the tail to replay.
+ *
+ * @author Alexander Pronin
+ * @see CompactableQueue#checkpoint(String)
+ * @see CompactableQueue#recover(String)
+ * @since 18/10/2026
+ */
+@ThreadSafe
+public class FileQueueCheckpointer {
+    public static final String INTERVAL_MILLIS_KEY = "sqs.checkpoint.interval.ms";
+    private static final long DEFAULT_INTERVAL_MILLIS = 10_000;
+
+    private final Path queuesBaseDir;
+    private final CompactableQueue queue;
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong recoveredQueues = new AtomicLong();
+    private final AtomicLong repairedQueues = new AtomicLong();
+
+    FileQueueCheckpointer(Path queuesBaseDir, CompactableQueue queue, Properties props) {
+        this.queuesBaseDir = queuesBaseDir;
+        this.queue = queue;
+
+        long interval = Long.parseLong(props.getProperty(INTERVAL_MILLIS_KEY, String.valueOf(DEFAULT_INTERVAL_MILLIS)));
+        if (interval > 0) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "sqs-file-checkpointer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::checkpoint, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Recovers all queues in the current thread. Queue that can't be recovered is left as is.
+     */
+    public synchronized void recover() {
+        for (Path queueDir : queueDirs()) {
+            try {
+                if (queue.recover(queueDir.toString())) {
+                    repairedQueues.incrementAndGet();
+                }
+                recoveredQueues.incrementAndGet();
+            } catch (NoSuchFileException e) {
+                // queue was deleted in the meantime
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Checkpoints all queues in the current thread.
+     */
+    public synchronized void checkpoint() {
+        for (Path queueDir : queueDirs()) {
+            try {
+                if (queue.checkpoint(queueDir.toString())) {
+                    checkpoints.incrementAndGet();
+                }
+            } catch (NoSuchFileException e) {
+                // queue was deleted in the meantime
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        runs.incrementAndGet();
+    }
+
+    private List<Path> queueDirs() {
+        try (Stream<Path> files = Files.list(queuesBaseDir)) {
+            return files.filter(Files::isDirectory).collect(toList());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public long getRuns() {
+        return runs.get();
+    }
+
+    public long getCheckpoints() {
+        return checkpoints.get();
+    }
+
+    public long getRecoveredQueues() {
+        return recoveredQueues.get();
+    }
+
+    public long getRepairedQueues() {
+        return repairedQueues.get();
+    }
+}
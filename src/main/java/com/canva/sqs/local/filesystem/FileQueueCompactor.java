@@ -0,0 +1,162 @@
+package com.canva.sqs.local.filesystem;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Background garbage collector of file based queues.
+ * <p>
+ * Periodically walks over all queues and reclaims files that queue does not reference anymore:
+ * body files and body segments of deleted messages, consumed segments of logs.
+ * <p>
+ * Queue may move record between its files without holding a lock for the whole move,
+ * hence garbage is reclaimed only when it was found unreferenced by two consecutive runs (mark and sweep).
+ * <p>
+ * Bytes read while looking for garbage are limited by {@value #BYTES_PER_SECOND_KEY} property,
+ * so compaction doesn't hurt foreground latency.
+ *
+ * @author Alexander Pronin
+ * @see CompactableQueue
+ * @since 18/10/2026
+ */
+@ThreadSafe
+public class FileQueueCompactor {
+    public static final String INTERVAL_MILLIS_KEY = "sqs.compaction.interval.ms";
+    public static final String BYTES_PER_SECOND_KEY = "sqs.compaction.bytes.per.second";
+    private static final long DEFAULT_INTERVAL_MILLIS = 60_000;
+    private static final long DEFAULT_BYTES_PER_SECOND = 16 * 1024 * 1024;
+
+    private final Path queuesBaseDir;
+    private final CompactableQueue queue;
+    private final RateLimiter ioLimiter;
+    private final ScheduledExecutorService executor;
+
+    // files found unreferenced by previous run
+    private Set<Path> marked = new HashSet<>();
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong filesReclaimed = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+
+    FileQueueCompactor(Path queuesBaseDir, CompactableQueue queue, Properties props) {
+        this.queuesBaseDir = queuesBaseDir;
+        this.queue = queue;
+        this.ioLimiter = RateLimiter.create(Long.parseLong(
+                props.getProperty(BYTES_PER_SECOND_KEY, String.valueOf(DEFAULT_BYTES_PER_SECOND))));
+
+        long interval = Long.parseLong(props.getProperty(INTERVAL_MILLIS_KEY, String.valueOf(DEFAULT_INTERVAL_MILLIS)));
+        if (interval > 0) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "sqs-file-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::compact, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs single mark and sweep pass over all queues in the current thread.
+     */
+    public synchronized void compact() {
+        Set<Path> garbage = new HashSet<>();
+        try (Stream<Path> files = Files.list(queuesBaseDir)) {
+            List<Path> queueDirs = files.filter(Files::isDirectory).collect(toList());
+            for (Path queueDir : queueDirs) {
+                garbage.addAll(findGarbage(queueDir.toString()));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        for (Path file : garbage) {
+            if (marked.contains(file)) {
+                reclaim(file);
+            }
+        }
+        garbage.removeAll(marked);
+        marked = garbage;
+        runs.incrementAndGet();
+    }
+
+    private Collection<Path> findGarbage(String queueUrl) {
+        try {
+            return queue.findGarbage(queueUrl, ioLimiter);
+        } catch (NoSuchFileException e) {
+            // queue was deleted in the meantime
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return new HashSet<>();
+    }
+
+    private void reclaim(Path file) {
+        try {
+            long size = Files.size(file);
+            FileHandleCache.getInstance().closeFile(queueDirOf(file), file);
+            if (Files.deleteIfExists(file)) {
+                filesReclaimed.incrementAndGet();
+                bytesReclaimed.addAndGet(size);
+            }
+        } catch (NoSuchFileException e) {
+            // reclaimed by someone else, e.g. queue was deleted
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Garbage files lie either in the queue directory or in one of its subdirectories
+     */
+    private Path queueDirOf(Path file) {
+        Path queueDir = file.getParent();
+        while (queueDir.getParent() != null && !queueDir.getParent().equals(queuesBaseDir)) {
+            queueDir = queueDir.getParent();
+        }
+        return queueDir;
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public long getRuns() {
+        return runs.get();
+    }
+
+    public long getFilesReclaimed() {
+        return filesReclaimed.get();
+    }
+
+    public long getBytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+
+    /**
+     * Acquires permits for the bytes that are about to be read.
+     */
+    static void acquire(RateLimiter ioLimiter, long bytes) {
+        ioLimiter.acquire((int) Math.max(1, Math.min(bytes, Integer.MAX_VALUE)));
+    }
+}
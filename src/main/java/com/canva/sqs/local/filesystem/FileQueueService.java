@@ -2,20 +2,32 @@ package com.canva.sqs.local.filesystem;
 
 import com.amazonaws.services.sqs.model.*;
 import com.canva.sqs.local.AbstractLocalQueue;
+import com.canva.sqs.local.MessageArrivals;
 import com.canva.sqs.local.Queue;
 import org.apache.http.annotation.ThreadSafe;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Clock;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import static com.canva.sqs.local.filesystem.FileDescriptor.SEMAPHORE;
-import static java.nio.file.StandardOpenOption.CREATE;
 import static java.util.stream.Collectors.toList;
 
 /**
@@ -24,19 +36,45 @@ import static java.util.stream.Collectors.toList;
  * <p>
  * Manages queues and maps queue responses to SQS API Results;
  * This implementation is abstracted from messages management.
+ * Storage engine is chosen by {@value FileStorageEngine#SQS_FILE_ENGINE_KEY} property, see {@link FileStorageEngine}.
+ * Durability of send, receive and delete is chosen by {@value FileDurability#SQS_FILE_DURABILITY_KEY} property,
+ * see {@link FileDurability}.
+ * Queues are recovered from their checkpoints on startup, see {@link FileQueueCheckpointer}.
+ * Long polling receivers are woken up by {@link FileQueueWatcher} instead of re-polling queue files.
+ * Asynchronous operations do file I/O on a dedicated bounded executor, see {@link #asyncExecutor()}.
+ * Background threads of the service are stopped by {@link #close()}.
  * <p>
  * For some methods (According to AWS SQS Documentation) it is not clear how to react if queue does not exists.
  * I decided to do nothing (do not throw exception in this case)
  */
 @ThreadSafe
-public class FileQueueService extends AbstractLocalQueue {
+public class FileQueueService extends AbstractLocalQueue implements AutoCloseable {
     public static final String SQS_QUEUES_DIR_KEY = "sqs.queues.dir";
+    public static final String ASYNC_THREADS_KEY = "sqs.file.async.threads";
+    public static final String ASYNC_QUEUE_SIZE_KEY = "sqs.file.async.queue.size";
+    private static final int DEFAULT_ASYNC_THREADS = 4;
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 1024;
 
     private final String queuesBaseDirStr;
     private final Path queuesBaseDir;
-    private Clock timeService = Clock.systemUTC();
+    private final Properties props;
+    private final Clock timeService;
+    private final FileStorageEngine engine;
+    private final CompactableQueue queue;
+    private final FileQueueCompactor compactor;
+    private final FileQueueCheckpointer checkpointer;
+    private final FileDurability.Committer committer;
+    // completes futures of asynchronous long polling receivers
+    private final ExecutorService completions = MessageArrivals.newCompletionExecutor("sqs-file-arrivals");
+    private final FileQueueWatcher watcher = new FileQueueWatcher(completions);
+    private final ThreadPoolExecutor ioExecutor;
+    private final ScheduledThreadPoolExecutor timer;
 
     public FileQueueService(Properties props) {
+        this(props, Clock.systemUTC());
+    }
+
+    public FileQueueService(Properties props, Clock timeService) {
         System.out.println("Initializing File System Queue Service");
         queuesBaseDirStr = props.getProperty(SQS_QUEUES_DIR_KEY);
         queuesBaseDir = Paths.get(queuesBaseDirStr);
@@ -45,49 +83,174 @@ public class FileQueueService extends AbstractLocalQueue {
             System.err.println(error);
             throw new IllegalStateException(error);
         }
-        FileQueue.setProperties(props);
+        this.props = props;
+        this.timeService = timeService;
+        this.engine = FileStorageEngine.fromProperties(props);
+        this.queue = engine.newQueue(props, timeService);
+        this.compactor = new FileQueueCompactor(queuesBaseDir, queue, props);
+        FileHandleCache.getInstance().setMaxOpenFiles(Integer.parseInt(props.getProperty(
+                FileHandleCache.MAX_OPEN_FILES_KEY, String.valueOf(FileHandleCache.DEFAULT_MAX_OPEN_FILES))));
+        FileDurability durability = FileDurability.fromProperties(props);
+        if (durability != FileDurability.NONE) {
+            FileHandleCache.getInstance().enableForceOnClose();
+        }
+        this.committer = durability.newCommitter(props);
+        this.checkpointer = new FileQueueCheckpointer(queuesBaseDir, queue, props);
+        checkpointer.recover();
 
+        int asyncThreads = Integer.parseInt(props.getProperty(ASYNC_THREADS_KEY, String.valueOf(DEFAULT_ASYNC_THREADS)));
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.ioExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Integer.parseInt(props.getProperty(ASYNC_QUEUE_SIZE_KEY,
+                        String.valueOf(DEFAULT_ASYNC_QUEUE_SIZE)))),
+                r -> daemon(r, "sqs-file-io-" + threadNumber.getAndIncrement()));
+        // idle service keeps no threads
+        ioExecutor.allowCoreThreadTimeOut(true);
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> daemon(r, "sqs-file-poll-timer"));
+        timer.setRemoveOnCancelPolicy(true);
     }
 
-    public FileQueueService(Properties props, Clock timeService) {
-        this(props);
-        this.timeService = timeService;
+    @Override
+    public SendMessageResult sendMessage(String queueUrl, String messageBody) {
+        try (GlobalCloseableLock ignored = enterQueue(queueUrl)) {
+            SendMessageResult result = committed(() -> super.sendMessage(queueUrl, messageBody));
+            watcher.signal(queueUrl);
+            return result;
+        }
     }
 
     @Override
-    public SendMessageResult sendMessage(String queueUrl, String messageBody) {
-        SemaphoreFile.increaseCounter(SEMAPHORE.getPath(queueUrl).toString());
-        try {
-            return super.sendMessage(queueUrl, messageBody);
-        } finally {
-            SemaphoreFile.decreaseCounter(SEMAPHORE.getPath(queueUrl).toString());
+    public SendMessageBatchResult sendMessageBatch(String queueUrl, List<SendMessageBatchRequestEntry> entries) {
+        try (GlobalCloseableLock ignored = enterQueue(queueUrl)) {
+            SendMessageBatchResult result = committed(() -> super.sendMessageBatch(queueUrl, entries));
+            watcher.signal(queueUrl);
+            return result;
         }
     }
 
     @Override
     public ReceiveMessageResult receiveMessage(String queueUrl) {
-        SemaphoreFile.increaseCounter(SEMAPHORE.getPath(queueUrl).toString());
-        try {
-            return super.receiveMessage(queueUrl);
-        } finally {
-            SemaphoreFile.decreaseCounter(SEMAPHORE.getPath(queueUrl).toString());
+        try (GlobalCloseableLock ignored = enterQueue(queueUrl)) {
+            return committed(() -> super.receiveMessage(queueUrl));
         }
     }
 
+    /**
+     * Every attempt of a long polling receive enters the queue on its own,
+     * so waiting receivers don't hold off deletion of the queue.
+     */
+    @Override
+    protected ReceiveMessageResult tryReceiveMessage(String queueUrl, int maxNumberOfMessages,
+                                                     int visibilityTimeoutSeconds) {
+        try (GlobalCloseableLock ignored = enterQueue(queueUrl)) {
+            return committed(() -> super.tryReceiveMessage(queueUrl, maxNumberOfMessages, visibilityTimeoutSeconds));
+        }
+    }
+
+    /**
+     * Queue files are watched before the token is taken, so that sends of other processes are not missed
+     */
+    @Override
+    protected long arrivals(String queueUrl) {
+        watcher.watch(queueUrl);
+        return watcher.getArrivals(queueUrl).count();
+    }
+
+    /**
+     * Waits for a signal of {@link FileQueueWatcher} or until the earliest inflight message expires,
+     * whichever comes first, see {@link CompactableQueue#nextExpiry(String)}.
+     */
+    @Override
+    protected boolean awaitMessages(String queueUrl, long arrivals, long deadlineNanos) throws InterruptedException {
+        Optional<Long> wakeUp = wakeUpNanos(queueUrl, deadlineNanos);
+        if (!wakeUp.isPresent()) {
+            return false;
+        }
+        return watcher.getArrivals(queueUrl).await(arrivals, wakeUp.get()) || System.nanoTime() - deadlineNanos < 0;
+    }
+
+    /**
+     * Asynchronous {@link #awaitMessages(String, long, long)}, the wake up is scheduled on a timer
+     */
+    @Override
+    protected CompletableFuture<Boolean> awaitMessagesAsync(String queueUrl, long arrivals, long deadlineNanos) {
+        Optional<Long> wakeUp = wakeUpNanos(queueUrl, deadlineNanos);
+        if (!wakeUp.isPresent()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        MessageArrivals queueArrivals = watcher.getArrivals(queueUrl);
+        CompletableFuture<Boolean> signalled = queueArrivals.awaitAsync(arrivals);
+        if (!signalled.isDone()) {
+            ScheduledFuture<?> timeout = timer.schedule(() -> queueArrivals.cancel(signalled),
+                    wakeUp.get() - System.nanoTime(), TimeUnit.NANOSECONDS);
+            signalled.thenRun(() -> timeout.cancel(false));
+        }
+        return signalled.thenApply(woken -> woken || System.nanoTime() - deadlineNanos < 0);
+    }
+
+    /**
+     * @return time by {@link System#nanoTime()} when waiting receiver has to retry by itself: at the deadline
+     * or once the earliest inflight message expires, empty if queue does not exist
+     */
+    private Optional<Long> wakeUpNanos(String queueUrl, long deadlineNanos) {
+        try (GlobalCloseableLock lock = enterQueue(queueUrl)) {
+            if (lock == null) {
+                return Optional.empty();
+            }
+            long nextExpiry = queue.nextExpiry(queueUrl);
+            if (nextExpiry != Long.MAX_VALUE) {
+                long now = System.nanoTime();
+                long nowMillis = timeService.millis();
+                // compared before subtracting: Long.MIN_VALUE of a stale index would overflow
+                if (nextExpiry <= nowMillis) {
+                    return Optional.of(now);
+                }
+                long untilExpiry = nextExpiry - nowMillis;
+                if (untilExpiry < TimeUnit.NANOSECONDS.toMillis(deadlineNanos - now)) {
+                    return Optional.of(now + TimeUnit.MILLISECONDS.toNanos(untilExpiry));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return Optional.of(deadlineNanos);
+    }
+
+    /**
+     * Asynchronous operations run on a bounded pool of {@value #ASYNC_THREADS_KEY} threads
+     * with a queue of {@value #ASYNC_QUEUE_SIZE_KEY} operations, operation that doesn't fit is rejected.
+     */
+    @Override
+    protected Executor asyncExecutor() {
+        return ioExecutor;
+    }
+
     @Override
     public void deleteMessage(String queueUrl, String receiptHandle) {
-        SemaphoreFile.increaseCounter(SEMAPHORE.getPath(queueUrl).toString());
-        try {
-            super.deleteMessage(queueUrl, receiptHandle);
-        } finally {
-            SemaphoreFile.decreaseCounter(SEMAPHORE.getPath(queueUrl).toString());
+        try (GlobalCloseableLock ignored = enterQueue(queueUrl)) {
+            committed(() -> {
+                super.deleteMessage(queueUrl, receiptHandle);
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(String queueUrl, List<DeleteMessageBatchRequestEntry> entries) {
+        try (GlobalCloseableLock ignored = enterQueue(queueUrl)) {
+            return committed(() -> super.deleteMessageBatch(queueUrl, entries));
         }
+    }
 
+    @Override
+    public void invalidateNow(String queueUrl, String receiptHandle) {
+        super.invalidateNow(queueUrl, receiptHandle);
+        watcher.signal(queueUrl);
     }
 
     @Override
     protected Queue getQueue(String ignored) {
-        return FileQueue.getInstance();
+        return queue;
     }
 
     /**
@@ -96,42 +259,39 @@ public class FileQueueService extends AbstractLocalQueue {
      */
     @Override
     public CreateQueueResult createQueue(String queueName) {
-        FileQueue.init(queueName, timeService);
-        GetQueueUrlResult queueUrl = getQueueUrl(queueName);
-        createQueueSemaphore(SEMAPHORE.getPath(queueUrl.getQueueUrl()).toString());
-        return new CreateQueueResult().withQueueUrl(queueUrl.getQueueUrl());
+        engine.initQueue(props, queueName, timeService);
+        return new CreateQueueResult().withQueueUrl(getQueueUrl(queueName).getQueueUrl());
     }
 
     /**
      * Deletes queue even if there are message in this queue.
      * <p>
-     * Blocks if there are clients currently working with this queue.
-     * Livelock is possible
+     * Blocks until operations on this queue that are in flight in this and other processes complete,
+     * operations that arrive later wait for deletion to complete.
      * <p>
      * All subsequent requests to this queue by its name or url will achieve visibility of this action.
+     * Files of the queue kept open by {@link FileHandleCache} are closed.
      * Does nothing if queue does not exists
      *
      * @param queueUrl queueUrl
      */
     @Override
     public void deleteQueue(String queueUrl) {
-        boolean isExecuted;
-        do {
-            isExecuted = SemaphoreFile.executeIfZero(queueUrl, () -> {
-                getQueue(queueUrl).cleanup(queueUrl);
-                try {
-                    Files.delete(Paths.get(SEMAPHORE.getPath(queueUrl).toString()));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            });
-        } while (!isExecuted);
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(SEMAPHORE.getPath(queueUrl).toString()).lock()) {
+            getQueue(queueUrl).cleanup(queueUrl);
+            FileHandleCache.getInstance().close(Paths.get(queueUrl));
+            watcher.remove(queueUrl);
+        } catch (NoSuchFileException e) {
+            // queue does not exist
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     @Override
     public ListQueuesResult listQueues() {
         List<String> queues = new ArrayList<>();
-        try (GlobalCloseableLock ignored = new GlobalCloseableLock(queuesBaseDirStr + "/").lock()) {
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(queuesBaseDirStr + "/").lockShared()) {
             queues = Files.list(queuesBaseDir).map(Path::toString).collect(toList());
         } catch (IOException e) {
             e.printStackTrace();
@@ -153,11 +313,73 @@ public class FileQueueService extends AbstractLocalQueue {
         return new GetQueueUrlResult();
     }
 
-    private void createQueueSemaphore(String queueSemaphore) {
+    /**
+     * Registers operation on the queue: shared lock of queue's {@link FileDescriptor#SEMAPHORE},
+     * {@link #deleteQueue(String)} takes it exclusively.
+     * Threads of this process share a single OS level lock, so an operation costs no file I/O,
+     * and the lock of a crashed process is released by OS.
+     *
+     * @return null if queue does not exist, operation then goes on as for any unknown queue
+     */
+    private static GlobalCloseableLock enterQueue(String queueUrl) {
         try {
-            Files.write(Paths.get(queueSemaphore).toAbsolutePath(), new byte[0], CREATE);
+            return new GlobalCloseableLock(SEMAPHORE.getPath(queueUrl).toString()).lockShared();
+        } catch (NoSuchFileException e) {
+            return null;
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Unable to lock queue " + queueUrl, e);
         }
     }
+
+    /**
+     * Runs operation and makes files it has written durable according to {@link FileDurability} of the service.
+     * Files written by failed operation are forgotten.
+     */
+    private <T> T committed(Supplier<T> operation) {
+        ChannelIO.trackWritten();
+        T result;
+        try {
+            result = operation.get();
+        } catch (RuntimeException | Error e) {
+            ChannelIO.takeWritten();
+            throw e;
+        }
+        committer.commit(ChannelIO.takeWritten());
+        return result;
+    }
+
+    /**
+     * Stops background threads of the service. Accepted asynchronous operations are finished,
+     * writes waiting for a group commit are synced, long polling receivers are released by their deadlines.
+     */
+    @Override
+    public void close() {
+        ioExecutor.shutdown();
+        timer.shutdown();
+        completions.shutdown();
+        watcher.close();
+        compactor.shutdown();
+        checkpointer.shutdown();
+        committer.shutdown();
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * @return background garbage collector of this service's queues and its statistics
+     */
+    public FileQueueCompactor getCompactor() {
+        return compactor;
+    }
+
+    /**
+     * @return background checkpointer of this service's queues and its statistics
+     */
+    public FileQueueCheckpointer getCheckpointer() {
+        return checkpointer;
+    }
 }
@@ -0,0 +1,207 @@
+package com.canva.sqs.local.filesystem;
+
+import com.canva.sqs.local.MessageArrivals;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import static com.canva.sqs.local.filesystem.FileDescriptor.MESSAGES;
+import static com.canva.sqs.local.filesystem.FileDescriptor.MESSAGES_LOG;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Wakes up long polling receivers of file based queues, so that they don't re-poll queue files.
+ * <p>
+ * Every queue has its {@link MessageArrivals}. Sends and invalidations made by this process signal it directly.
+ * Sends made by other processes are noticed by a {@link WatchService} over the files every send writes:
+ * {@link FileDescriptor#MESSAGES} of {@link FileStorageEngine#TEXT} and segments of {@link FileDescriptor#MESSAGES_LOG}
+ * of {@link FileStorageEngine#SEGMENTED_LOG}. Empty receive writes neither of them, so it doesn't wake anybody.
+ * <p>
+ * Queue directory is watched once its queue is awaited for the first time, watching thread is started then as well,
+ * so the service that never long polls costs nothing. Watch of a deleted queue is cancelled by the file system.
+ * Messages log created after its queue directory is watched is registered once the watching thread sees it created.
+ * If file system can't be watched, only signals of this process wake receivers up.
+ *
+ * @author Alexander Pronin
+ * @see FileQueueService
+ * @since 18/10/2026
+ */
+@ThreadSafe
+class FileQueueWatcher {
+    private final ConcurrentMap<String, MessageArrivals> arrivals = new ConcurrentHashMap<>();
+    private final Executor completions;
+    // watched directory -> its queue
+    private final ConcurrentMap<Path, String> watched = new ConcurrentHashMap<>();
+    private volatile WatchService watchService;
+    // guarded by this
+    private boolean closed;
+
+    /**
+     * @param completions executor that completes futures of asynchronous receivers, see {@link MessageArrivals}
+     */
+    FileQueueWatcher(Executor completions) {
+        this.completions = completions;
+    }
+
+    MessageArrivals getArrivals(String queueUrl) {
+        return arrivals.computeIfAbsent(queueUrl, url -> new MessageArrivals(completions));
+    }
+
+    void signal(String queueUrl) {
+        getArrivals(queueUrl).signal();
+    }
+
+    /**
+     * Wakes up receivers of the deleted queue and forgets it
+     */
+    void remove(String queueUrl) {
+        MessageArrivals removed = arrivals.remove(queueUrl);
+        if (removed != null) {
+            removed.signal();
+        }
+    }
+
+    /**
+     * Starts watching files of the queue written by sends of other processes. Does nothing if already watched.
+     */
+    void watch(String queueUrl) {
+        Path queueDir = Paths.get(queueUrl);
+        if (watched.containsKey(queueDir)) {
+            return;
+        }
+        WatchService service = watchService();
+        if (service == null) {
+            return;
+        }
+        try {
+            register(service, queueDir, queueUrl);
+            // created after the queue directory, the watching thread registers it then
+            Path messagesLog = MESSAGES_LOG.getPath(queueUrl);
+            if (Files.isDirectory(messagesLog)) {
+                register(service, messagesLog, queueUrl);
+            }
+        } catch (NoSuchFileException e) {
+            // queue is deleted, receiver finds it out itself
+        } catch (ClosedWatchServiceException e) {
+            // watcher is closed
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void register(WatchService service, Path dir, String queueUrl) throws IOException {
+        if (watched.putIfAbsent(dir, queueUrl) == null) {
+            try {
+                dir.register(service, ENTRY_CREATE, ENTRY_MODIFY);
+            } catch (IOException e) {
+                watched.remove(dir);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops watching thread, receivers are woken up by signals of this process only from now on
+     */
+    synchronized void close() {
+        closed = true;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private WatchService watchService() {
+        if (watchService == null) {
+            synchronized (this) {
+                if (watchService == null && !closed) {
+                    try {
+                        watchService = FileSystems.getDefault().newWatchService();
+                    } catch (IOException | UnsupportedOperationException e) {
+                        e.printStackTrace();
+                        return null;
+                    }
+                    Thread thread = new Thread(this::run, "sqs-file-watcher");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            }
+        }
+        return watchService;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path dir = (Path) key.watchable();
+                String queueUrl = watched.get(dir);
+                boolean sent = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (queueUrl == null) {
+                        continue;
+                    }
+                    if (isMessagesLogCreated(queueUrl, dir, event)) {
+                        // segments written before it was registered are not reported, receivers look for them
+                        sent |= registerMessagesLog(queueUrl);
+                    } else {
+                        sent |= isSend(queueUrl, dir, event);
+                    }
+                }
+                if (sent) {
+                    signal(queueUrl);
+                }
+                if (!key.reset()) {
+                    // directory is deleted, queue with the same name is watched anew
+                    watched.remove(dir);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // watcher is stopped
+        }
+    }
+
+    /**
+     * @return true if messages log is watched from now on
+     */
+    private boolean registerMessagesLog(String queueUrl) {
+        try {
+            register(watchService, MESSAGES_LOG.getPath(queueUrl), queueUrl);
+            return true;
+        } catch (NoSuchFileException e) {
+            // queue is deleted, receiver finds it out itself
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private static boolean isMessagesLogCreated(String queueUrl, Path dir, WatchEvent<?> event) {
+        return event.kind() == ENTRY_CREATE && dir.resolve((Path) event.context()).equals(MESSAGES_LOG.getPath(queueUrl));
+    }
+
+    private static boolean isSend(String queueUrl, Path dir, WatchEvent<?> event) {
+        if (event.kind() == OVERFLOW) {
+            return true;
+        }
+        Path file = dir.resolve((Path) event.context());
+        return file.equals(MESSAGES.getPath(queueUrl)) || dir.equals(MESSAGES_LOG.getPath(queueUrl));
+    }
+}
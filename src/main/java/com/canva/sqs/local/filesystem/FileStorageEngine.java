@@ -0,0 +1,69 @@
+package com.canva.sqs.local.filesystem;
+
+import java.time.Clock;
+import java.util.Properties;
+
+/**
+ * Storage engines available for file based SQS.
+ * Selected by {@value #SQS_FILE_ENGINE_KEY} property, {@link #TEXT} is used by default.
+ *
+ * @author Alexander Pronin
+ * @see FileQueueService
+ * @since 18/10/2026
+ */
+public enum FileStorageEngine {
+    /**
+     * Line per message files rewritten on every operation. See {@link FileQueue}
+     */
+    TEXT("text") {
+        @Override
+        CompactableQueue newQueue(Properties props, Clock timeService) {
+            FileQueue.setProperties(props);
+            return FileQueue.getInstance();
+        }
+
+        @Override
+        void initQueue(Properties props, String queueName, Clock timeService) {
+            FileQueue.init(queueName, timeService);
+        }
+    },
+    /**
+     * Append-only size-rolled segments. See {@link SegmentedLogQueue}
+     */
+    SEGMENTED_LOG("log") {
+        @Override
+        CompactableQueue newQueue(Properties props, Clock timeService) {
+            return new SegmentedLogQueue(props, timeService);
+        }
+
+        @Override
+        void initQueue(Properties props, String queueName, Clock timeService) {
+            SegmentedLogQueue.init(props, queueName);
+        }
+    };
+
+    public static final String SQS_FILE_ENGINE_KEY = "sqs.file.engine";
+
+    private final String name;
+
+    FileStorageEngine(String name) {
+        this.name = name;
+    }
+
+    abstract CompactableQueue newQueue(Properties props, Clock timeService);
+
+    /**
+     * Creates queue files. Does nothing if queue already exists.
+     */
+    abstract void initQueue(Properties props, String queueName, Clock timeService);
+
+    public static FileStorageEngine fromProperties(Properties props) {
+        String name = props.getProperty(SQS_FILE_ENGINE_KEY, TEXT.name);
+        for (FileStorageEngine engine : values()) {
+            if (engine.name.equals(name)) {
+                return engine;
+            }
+        }
+        throw new IllegalStateException("Unknown file storage engine: " + name);
+    }
+}
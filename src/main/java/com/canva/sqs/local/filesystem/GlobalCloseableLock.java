@@ -1,20 +1,35 @@
 package com.canva.sqs.local.filesystem;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Single JMV + Single Host Exclusive lock based on JDK {@link ReentrantLock} for JVM locking
+ * Single JMV + Single Host lock based on JDK {@link ReentrantReadWriteLock} for JVM locking
  * and {@link FileChannel} for host's file locking.
  * <p>
  * Main tool for implementation of critical sections for file based SQS
  * <p>
+ * JVM lock is taken per locked file, so critical sections of different files
+ * (e.g. different queues, or ids and inflight files of the same queue) never block each other.
+ * Locks of files nobody is working with are garbage collected.
+ * <p>
+ * Supports two modes:
+ * {@link #lock()} - exclusive lock, both in JVM and for other processes;
+ * {@link #lockShared()} - shared lock for readers. Threads of the JVM share the single OS level shared lock,
+ * as JDK does not allow overlapping file locks within one JVM.
+ * <p>
+ * Lock files are kept open in {@link FileHandleCache}, locking does not open and close them.
+ * <p>
  * Implemented as AutoCloseable for convenient usage in try-with-resources
  * <p>
  * Usage example:
@@ -28,37 +43,124 @@ import java.util.concurrent.locks.ReentrantLock;
 @SuppressWarnings("WeakerAccess")
 @ThreadSafe
 public class GlobalCloseableLock implements AutoCloseable {
-    private static final Lock GLOBAL_LOCK = new ReentrantLock();
-    private final FileChannel channel;
+    private static final LoadingCache<String, PathLock> LOCKS =
+            CacheBuilder.newBuilder().weakValues().build(CacheLoader.from(PathLock::new));
+
+    private final Path lockFile;
+    // strong reference keeps path lock alive while it is used
+    private final PathLock pathLock;
+    private FileHandleCache.Handle handle;
     private FileLock fileLock;
+    private boolean shared;
+    private boolean locked;
 
     public GlobalCloseableLock(String fileName) throws IOException {
-        this.channel =
-                FileChannel.open(Paths.get(fileName + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.lockFile = Paths.get(fileName + ".lock").toAbsolutePath().normalize();
+        // the same file must always be guarded by the same JVM lock
+        this.pathLock = LOCKS.getUnchecked(lockFile.toString());
     }
 
     @Override
     public void close() {
-        try {
-            if (fileLock != null) {
-                fileLock.release();
-            }
-            channel.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!locked) {
+            return;
+        }
+        locked = false;
+        if (shared) {
+            pathLock.releaseShared();
+            pathLock.readWriteLock.readLock().unlock();
+            return;
         }
-        GLOBAL_LOCK.unlock();
         try {
-            channel.close();
+            fileLock.release();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        handle.close();
+        pathLock.readWriteLock.writeLock().unlock();
     }
 
+    /**
+     * Acquires exclusive lock
+     */
     public GlobalCloseableLock lock() throws IOException {
         //noinspection LockAcquiredButNotSafelyReleased
-        GLOBAL_LOCK.lock();
-        fileLock = channel.lock();
+        pathLock.readWriteLock.writeLock().lock();
+        try {
+            handle = open(lockFile);
+            fileLock = handle.channel().lock();
+        } catch (IOException | RuntimeException e) {
+            if (handle != null) {
+                handle.close();
+            }
+            pathLock.readWriteLock.writeLock().unlock();
+            throw e;
+        }
+        locked = true;
+        return this;
+    }
+
+    /**
+     * Acquires shared lock. Use it for critical sections that only read the file.
+     */
+    public GlobalCloseableLock lockShared() throws IOException {
+        //noinspection LockAcquiredButNotSafelyReleased
+        pathLock.readWriteLock.readLock().lock();
+        try {
+            pathLock.acquireShared(lockFile);
+        } catch (IOException | RuntimeException e) {
+            pathLock.readWriteLock.readLock().unlock();
+            throw e;
+        }
+        shared = true;
+        locked = true;
         return this;
     }
+
+    private static FileHandleCache.Handle open(Path lockFile) throws IOException {
+        return FileHandleCache.getInstance().open(lockFile.getParent(), lockFile);
+    }
+
+    /**
+     * JVM level lock of the single file.
+     * Readers holding {@link #readWriteLock} share single OS level lock, the last one releases it.
+     */
+    private static class PathLock {
+        private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+        private int readers;
+        private FileHandleCache.Handle sharedHandle;
+        private FileLock sharedFileLock;
+
+        @SuppressWarnings("unused")
+        PathLock(String ignored) {
+        }
+
+        synchronized void acquireShared(Path lockFile) throws IOException {
+            if (readers == 0) {
+                FileHandleCache.Handle handle = open(lockFile);
+                try {
+                    sharedFileLock = handle.channel().lock(0, Long.MAX_VALUE, true);
+                } catch (IOException | RuntimeException e) {
+                    handle.close();
+                    throw e;
+                }
+                sharedHandle = handle;
+            }
+            readers++;
+        }
+
+        synchronized void releaseShared() {
+            if (--readers > 0) {
+                return;
+            }
+            try {
+                sharedFileLock.release();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            sharedHandle.close();
+            sharedFileLock = null;
+            sharedHandle = null;
+        }
+    }
 }
@@ -0,0 +1,179 @@
+package com.canva.sqs.local.filesystem;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.filesystem.FileDurability.GROUP_COMMIT_MILLIS_KEY;
+import static com.canva.sqs.local.filesystem.FileDurability.GROUP_COMMIT_OPERATIONS_KEY;
+
+/**
+ * Syncs files written by many operations with a single {@link FileChannel#force(boolean)} per file.
+ * <p>
+ * Operations join the open batch and wait. Background thread closes the batch
+ * when {@value FileDurability#GROUP_COMMIT_MILLIS_KEY} ms passed since its first operation
+ * or it has {@value FileDurability#GROUP_COMMIT_OPERATIONS_KEY} operations,
+ * syncs its files and releases the waiting operations.
+ * With zero interval batch is closed as soon as the previous one is synced,
+ * so batch consists of operations that arrived while the previous sync was running.
+ * <p>
+ * {@link #shutdown()} syncs the open batch before it returns, operations committed afterwards sync their files themselves.
+ * <p>
+ * Failed sync is sticky: data written before it may be lost whatever later syncs return,
+ * so operations of the failed batch and every operation committed afterwards fail with the same error.
+ *
+ * @author Alexander Pronin
+ * @see FileDurability#GROUP_COMMIT
+ * @since 18/10/2026
+ */
+@ThreadSafe
+class GroupCommitter implements FileDurability.Committer {
+    private static final long DEFAULT_INTERVAL_MILLIS = 0;
+    private static final int DEFAULT_MAX_OPERATIONS = 64;
+
+    private final long intervalNanos;
+    private final int maxOperations;
+
+    // guarded by this
+    private Set<FileChannel> pending = new HashSet<>();
+    private int pendingOperations;
+    private long openBatch = 1;
+    private long durableBatch;
+    // first failed batch, operations of later batches fail as well
+    private long failedBatch;
+    private IOException failure;
+    private boolean stopped;
+    private final Thread flusher;
+
+    GroupCommitter(Properties props) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(
+                props.getProperty(GROUP_COMMIT_MILLIS_KEY, String.valueOf(DEFAULT_INTERVAL_MILLIS))));
+        this.maxOperations = Integer.parseInt(
+                props.getProperty(GROUP_COMMIT_OPERATIONS_KEY, String.valueOf(DEFAULT_MAX_OPERATIONS)));
+        this.flusher = new Thread(this::flushLoop, "sqs-group-commit");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void commit(Collection<FileChannel> written) {
+        if (written.isEmpty()) {
+            return;
+        }
+        if (!join(written)) {
+            try {
+                FileDurability.force(written);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Waits until the batch the written channels joined is synced
+     *
+     * @return false if committer is stopped, channels are not synced then
+     */
+    private boolean join(Collection<FileChannel> written) {
+        boolean interrupted = false;
+        synchronized (this) {
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+            if (stopped) {
+                return false;
+            }
+            long batch = openBatch;
+            pending.addAll(written);
+            if (++pendingOperations == 1 || pendingOperations >= maxOperations) {
+                // wake flusher to start the timer or to close the full batch
+                notifyAll();
+            }
+            // flusher syncs every batch before it stops
+            while (durableBatch < batch) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (failure != null && failedBatch <= batch) {
+                throw new UncheckedIOException(failure);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * Syncs the open batch and stops the flusher
+     */
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            Set<FileChannel> toSync;
+            long batch;
+            synchronized (this) {
+                try {
+                    while (pendingOperations == 0 && !stopped) {
+                        wait();
+                    }
+                    long deadline = System.nanoTime() + intervalNanos;
+                    long remaining = intervalNanos;
+                    while (pendingOperations > 0 && pendingOperations < maxOperations && remaining > 0 && !stopped) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                        remaining = deadline - System.nanoTime();
+                    }
+                } catch (InterruptedException e) {
+                    stopped = true;
+                }
+                if (pendingOperations == 0) {
+                    // stopped and nothing is left to sync
+                    return;
+                }
+                toSync = pending;
+                batch = openBatch;
+                pending = new HashSet<>();
+                pendingOperations = 0;
+                openBatch++;
+            }
+
+            IOException error = null;
+            try {
+                FileDurability.force(toSync);
+            } catch (IOException e) {
+                e.printStackTrace();
+                error = e;
+            }
+
+            synchronized (this) {
+                durableBatch = batch;
+                if (error != null && failure == null) {
+                    failedBatch = batch;
+                    failure = error;
+                }
+                notifyAll();
+            }
+        }
+    }
+}
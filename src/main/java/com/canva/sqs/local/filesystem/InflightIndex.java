@@ -0,0 +1,103 @@
+package com.canva.sqs.local.filesystem;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * In-memory view of {@link FileQueue}'s inflight file: min-heap of inflight records ordered by the time
+ * they were received, so the oldest inflight message is known without reading the file.
+ * <p>
+ * Index is kept up to date by the modifications of the inflight file made by this process,
+ * see {@link SynchronizedFileReaderWriter.ModificationListener}. Modification made by another process
+ * is detected by a gap in file's modification counter, then the index is stale until it is rebuilt from the file.
+ * Index starts stale, so it is rebuilt on first use.
+ * <p>
+ * Deleted records are removed from the heap lazily, once they reach its top.
+ *
+ * @author Alexander Pronin
+ * @see FileQueue
+ * @since 18/10/2026
+ */
+@ThreadSafe
+class InflightIndex implements SynchronizedFileReaderWriter.ModificationListener {
+    private static final long STALE = -1;
+
+    private final PriorityQueue<MessageRecord> byInflightSince =
+            new PriorityQueue<>(Comparator.comparingLong(MessageRecord::getInflightSince));
+    // receipt handle -> record
+    private final Map<Long, MessageRecord> inflight = new HashMap<>();
+    private long modCount = STALE;
+
+    /**
+     * @param fileModCount current modification counter of the inflight file
+     */
+    synchronized boolean isStale(long fileModCount) {
+        return modCount == STALE || modCount != fileModCount;
+    }
+
+    synchronized void rebuild(List<MessageRecord> records, long fileModCount) {
+        byInflightSince.clear();
+        inflight.clear();
+        records.forEach(this::add);
+        modCount = fileModCount;
+    }
+
+    /**
+     * @return true if index is stale or has a record that was received more than timeout ago
+     */
+    synchronized boolean mayHaveExpired(long currentTime, long timeoutMillis) {
+        if (modCount == STALE) {
+            return true;
+        }
+        MessageRecord oldest = oldest();
+        return oldest != null && currentTime - oldest.getInflightSince() > timeoutMillis;
+    }
+
+    /**
+     * @return time the oldest inflight record expires at, {@link Long#MAX_VALUE} if there is none,
+     * {@link Long#MIN_VALUE} if index is stale
+     */
+    synchronized long nextExpiry(long timeoutMillis) {
+        if (modCount == STALE) {
+            return Long.MIN_VALUE;
+        }
+        MessageRecord oldest = oldest();
+        return oldest == null ? Long.MAX_VALUE : oldest.getInflightSince() + timeoutMillis + 1;
+    }
+
+    @Override
+    public synchronized void modified(long previousModCount, long fileModCount,
+                                      List<MessageRecord> removed, List<MessageRecord> added) {
+        if (modCount == STALE || previousModCount != modCount) {
+            // file was modified by someone else, index will be rebuilt
+            modCount = STALE;
+            return;
+        }
+        removed.forEach(record -> inflight.remove(record.getReceiptHandle()));
+        added.forEach(this::add);
+        modCount = fileModCount;
+        if (byInflightSince.size() > 2 * inflight.size() + 16) {
+            // too many deleted records wait to reach the top
+            byInflightSince.clear();
+            byInflightSince.addAll(inflight.values());
+        }
+    }
+
+    private void add(MessageRecord record) {
+        inflight.put(record.getReceiptHandle(), record);
+        byInflightSince.add(record);
+    }
+
+    private MessageRecord oldest() {
+        MessageRecord oldest = byInflightSince.peek();
+        while (oldest != null && inflight.get(oldest.getReceiptHandle()) != oldest) {
+            byInflightSince.poll();
+            oldest = byInflightSince.peek();
+        }
+        return oldest;
+    }
+}
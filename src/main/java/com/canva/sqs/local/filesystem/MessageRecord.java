@@ -4,57 +4,84 @@ import com.amazonaws.services.sqs.model.Message;
 
 /**
  * Helper DTO class for saving relevant (for our simple sqs implementation) data in file
+ * <p>
+ * Body itself is not a part of the record, record keeps offset of the body in {@link PackedBodyStore}.
+ * Records written before bodies were packed have no offset, see {@link #LEGACY_BODY_OFFSET}.
+ * <p>
+ * Ids are kept as numbers, they are converted to strings only when record becomes {@link Message}.
+ * See {@link MessageRecordCodec} for the file format.
  *
  * @author Alexander Pronin
  * @since 06/11/2017
  */
 public class MessageRecord {
+    /**
+     * Body is stored in a separate file per message
+     */
+    public static final long LEGACY_BODY_OFFSET = -1;
+    public static final long NO_RECEIPT_HANDLE = -1;
     private static final String SEP = ":";
+    private static final String NULL = "null";
 
-    private final String messageId;
+    private final long messageId;
     private final long inflightSince;
-    private final String receiptHandle;
-//    private final String body;
+    private final long receiptHandle;
+    private final long bodyOffset;
 
-    private MessageRecord(String messageId, String receiptHandle,/*, String body*/Long time) {
-        this(messageId, time, receiptHandle/*, body*/);
-    }
-
-    private MessageRecord(String messageId, long inflightSince, String receiptHandle/*, String body*/) {
-//        this.body = body;
+    private MessageRecord(long messageId, long inflightSince, long receiptHandle, long bodyOffset) {
         this.messageId = messageId;
         this.receiptHandle = receiptHandle;
         this.inflightSince = inflightSince;
+        this.bodyOffset = bodyOffset;
+    }
+
+    static MessageRecord of(long messageId, long inflightSince, long receiptHandle, long bodyOffset) {
+        return new MessageRecord(messageId, inflightSince, receiptHandle, bodyOffset);
     }
 
-    public static MessageRecord fromMessage(Message message, Long time) {
-        return new MessageRecord(message.getMessageId(), message.getReceiptHandle(), time/*, null*/);
+    public static MessageRecord newRecord(long messageId, long bodyOffset, long time) {
+        return new MessageRecord(messageId, time, NO_RECEIPT_HANDLE, bodyOffset);
     }
 
+    /**
+     * Parses legacy text record {@code messageId:inflightSince:receiptHandle[:bodyOffset]}
+     */
     public static MessageRecord fromString(String messageRecordStr) {
         String[] splited = messageRecordStr.split(SEP);
-        return new MessageRecord(splited[0], Long.valueOf(splited[1]), splited[2]/*, splited[3]*/);
+        long receiptHandle = NULL.equals(splited[2]) ? NO_RECEIPT_HANDLE : Long.parseLong(splited[2]);
+        long bodyOffset = splited.length > 3 ? Long.parseLong(splited[3]) : LEGACY_BODY_OFFSET;
+        return new MessageRecord(Long.parseLong(splited[0]), Long.parseLong(splited[1]), receiptHandle, bodyOffset);
     }
 
-    public static Message fromStringToMessage(String messageStr) {
-        return fromString(messageStr).toMessage();
+    public MessageRecord withReceiptHandle(long receiptHandle, long time) {
+        return new MessageRecord(messageId, time, receiptHandle, bodyOffset);
+    }
 
+    @Override
+    public String toString() {
+        return messageId + SEP + inflightSince + SEP + receiptHandle + SEP + bodyOffset;
     }
 
-    public static String fromMessageToString(Message message, Long time) {
-        return fromMessage(message, time).toString();
+    public Message toMessage(String body) {
+        return new Message()
+                .withMessageId(String.valueOf(messageId))
+                .withReceiptHandle(receiptHandle == NO_RECEIPT_HANDLE ? null : String.valueOf(receiptHandle))
+                .withBody(body);
     }
 
-    @Override
-    public String toString() {
-        return messageId + SEP + inflightSince + SEP + receiptHandle/* + SEP + fileName*/;
+    public long getMessageId() {
+        return messageId;
     }
 
-    public Message toMessage() {
-        return new Message().withMessageId(messageId).withReceiptHandle(receiptHandle)/*.withBody(body)*/;
+    public long getReceiptHandle() {
+        return receiptHandle;
     }
 
     public long getInflightSince() {
         return inflightSince;
     }
+
+    public long getBodyOffset() {
+        return bodyOffset;
+    }
 }
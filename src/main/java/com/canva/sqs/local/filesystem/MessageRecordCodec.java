@@ -0,0 +1,116 @@
+package com.canva.sqs.local.filesystem;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary fixed-layout format of {@link MessageRecord} files.
+ * <p>
+ * File starts with {@code [int magic][int version][long modCount]} header followed by records:
+ * {@code [long messageId][long inflightSince][long receiptHandle][long bodyOffset]}.
+ * Records are encoded and decoded straight from {@link ByteBuffer}, no intermediate strings are created.
+ * <p>
+ * {@code modCount} is incremented by every modification of the file, so a process that caches file content
+ * can tell whether the file was changed by someone else. Version 1 files have no {@code modCount},
+ * they are upgraded on first write.
+ * <p>
+ * Files written before binary format was introduced have no header and contain one
+ * {@link MessageRecord#fromString(String) text record} per line. Such files are still readable,
+ * writers convert them to binary format on first write.
+ *
+ * @author Alexander Pronin
+ * @see SynchronizedFileReaderWriter
+ * @since 18/10/2026
+ */
+final class MessageRecordCodec {
+    static final int MAGIC = 0x53515342; // "SQSB"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+    static final int MOD_COUNT_POSITION = 2 * Integer.BYTES;
+    private static final int V1_HEADER_BYTES = 2 * Integer.BYTES;
+    static final int RECORD_BYTES = 4 * Long.BYTES;
+
+    private MessageRecordCodec() {
+    }
+
+    static void encode(MessageRecord record, ByteBuffer dst) {
+        dst.putLong(record.getMessageId())
+                .putLong(record.getInflightSince())
+                .putLong(record.getReceiptHandle())
+                .putLong(record.getBodyOffset());
+    }
+
+    static MessageRecord decode(ByteBuffer src) {
+        return MessageRecord.of(src.getLong(), src.getLong(), src.getLong(), src.getLong());
+    }
+
+    static void encodeHeader(ByteBuffer dst, long modCount) {
+        dst.putInt(MAGIC).putInt(VERSION).putLong(modCount);
+    }
+
+    /**
+     * @return whole file content: header and all records
+     */
+    static ByteBuffer encodeFile(List<MessageRecord> records, long modCount) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + records.size() * RECORD_BYTES);
+        encodeHeader(buffer, modCount);
+        records.forEach(record -> encode(record, buffer));
+        buffer.flip();
+        return buffer;
+    }
+
+    static ByteBuffer encodeRecords(List<MessageRecord> records) {
+        ByteBuffer buffer = ByteBuffer.allocate(records.size() * RECORD_BYTES);
+        records.forEach(record -> encode(record, buffer));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @param file whole file content
+     */
+    static boolean isBinary(ByteBuffer file) {
+        return file.remaining() >= V1_HEADER_BYTES && file.getInt(file.position()) == MAGIC;
+    }
+
+    /**
+     * @param file whole file content or its header
+     * @return true if records can be appended to the file as is
+     */
+    static boolean isCurrentVersion(ByteBuffer file) {
+        return file.remaining() >= HEADER_BYTES && isBinary(file) && file.getInt(file.position() + Integer.BYTES) == VERSION;
+    }
+
+    /**
+     * @param file whole file content or its header
+     * @return modification counter of the file, 0 for empty files and files of previous formats
+     */
+    static long modCount(ByteBuffer file) {
+        return isCurrentVersion(file) ? file.getLong(file.position() + MOD_COUNT_POSITION) : 0;
+    }
+
+    /**
+     * Decodes whole file content, either binary or legacy text one.
+     */
+    static List<MessageRecord> decodeFile(ByteBuffer file) {
+        List<MessageRecord> result = new ArrayList<>(Math.max(0, file.remaining() - HEADER_BYTES) / RECORD_BYTES);
+        if (!file.hasRemaining()) {
+            return result;
+        }
+        if (!isBinary(file)) {
+            for (String line : StandardCharsets.UTF_8.decode(file).toString().split("\n")) {
+                if (!line.trim().isEmpty()) {
+                    result.add(MessageRecord.fromString(line.trim()));
+                }
+            }
+            return result;
+        }
+        file.position(file.position() + (isCurrentVersion(file) ? HEADER_BYTES : V1_HEADER_BYTES));
+        while (file.remaining() >= RECORD_BYTES) {
+            result.add(decode(file));
+        }
+        return result;
+    }
+}
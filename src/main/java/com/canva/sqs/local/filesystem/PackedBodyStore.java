@@ -0,0 +1,164 @@
+package com.canva.sqs.local.filesystem;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static com.canva.sqs.local.filesystem.FileDescriptor.BODIES;
+import static com.canva.sqs.local.filesystem.FileDescriptor.BODIES_TAIL;
+import static com.canva.sqs.local.filesystem.FileDescriptor.MESSAGES;
+
+/**
+ * Stateless utility class that keeps message bodies of {@link FileQueue} packed into a few large files.
+ * <p>
+ * Bodies are appended as length prefixed records to {@link SegmentedLog} and are never modified afterwards,
+ * so a body is read with a single positioned read at the offset remembered by {@link MessageRecord}.
+ * End of the log is stored in {@link FileDescriptor#BODIES_TAIL} file.
+ * Tail file and segments are kept open in {@link FileHandleCache}.
+ * <p>
+ * Bodies of records written before packing was introduced are read from per-message files.
+ *
+ * @author Alexander Pronin
+ * @see MessageRecord#getBodyOffset()
+ * @since 18/10/2026
+ */
+@SuppressWarnings("WeakerAccess")
+@ThreadSafe
+public class PackedBodyStore {
+    static final long SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final String MESSAGES_FILE = "messages";
+    private static final Pattern LEGACY_BODY_FILE = Pattern.compile("(" + MESSAGES_FILE + "|inflight)\\.(\\d+)");
+
+    private PackedBodyStore() {
+    }
+
+    /**
+     * Appends body to the end of the queue's bodies log
+     *
+     * @return offset of the body
+     */
+    public static long append(String queueUrl, String body) {
+        return append(queueUrl, Collections.singletonList(body)).get(0);
+    }
+
+    /**
+     * Appends bodies to the end of the queue's bodies log under a single lock with a single update of the tail
+     *
+     * @return offsets of the bodies in the same order
+     */
+    public static List<Long> append(String queueUrl, List<String> bodies) {
+        Path tailFile = BODIES_TAIL.getPath(queueUrl);
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(tailFile.toString()).lock()) {
+            long tailOffset = 0;
+            if (Files.exists(tailFile)) {
+                tailOffset = readTail(queueUrl, tailFile);
+            } else {
+                // queue created before bodies were packed
+                Files.createDirectories(BODIES.getPath(queueUrl));
+            }
+            SegmentedLog log = new SegmentedLog(BODIES.getPath(queueUrl), SEGMENT_BYTES);
+            List<Long> offsets = new ArrayList<>(bodies.size());
+            for (String body : bodies) {
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                long offset = log.append(tailOffset, ByteBuffer.wrap(bytes));
+                offsets.add(offset);
+                tailOffset = log.next(offset, bytes.length);
+            }
+
+            ByteBuffer tail = ByteBuffer.allocate(Long.BYTES);
+            tail.putLong(tailOffset).flip();
+            try (FileHandleCache.Handle handle = open(queueUrl, tailFile)) {
+                ChannelIO.writeFully(handle.channel(), tail, 0);
+            }
+            return offsets;
+        } catch (IOException e) {
+            // log.error("some message, e)
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads body of the message.
+     * Body is immutable once written, hence no locking is required.
+     */
+    public static String read(String queueUrl, MessageRecord record) {
+        try {
+            if (record.getBodyOffset() == MessageRecord.LEGACY_BODY_OFFSET) {
+                return new String(Files.readAllBytes(getLegacyBodyFileName(queueUrl, record.getMessageId())));
+            }
+            SegmentedLog log = new SegmentedLog(BODIES.getPath(queueUrl), SEGMENT_BYTES);
+            return StandardCharsets.UTF_8.decode(log.read(record.getBodyOffset()).payload).toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Lists body segments and per-message body files that contain no bodies from the given set.
+     * Segment bodies are currently appended to is never listed.
+     *
+     * @param liveRecords records that are still referenced by the queue
+     */
+    static List<Path> findUnreferenced(String queueUrl, Collection<MessageRecord> liveRecords) throws IOException {
+        Set<Long> legacyIds = new HashSet<>();
+        Set<Long> liveSegments = new HashSet<>();
+        for (MessageRecord record : liveRecords) {
+            if (record.getBodyOffset() == MessageRecord.LEGACY_BODY_OFFSET) {
+                legacyIds.add(record.getMessageId());
+            } else {
+                liveSegments.add(record.getBodyOffset() / SEGMENT_BYTES);
+            }
+        }
+
+        List<Path> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(Paths.get(queueUrl))) {
+            files.filter(file -> {
+                Matcher matcher = LEGACY_BODY_FILE.matcher(file.getFileName().toString());
+                // inflight.<id> copies are never read
+                return matcher.matches() && !(matcher.group(1).equals(MESSAGES_FILE) && legacyIds.contains(Long.parseLong(matcher.group(2))));
+            }).forEach(result::add);
+        }
+
+        Path tailFile = BODIES_TAIL.getPath(queueUrl);
+        if (!Files.exists(tailFile)) {
+            return result;
+        }
+        long tailSegment = readTail(queueUrl, tailFile) / SEGMENT_BYTES;
+        try (Stream<Path> segments = Files.list(BODIES.getPath(queueUrl))) {
+            segments.filter(segment -> {
+                long index = Long.parseLong(segment.getFileName().toString()) / SEGMENT_BYTES;
+                return index < tailSegment && !liveSegments.contains(index);
+            }).forEach(result::add);
+        }
+        return result;
+    }
+
+    private static long readTail(String queueUrl, Path tailFile) throws IOException {
+        ByteBuffer tail = ByteBuffer.allocate(Long.BYTES);
+        try (FileHandleCache.Handle handle = open(queueUrl, tailFile)) {
+            ChannelIO.read(handle.channel(), tail, 0);
+        }
+        return tail.getLong(0);
+    }
+
+    private static FileHandleCache.Handle open(String queueUrl, Path file) throws IOException {
+        return FileHandleCache.getInstance().open(Paths.get(queueUrl), file);
+    }
+
+    static Path getLegacyBodyFileName(String queueUrl, long messageId) {
+        return Paths.get(MESSAGES.getPath(queueUrl).toString() + "." + messageId);
+    }
+}
@@ -0,0 +1,294 @@
+package com.canva.sqs.local.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log split into size-rolled segment files.
+ * <p>
+ * Every byte of the log has a global offset. Segment {@code k} holds offsets
+ * {@code [k * segmentBytes, (k + 1) * segmentBytes)} and is named after its base offset,
+ * so locating the segment of an offset is a division - no directory listing is needed.
+ * <p>
+ * Records are length prefixed: {@code [int length][payload]}.
+ * Checksummed log also keeps CRC32 of length and payload: {@code [int length][int crc][payload]},
+ * so that records torn or lost by a crash are detected, see {@link #scanIntact(long, long)}.
+ * A record never straddles two segments: if it does not fit into the rest of the current segment
+ * writer leaves a padding marker and starts the record in the next one.
+ * The only exception is a record that is bigger than a whole segment: it is written into an empty segment
+ * and the log continues from the next segment boundary.
+ * <p>
+ * Segment files are kept open in {@link FileHandleCache}. Raw reads and writes of fixed-size entries
+ * go through {@link FileIoMode} of the log, mapped segments are mapped whole.
+ * <p>
+ * Not thread-safe: callers are expected to hold the queue lock.
+ *
+ * @author Alexander Pronin
+ * @see SegmentedLogQueue
+ * @since 18/10/2026
+ */
+class SegmentedLog {
+    private static final int PADDING = -1;
+    // most of the bodies fit into the first read
+    private static final int READ_AHEAD_BYTES = 4096;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final boolean checksummed;
+    private final int headerBytes;
+    private final FileIoMode io;
+
+    SegmentedLog(Path dir, long segmentBytes) {
+        this(dir, segmentBytes, false, FileIoMode.CHANNEL);
+    }
+
+    SegmentedLog(Path dir, long segmentBytes, boolean checksummed, FileIoMode io) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.checksummed = checksummed;
+        this.headerBytes = checksummed ? 2 * Integer.BYTES : Integer.BYTES;
+        this.io = io;
+    }
+
+    /**
+     * Appends length prefixed record.
+     *
+     * @param tail    current end of the log
+     * @param payload record content
+     * @return offset record was written at
+     */
+    long append(long tail, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        long offset = tail;
+        long position = offset % segmentBytes;
+        long remaining = segmentBytes - position;
+        if (position > 0 && remaining < headerBytes + length) {
+            if (remaining >= Integer.BYTES) {
+                writeAt(offset, (ByteBuffer) ByteBuffer.allocate(Integer.BYTES).putInt(PADDING).flip());
+            }
+            offset = nextSegment(offset);
+        }
+        ByteBuffer record = ByteBuffer.allocate(headerBytes + length);
+        record.putInt(length);
+        if (checksummed) {
+            record.putInt(crc(length, payload.duplicate()));
+        }
+        record.put(payload).flip();
+        writeAt(offset, record);
+        return offset;
+    }
+
+    /**
+     * @return offset of the record following record of the given length written at the given offset
+     */
+    long next(long offset, int length) {
+        long end = offset + headerBytes + length;
+        return end > nextSegment(offset) ? roundUp(end) : end;
+    }
+
+    /**
+     * Reads record located at the given offset or the first one after padding.
+     * Caller must make sure offset is below the end of the log.
+     */
+    LogRecord read(long offset) throws IOException {
+        long position = offset % segmentBytes;
+        if (segmentBytes - position < Integer.BYTES) {
+            return read(nextSegment(offset));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(READ_AHEAD_BYTES);
+        try (FileHandleCache.Handle handle = open(offset)) {
+            FileChannel channel = handle.channel();
+            readFully(channel, buffer, position, Integer.BYTES);
+            buffer.flip();
+            int length = buffer.getInt();
+            if (length == PADDING) {
+                return read(nextSegment(offset));
+            }
+            if (length < 0 || buffer.remaining() < headerBytes - Integer.BYTES) {
+                throw new IOException("Corrupted record at offset " + offset);
+            }
+            int crc = checksummed ? buffer.getInt() : 0;
+            if (length > buffer.remaining()) {
+                if (length > channel.size() - position - headerBytes) {
+                    throw new IOException("Corrupted record length " + length + " at offset " + offset);
+                }
+                ByteBuffer body = ByteBuffer.allocate(length);
+                body.put(buffer);
+                readFully(channel, body, position + headerBytes + body.position(), body.remaining());
+                buffer = body;
+                buffer.flip();
+            } else {
+                buffer.limit(buffer.position() + length);
+            }
+            ByteBuffer payload = buffer.slice();
+            if (checksummed && crc != crc(length, payload.duplicate())) {
+                throw new IOException("Corrupted record at offset " + offset);
+            }
+            return new LogRecord(offset, next(offset, length), payload);
+        }
+    }
+
+    /**
+     * Reads records starting at the given offset while they are intact, i.e. until the end of written data
+     * or a record that was torn or lost by a crash. Meaningful for checksummed logs only.
+     *
+     * @param from  offset of the first record
+     * @param limit offset to stop at
+     * @return offset following the last intact record, not greater than limit
+     */
+    long scanIntact(long from, long limit) {
+        long offset = from;
+        if (!Files.exists(segmentPath(offset))) {
+            return offset;
+        }
+        while (offset < limit) {
+            try {
+                LogRecord record = read(offset);
+                if (record.nextOffset > limit) {
+                    break;
+                }
+                offset = record.nextOffset;
+            } catch (IOException e) {
+                break;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Syncs segments holding offsets {@code [from, to)} to disk.
+     */
+    void force(long from, long to) throws IOException {
+        for (long base = from / segmentBytes * segmentBytes; base < to; base += segmentBytes) {
+            if (Files.exists(segmentPath(base))) {
+                try (FileHandleCache.Handle handle = open(base)) {
+                    handle.channel().force(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Positioned read of raw bytes, used for fixed-size entries.
+     */
+    void readAt(long offset, ByteBuffer dst) throws IOException {
+        int expected = dst.remaining();
+        try (FileHandleCache.Handle handle = open(offset)) {
+            if (io.read(handle, dst, offset % segmentBytes, segmentBytes) < expected) {
+                throw new IOException("Unexpected end of segment at offset " + offset);
+            }
+        }
+    }
+
+    /**
+     * Positioned write of raw bytes, used for appends and in-place updates of fixed-size entries.
+     */
+    void writeAt(long offset, ByteBuffer src) throws IOException {
+        try (FileHandleCache.Handle handle = open(offset)) {
+            io.write(handle, src, offset % segmentBytes, segmentBytes);
+        }
+    }
+
+    /**
+     * @return existing segments that lie entirely below the given offset
+     */
+    List<Path> segmentsBefore(long offset) {
+        List<Path> result = new ArrayList<>();
+        for (long base = offset / segmentBytes * segmentBytes - segmentBytes; base >= 0; base -= segmentBytes) {
+            Path segment = segmentPath(base);
+            if (!Files.exists(segment)) {
+                break;
+            }
+            result.add(segment);
+        }
+        return result;
+    }
+
+    /**
+     * @return base offset of the first existing segment, 0 if there are none
+     */
+    long firstOffset() throws IOException {
+        try (Stream<Path> segments = Files.list(dir)) {
+            return segments.map(segment -> segment.getFileName().toString())
+                    .filter(name -> name.matches("\\d+"))
+                    .mapToLong(Long::parseLong)
+                    .min()
+                    .orElse(0);
+        }
+    }
+
+    long segmentStart(long offset) {
+        return offset / segmentBytes * segmentBytes;
+    }
+
+    long segmentEnd(long offset) {
+        return nextSegment(offset);
+    }
+
+    /**
+     * Closes cached channel of the segment, must be called before the segment is deleted.
+     */
+    void closeSegment(Path segment) {
+        FileHandleCache.getInstance().closeFile(dir.getParent(), segment);
+    }
+
+    Path segmentPath(long offset) {
+        return dir.resolve(String.format("%020d", offset / segmentBytes * segmentBytes));
+    }
+
+    private FileHandleCache.Handle open(long offset) throws IOException {
+        // segments belong to the queue directory log directory is located in
+        return FileHandleCache.getInstance().open(dir.getParent(), segmentPath(offset));
+    }
+
+    private long nextSegment(long offset) {
+        return offset / segmentBytes * segmentBytes + segmentBytes;
+    }
+
+    private long roundUp(long offset) {
+        return (offset + segmentBytes - 1) / segmentBytes * segmentBytes;
+    }
+
+    private static int crc(int length, ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Integer.BYTES).putInt(0, length));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position, int atLeast) throws IOException {
+        int read = 0;
+        while (read < atLeast) {
+            int n = channel.read(dst, position + read);
+            if (n < 0) {
+                throw new IOException("Unexpected end of segment at position " + (position + read));
+            }
+            read += n;
+            if (!dst.hasRemaining()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Record read from the log: its offset, offset of the following record and payload.
+     */
+    static class LogRecord {
+        final long offset;
+        final long nextOffset;
+        final ByteBuffer payload;
+
+        LogRecord(long offset, long nextOffset, ByteBuffer payload) {
+            this.offset = offset;
+            this.nextOffset = nextOffset;
+            this.payload = payload;
+        }
+    }
+}
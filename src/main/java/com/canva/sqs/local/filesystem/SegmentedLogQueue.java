@@ -0,0 +1,841 @@
+package com.canva.sqs.local.filesystem;
+
+import com.canva.sqs.QueueService;
+import com.canva.sqs.local.ReceivedMessage;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.http.annotation.ThreadSafe;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.canva.sqs.local.filesystem.FileDescriptor.*;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Durable ThreadSafe and single-host-safe file based queue built on append-only segmented logs.
+ * <p>
+ * Unlike {@link FileQueue} it never rewrites files, so every operation costs O(1) disk work
+ * regardless of queue depth:
+ * <ul>
+ * <li>messages log - bodies appended by {@link #sendMessage(String, String)}.
+ * Offset of the record is used as message id.</li>
+ * <li>inflight log - fixed-size entries appended by {@link #receiveMessages(String, int, int)}.
+ * Offset of the entry is used as receipt handle.
+ * {@link #deleteMessage(String, long)} puts a tombstone into the entry in place.</li>
+ * <li>cursor - consumer read offset of the messages log, head of the inflight log
+ * and ends of both logs.</li>
+ * </ul>
+ * Messages may be received with different visibility timeouts, so entries of inflight log are not ordered by expiration.
+ * Invalidation is "lazy": each receive redelivers inflight entries expired by then. They are found through
+ * an in-memory index of inflight entries by expiration, see {@link ExpiryIndex}, so that every entry expires on its own.
+ * Head of inflight log only moves over redelivered and deleted entries.
+ * Message invalidated by {@link #invalidateNow(String, long)} is redelivered by the next receive.
+ * <p>
+ * Consumed segments are never rewritten, they are only dropped as a whole by {@link FileQueueCompactor}.
+ * <p>
+ * Records of messages log, entries of inflight log and cursor carry CRC32, so that data torn or lost by a crash
+ * is detected. {@link FileQueueCheckpointer} periodically saves durable copy of the cursor
+ * into {@link FileDescriptor#CHECKPOINT} file, on startup queue is recovered from the checkpoint
+ * by replaying the tails of both logs written after it, see {@link #recover(String)}.
+ * Queues created before checksums were introduced keep working without checkpoints.
+ * <p>
+ * Cursor and inflight log are accessed through {@link FileIoMode} chosen by {@value FileIoMode#SQS_FILE_IO_KEY}
+ * property, e.g. mapped into memory.
+ * <p>
+ * This implementation leverages {@link GlobalCloseableLock} on queue's cursor file to achieve exclusive locking.
+ *
+ * @author Alexander Pronin
+ * @see SegmentedLog
+ * @see FileStorageEngine
+ * @since 18/10/2026
+ */
+@ThreadSafe
+public class SegmentedLogQueue implements CompactableQueue {
+    private static final int SCAN_BUFFER_BYTES = 1024 * InflightEntry.BYTES;
+
+    public static final String SEGMENT_BYTES_KEY = "sqs.log.segment.bytes";
+    private static final long DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private final Properties properties;
+    private final Clock timeService;
+    private final FileIoMode io;
+    private final ConcurrentMap<String, ExpiryIndex> expiryIndexes = new ConcurrentHashMap<>();
+
+    SegmentedLogQueue(Properties properties, Clock timeService) {
+        this.properties = properties;
+        this.timeService = timeService;
+        this.io = FileIoMode.fromProperties(properties);
+    }
+
+    @Override
+    @Nonnull
+    public String sendMessage(String queueUrl, String messageBody) {
+        return sendMessageBatch(queueUrl, Collections.singletonList(messageBody)).get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Records are appended under a single lock, cursor is written once per batch.
+     */
+    @Override
+    @Nonnull
+    public List<String> sendMessageBatch(String queueUrl, List<String> messageBodies) {
+        try (GlobalCloseableLock ignored = lock(queueUrl)) {
+            Cursor cursor = Cursor.read(queueUrl, io);
+            SegmentedLog messagesLog = cursor.messagesLog(queueUrl);
+            List<String> messageIds = new ArrayList<>(messageBodies.size());
+            for (String messageBody : messageBodies) {
+                byte[] body = messageBody.getBytes(StandardCharsets.UTF_8);
+                long offset = messagesLog.append(cursor.writeOffset, ByteBuffer.wrap(body));
+                cursor.writeOffset = messagesLog.next(offset, body.length);
+                messageIds.add(String.valueOf(offset));
+            }
+            cursor.write(queueUrl);
+            return messageIds;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to append message to " + queueUrl, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Expired messages are redelivered first, then new ones are read. Cursor is written once per call.
+     * Visibility timeout other than the queue's one is kept as a shifted receive time of the inflight entry.
+     * Every entry expires on its own, so message received with a long timeout doesn't hold back the ones received after it.
+     */
+    @Override
+    @Nonnull
+    public List<ReceivedMessage> receiveMessages(String queueUrl, int maxNumberOfMessages, int visibilityTimeoutSeconds) {
+        try (GlobalCloseableLock ignored = lock(queueUrl)) {
+            Cursor cursor = Cursor.read(queueUrl, io);
+            SegmentedLog inflightLog = cursor.inflightLog(queueUrl);
+            long now = timeService.millis();
+            long delay = getInflightDelayMillis();
+            long inflightSince = visibilityTimeoutSeconds == QueueService.DEFAULT_VISIBILITY_TIMEOUT ? now
+                    : now - delay + TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds);
+            List<ReceivedMessage> result = new ArrayList<>(maxNumberOfMessages);
+            long initialHead = cursor.inflightHead;
+            long initialTail = cursor.inflightTail;
+            ExpiryIndex index = getExpiryIndex(queueUrl);
+            index.catchUp(cursor, inflightLog, delay);
+
+            // entries appended by redelivery expire after now, so the loop doesn't reach them
+            long offset;
+            while (result.size() < maxNumberOfMessages && (offset = index.pollExpired(now)) >= 0) {
+                if (offset < cursor.inflightHead) {
+                    continue;
+                }
+                // entry may have been deleted or redelivered by another process
+                InflightEntry entry = InflightEntry.read(inflightLog, offset);
+                if (entry.state == InflightEntry.INFLIGHT && entry.expiresAt(delay) > now) {
+                    index.add(offset, entry.expiresAt(delay));
+                } else if (entry.state == InflightEntry.INFLIGHT || entry.state == InflightEntry.EXPIRED) {
+                    InflightEntry.writeState(inflightLog, offset, InflightEntry.REDELIVERED);
+                    result.add(deliver(queueUrl, cursor, entry.messageOffset, inflightSince));
+                }
+            }
+            cursor.inflightHead = skipConsumed(inflightLog, cursor.inflightHead, cursor.inflightTail);
+
+            while (result.size() < maxNumberOfMessages && cursor.readOffset < cursor.writeOffset) {
+                SegmentedLog.LogRecord record = cursor.messagesLog(queueUrl).read(cursor.readOffset);
+                cursor.readOffset = record.nextOffset;
+                result.add(deliver(queueUrl, cursor, record, inflightSince));
+            }
+            for (long handle = initialTail; handle < cursor.inflightTail; handle += InflightEntry.BYTES) {
+                index.add(handle, InflightEntry.expiresAt(inflightSince, delay));
+            }
+            index.caughtUp(cursor.inflightTail);
+            // empty poll writes nothing, so it isn't taken for a change by long polling receivers of other processes
+            if (!result.isEmpty() || cursor.inflightHead != initialHead) {
+                cursor.write(queueUrl);
+            }
+            return result;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to receive message from " + queueUrl, e);
+        }
+    }
+
+    /**
+     * @return offset of the first entry from the head that may be still redelivered, or the tail
+     */
+    private static long skipConsumed(SegmentedLog inflightLog, long head, long tail) throws IOException {
+        while (head < tail) {
+            int state = InflightEntry.read(inflightLog, head).state;
+            if (state == InflightEntry.INFLIGHT || state == InflightEntry.EXPIRED) {
+                break;
+            }
+            head += InflightEntry.BYTES;
+        }
+        return head;
+    }
+
+    private ReceivedMessage deliver(String queueUrl, Cursor cursor, long messageOffset, long inflightSince)
+            throws IOException {
+        return deliver(queueUrl, cursor, cursor.messagesLog(queueUrl).read(messageOffset), inflightSince);
+    }
+
+    /**
+     * Appends inflight entry of the message, cursor is left for the caller to write
+     */
+    private ReceivedMessage deliver(String queueUrl, Cursor cursor, SegmentedLog.LogRecord record, long inflightSince)
+            throws IOException {
+        long receiptHandle = cursor.inflightTail;
+        new InflightEntry(record.offset, inflightSince, InflightEntry.INFLIGHT)
+                .write(cursor.inflightLog(queueUrl), receiptHandle, cursor.checksummed);
+        cursor.inflightTail += InflightEntry.BYTES;
+        return new ReceivedMessage(String.valueOf(record.offset),
+                StandardCharsets.UTF_8.decode(record.payload).toString(), receiptHandle);
+    }
+
+    @Override
+    public void deleteMessage(String queueUrl, long receiptHandle) {
+        changeInflightState(queueUrl, Collections.singletonList(receiptHandle), InflightEntry.DELETED);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Tombstones are put under a single lock with a single read of the cursor.
+     */
+    @Override
+    public void deleteMessageBatch(String queueUrl, List<Long> receiptHandles) {
+        changeInflightState(queueUrl, receiptHandles, InflightEntry.DELETED);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Taken from {@link ExpiryIndex}. Entry deleted by another process is still there,
+     * it makes the receiver retry earlier than needed, the retry drops it.
+     */
+    @Override
+    public long nextExpiry(String queueUrl) throws IOException {
+        try (GlobalCloseableLock ignored = lockShared(queueUrl)) {
+            Cursor cursor = Cursor.read(queueUrl, io);
+            ExpiryIndex index = getExpiryIndex(queueUrl);
+            index.catchUp(cursor, cursor.inflightLog(queueUrl), getInflightDelayMillis());
+            return index.nextExpiry();
+        }
+    }
+
+    @Override
+    public void invalidateNow(String queueUrl, long receiptHandle) {
+        changeInflightState(queueUrl, Collections.singletonList(receiptHandle), InflightEntry.EXPIRED);
+    }
+
+    /**
+     * Skips receipt handles that are unknown or of messages that are not inflight anymore.
+     */
+    private void changeInflightState(String queueUrl, List<Long> offsets, int state) {
+        try (GlobalCloseableLock ignored = lock(queueUrl)) {
+            Cursor cursor = Cursor.read(queueUrl, io);
+            SegmentedLog inflightLog = cursor.inflightLog(queueUrl);
+            ExpiryIndex index = getExpiryIndex(queueUrl);
+            index.catchUp(cursor, inflightLog, getInflightDelayMillis());
+            for (long offset : offsets) {
+                if (offset < cursor.inflightHead || offset >= cursor.inflightTail || offset % InflightEntry.BYTES != 0) {
+                    continue;
+                }
+                if (InflightEntry.read(inflightLog, offset).state == InflightEntry.INFLIGHT) {
+                    InflightEntry.writeState(inflightLog, offset, state);
+                    if (state == InflightEntry.EXPIRED) {
+                        index.add(offset, Long.MIN_VALUE);
+                    } else {
+                        index.remove(offset);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to update inflight message of " + queueUrl, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Segments of inflight log below its head are garbage.
+     * Segments of messages log below consumer read offset are garbage unless live inflight entry refers them.
+     * Inflight log is scanned without holding the lock: entry redelivered during the scan is appended
+     * to the tail, so scan goes on until tail stops moving.
+     */
+    @Override
+    public Collection<Path> findGarbage(String queueUrl, RateLimiter ioLimiter) throws IOException {
+        Cursor cursor;
+        try (GlobalCloseableLock ignored = lockShared(queueUrl)) {
+            cursor = Cursor.read(queueUrl, io);
+        }
+        SegmentedLog inflightLog = cursor.inflightLog(queueUrl);
+        long minReferenced = Long.MAX_VALUE;
+        long scanned = cursor.inflightHead;
+        while (scanned < cursor.inflightTail) {
+            ByteBuffer buffer = ByteBuffer.allocate(
+                    (int) Math.min(SCAN_BUFFER_BYTES, Math.min(cursor.inflightTail, inflightLog.segmentEnd(scanned)) - scanned));
+            FileQueueCompactor.acquire(ioLimiter, buffer.remaining());
+            inflightLog.readAt(scanned, buffer);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                InflightEntry entry = InflightEntry.read(buffer);
+                if (entry.state == InflightEntry.INFLIGHT || entry.state == InflightEntry.EXPIRED) {
+                    minReferenced = Math.min(minReferenced, entry.messageOffset);
+                }
+            }
+            scanned += buffer.limit();
+            if (scanned == cursor.inflightTail) {
+                try (GlobalCloseableLock ignored = lockShared(queueUrl)) {
+                    cursor = Cursor.read(queueUrl, io);
+                }
+            }
+        }
+
+        // recovery may go back to the checkpoint, segments it refers to are kept
+        long inflightHead = cursor.inflightHead;
+        long readOffset = Math.min(cursor.readOffset, minReferenced);
+        Optional<Cursor> checkpoint = Cursor.readCheckpoint(queueUrl, io);
+        if (checkpoint.isPresent()) {
+            inflightHead = Math.min(inflightHead, checkpoint.get().inflightHead);
+            readOffset = Math.min(readOffset, checkpoint.get().readOffset);
+        }
+        List<Path> garbage = new ArrayList<>(inflightLog.segmentsBefore(inflightHead));
+        garbage.addAll(cursor.messagesLog(queueUrl).segmentsBefore(readOffset));
+        return garbage;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Checkpoint is a copy of the cursor. Before it is saved, segments written since the previous checkpoint
+     * are synced, so that everything the checkpoint refers to is durable.
+     * State changes of older inflight entries are not synced, message deleted before a crash may be delivered again.
+     * Checkpoint file is replaced atomically and never goes back.
+     */
+    @Override
+    public boolean checkpoint(String queueUrl) throws IOException {
+        Cursor cursor;
+        try (GlobalCloseableLock ignored = lockShared(queueUrl)) {
+            cursor = Cursor.read(queueUrl, io);
+        }
+        if (!cursor.checksummed) {
+            return false;
+        }
+        // serializes checkpointers without blocking queue operations
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(CHECKPOINT.getPath(queueUrl).toString()).lock()) {
+            Optional<Cursor> previous = Cursor.readCheckpoint(queueUrl, io);
+            if (previous.isPresent() && (previous.get().equals(cursor) || cursor.isBehind(previous.get()))) {
+                return false;
+            }
+            Cursor last = previous.orElseGet(() -> new Cursor(cursor.segmentBytes, true, io));
+            cursor.messagesLog(queueUrl).force(last.writeOffset, cursor.writeOffset);
+            cursor.inflightLog(queueUrl).force(last.inflightTail, cursor.inflightTail);
+            cursor.writeCheckpoint(queueUrl);
+            return true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Queue state is the latest checkpoint plus the tails of both logs written after it.
+     * Replay starts from the checkpoint, or from the first segments if there is no checkpoint yet,
+     * and goes on while records are intact and within the cursor, if the cursor itself is intact:
+     * <ul>
+     * <li>end of messages log is the end of the last intact record,</li>
+     * <li>tail of inflight log is the end of the last intact entry referring an intact message,</li>
+     * <li>consumer read offset follows the last message delivered for the first time,
+     * cursor's one is kept if no inflight entry was lost.</li>
+     * </ul>
+     * Lost inflight entries make their messages to be delivered again, so no message is lost
+     * unless its record was lost.
+     */
+    @Override
+    public boolean recover(String queueUrl) throws IOException {
+        try (GlobalCloseableLock ignored = lock(queueUrl)) {
+            Cursor cursor;
+            try {
+                cursor = Cursor.read(queueUrl, io);
+            } catch (IOException e) {
+                cursor = null;
+            }
+            if (cursor != null && !cursor.checksummed) {
+                return false;
+            }
+            Optional<Cursor> checkpoint = Cursor.readCheckpoint(queueUrl, io);
+            if (cursor == null && !checkpoint.isPresent()) {
+                throw new IOException("Corrupted cursor and no checkpoint of " + queueUrl);
+            }
+            Cursor base = checkpoint.isPresent() ? checkpoint.get() : cursor.origin(queueUrl);
+            boolean intact = cursor != null && !cursor.isBehind(base);
+
+            SegmentedLog messagesLog = base.messagesLog(queueUrl);
+            SegmentedLog inflightLog = base.inflightLog(queueUrl);
+            long writeOffset = messagesLog.scanIntact(base.writeOffset, intact ? cursor.writeOffset : Long.MAX_VALUE);
+
+            long inflightTail = base.inflightTail;
+            long inflightLimit = intact ? cursor.inflightTail : Long.MAX_VALUE;
+            long lastDelivered = -1;
+            boolean replaying = true;
+            while (replaying && inflightTail < inflightLimit && Files.exists(inflightLog.segmentPath(inflightTail))) {
+                long segmentLength = Files.size(inflightLog.segmentPath(inflightTail));
+                long end = Math.min(Math.min(inflightLimit, inflightLog.segmentEnd(inflightTail)),
+                        inflightLog.segmentStart(inflightTail) + segmentLength);
+                if (end <= inflightTail) {
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(
+                        (int) Math.min(SCAN_BUFFER_BYTES, (end - inflightTail) / InflightEntry.BYTES * InflightEntry.BYTES));
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+                inflightLog.readAt(inflightTail, buffer);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    InflightEntry entry = InflightEntry.read(buffer);
+                    if (!entry.isIntact() || entry.messageOffset >= writeOffset) {
+                        replaying = false;
+                        break;
+                    }
+                    if (entry.messageOffset >= base.readOffset) {
+                        lastDelivered = Math.max(lastDelivered, entry.messageOffset);
+                    }
+                    inflightTail += InflightEntry.BYTES;
+                }
+            }
+
+            Cursor recovered = new Cursor(base.segmentBytes, true, io);
+            recovered.writeOffset = writeOffset;
+            recovered.inflightTail = inflightTail;
+            if (intact && inflightTail == cursor.inflightTail) {
+                recovered.readOffset = Math.min(cursor.readOffset, writeOffset);
+            } else {
+                recovered.readOffset = lastDelivered < 0
+                        ? base.readOffset : messagesLog.read(lastDelivered).nextOffset;
+            }
+            recovered.inflightHead = intact
+                    ? Math.min(Math.max(cursor.inflightHead, base.inflightHead), inflightTail) : base.inflightHead;
+            if (recovered.equals(cursor)) {
+                return false;
+            }
+            recovered.write(queueUrl);
+            expiryIndexes.remove(queueUrl);
+            return true;
+        }
+    }
+
+    /**
+     * TESTING purpose only!
+     * <p>
+     * Appends the same message many times under a single lock and a single cursor update,
+     * used to build deep queues quickly.
+     */
+    public static void sendMessages(String queueUrl, String messageBody, long count) {
+        try (GlobalCloseableLock ignored = lock(queueUrl)) {
+            Cursor cursor = Cursor.read(queueUrl, FileIoMode.CHANNEL);
+            SegmentedLog messagesLog = cursor.messagesLog(queueUrl);
+            byte[] body = messageBody.getBytes(StandardCharsets.UTF_8);
+            for (long i = 0; i < count; i++) {
+                long offset = messagesLog.append(cursor.writeOffset, ByteBuffer.wrap(body));
+                cursor.writeOffset = messagesLog.next(offset, body.length);
+            }
+            cursor.write(queueUrl);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to append messages to " + queueUrl, e);
+        }
+    }
+
+    @Override
+    public void cleanup(String queueUrl) {
+        expiryIndexes.remove(queueUrl);
+        FileQueue.getInstance().cleanup(queueUrl);
+    }
+
+    private ExpiryIndex getExpiryIndex(String queueUrl) {
+        return expiryIndexes.computeIfAbsent(queueUrl, url -> new ExpiryIndex());
+    }
+
+    private long getInflightDelayMillis() {
+        return TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty(INFLIGHT_TIMEOUT_SECONDS_KEY)));
+    }
+
+    private static GlobalCloseableLock lock(String queueUrl) throws IOException {
+        return new GlobalCloseableLock(CURSOR.getPath(queueUrl).toString()).lock();
+    }
+
+    private static GlobalCloseableLock lockShared(String queueUrl) throws IOException {
+        return new GlobalCloseableLock(CURSOR.getPath(queueUrl).toString()).lockShared();
+    }
+
+    /**
+     * Creates queue directory, empty logs and cursor.
+     * Does nothing if queue already exists.
+     */
+    static void init(Properties properties, String queueName) {
+        String queuesBaseDirStr = properties.getProperty(FileQueueService.SQS_QUEUES_DIR_KEY);
+        long segmentBytes = Long.parseLong(
+                properties.getProperty(SEGMENT_BYTES_KEY, String.valueOf(DEFAULT_SEGMENT_BYTES)));
+        String queueUrl = Paths.get(queuesBaseDirStr, queueName).toString();
+
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(queuesBaseDirStr + "/").lock()) {
+            if (!Files.exists(Paths.get(queueUrl))) {
+                Files.createDirectory(Paths.get(queueUrl));
+                Files.createDirectory(MESSAGES_LOG.getPath(queueUrl));
+                Files.createDirectory(INFLIGHT_LOG.getPath(queueUrl));
+                new Cursor(segmentBytes, true, FileIoMode.fromProperties(properties)).write(queueUrl);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Persistent state of the queue. Stored as fixed-size record in {@link FileDescriptor#CURSOR} file:
+     * {@code [long segmentBytes][long readOffset][long writeOffset][long inflightHead][long inflightTail]
+     * [int version][int crc]}, the same record is stored in {@link FileDescriptor#CHECKPOINT} file.
+     * Cursor of the first version has no version and crc, its logs have no checksums.
+     * Segment size is fixed at queue creation as it defines offsets layout.
+     * I/O mode is not stored, it is the mode cursor is read and written with.
+     */
+    private static class Cursor {
+        private static final int V1_BYTES = 5 * Long.BYTES;
+        private static final int BYTES = V1_BYTES + 2 * Integer.BYTES;
+        private static final int VERSION = 2;
+
+        private final long segmentBytes;
+        private final boolean checksummed;
+        private final FileIoMode io;
+        private long readOffset;
+        private long writeOffset;
+        private long inflightHead;
+        private long inflightTail;
+
+        private Cursor(long segmentBytes, boolean checksummed, FileIoMode io) {
+            this.segmentBytes = segmentBytes;
+            this.checksummed = checksummed;
+            this.io = io;
+        }
+
+        static Cursor read(String queueUrl, FileIoMode io) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(BYTES);
+            try (FileHandleCache.Handle handle = open(queueUrl)) {
+                // cursor is mapped as is, cursor of the first version must not grow
+                io.read(handle, buffer, 0, 0);
+            }
+            buffer.flip();
+            return decode(buffer, queueUrl, io);
+        }
+
+        static Optional<Cursor> readCheckpoint(String queueUrl, FileIoMode io) throws IOException {
+            Path checkpoint = CHECKPOINT.getPath(queueUrl);
+            if (!Files.exists(checkpoint)) {
+                return Optional.empty();
+            }
+            return Optional.of(decode(ByteBuffer.wrap(Files.readAllBytes(checkpoint)), queueUrl, io));
+        }
+
+        private static Cursor decode(ByteBuffer buffer, String queueUrl, FileIoMode io) throws IOException {
+            boolean checksummed = buffer.remaining() != V1_BYTES;
+            if (checksummed && (buffer.remaining() < BYTES || buffer.getInt(V1_BYTES) != VERSION
+                    || buffer.getInt(V1_BYTES + Integer.BYTES) != crc(buffer))) {
+                throw new IOException("Corrupted cursor of " + queueUrl);
+            }
+            Cursor cursor = new Cursor(buffer.getLong(), checksummed, io);
+            cursor.readOffset = buffer.getLong();
+            cursor.writeOffset = buffer.getLong();
+            cursor.inflightHead = buffer.getLong();
+            cursor.inflightTail = buffer.getLong();
+            return cursor;
+        }
+
+        private ByteBuffer encode() {
+            ByteBuffer buffer = ByteBuffer.allocate(checksummed ? BYTES : V1_BYTES);
+            buffer.putLong(segmentBytes).putLong(readOffset).putLong(writeOffset)
+                    .putLong(inflightHead).putLong(inflightTail);
+            if (checksummed) {
+                buffer.putInt(VERSION).putInt(crc(buffer));
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private static int crc(ByteBuffer buffer) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, V1_BYTES + Integer.BYTES);
+            return (int) crc.getValue();
+        }
+
+        void write(String queueUrl) throws IOException {
+            ByteBuffer buffer = encode();
+            try (FileHandleCache.Handle handle = open(queueUrl)) {
+                io.write(handle, buffer, 0, buffer.remaining());
+            }
+        }
+
+        /**
+         * Durably replaces checkpoint of the queue with this cursor
+         */
+        void writeCheckpoint(String queueUrl) throws IOException {
+            Path checkpoint = CHECKPOINT.getPath(queueUrl);
+            Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                ChannelIO.writeFully(channel, encode(), 0);
+                channel.force(false);
+            }
+            Files.move(temp, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel dir = FileChannel.open(Paths.get(queueUrl), READ)) {
+                dir.force(true);
+            } catch (IOException e) {
+                // directories can't be synced on some platforms, rename is durable on the next sync then
+            }
+        }
+
+        /**
+         * @return cursor pointing to the first existing segments of both logs, where replay starts without checkpoint
+         */
+        Cursor origin(String queueUrl) throws IOException {
+            Cursor origin = new Cursor(segmentBytes, checksummed, io);
+            origin.readOffset = origin.writeOffset = messagesLog(queueUrl).firstOffset();
+            origin.inflightHead = origin.inflightTail = inflightLog(queueUrl).firstOffset();
+            return origin;
+        }
+
+        /**
+         * @return true if any of the offsets is below the offset of the other cursor
+         */
+        boolean isBehind(Cursor other) {
+            return readOffset < other.readOffset || writeOffset < other.writeOffset
+                    || inflightHead < other.inflightHead || inflightTail < other.inflightTail;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Cursor cursor = (Cursor) o;
+            return segmentBytes == cursor.segmentBytes && checksummed == cursor.checksummed
+                    && readOffset == cursor.readOffset && writeOffset == cursor.writeOffset
+                    && inflightHead == cursor.inflightHead && inflightTail == cursor.inflightTail;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(segmentBytes, checksummed, readOffset, writeOffset, inflightHead, inflightTail);
+        }
+
+        private static FileHandleCache.Handle open(String queueUrl) throws IOException {
+            return FileHandleCache.getInstance().open(Paths.get(queueUrl), CURSOR.getPath(queueUrl));
+        }
+
+        SegmentedLog messagesLog(String queueUrl) {
+            return new SegmentedLog(MESSAGES_LOG.getPath(queueUrl), segmentBytes, checksummed, FileIoMode.CHANNEL);
+        }
+
+        SegmentedLog inflightLog(String queueUrl) {
+            // inflight entries must never straddle segments
+            return new SegmentedLog(INFLIGHT_LOG.getPath(queueUrl),
+                    Math.max(1, segmentBytes / InflightEntry.BYTES) * InflightEntry.BYTES, false, io);
+        }
+    }
+
+    /**
+     * Fixed-size entry of inflight log: {@code [long messageOffset][long inflightSince][int state][int crc]}.
+     * Crc covers offset and time only as state is updated in place, it is 0 in logs without checksums.
+     */
+    private static class InflightEntry {
+        private static final int BYTES = 2 * Long.BYTES + 2 * Integer.BYTES;
+        private static final int STATE_POSITION = 2 * Long.BYTES;
+
+        private static final int INFLIGHT = 1;
+        // invalidated before timeout expired
+        private static final int EXPIRED = 2;
+        // tombstone
+        private static final int DELETED = 3;
+        private static final int REDELIVERED = 4;
+
+        private final long messageOffset;
+        private final long inflightSince;
+        private final int state;
+        private final int crc;
+
+        private InflightEntry(long messageOffset, long inflightSince, int state) {
+            this(messageOffset, inflightSince, state, crc(messageOffset, inflightSince));
+        }
+
+        private InflightEntry(long messageOffset, long inflightSince, int state, int crc) {
+            this.messageOffset = messageOffset;
+            this.inflightSince = inflightSince;
+            this.state = state;
+            this.crc = crc;
+        }
+
+        static InflightEntry read(SegmentedLog log, long offset) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(BYTES);
+            log.readAt(offset, buffer);
+            buffer.flip();
+            return read(buffer);
+        }
+
+        static InflightEntry read(ByteBuffer buffer) {
+            return new InflightEntry(buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getInt());
+        }
+
+        void write(SegmentedLog log, long offset, boolean checksummed) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(BYTES);
+            buffer.putLong(messageOffset).putLong(inflightSince).putInt(state).putInt(checksummed ? crc : 0).flip();
+            log.writeAt(offset, buffer);
+        }
+
+        long expiresAt(long inflightDelayMillis) {
+            return expiresAt(inflightSince, inflightDelayMillis);
+        }
+
+        /**
+         * Saturated, so that entries received at the end of time never expire
+         */
+        static long expiresAt(long inflightSince, long inflightDelayMillis) {
+            return inflightSince > Long.MAX_VALUE - inflightDelayMillis - 1
+                    ? Long.MAX_VALUE : inflightSince + inflightDelayMillis + 1;
+        }
+
+        boolean isIntact() {
+            return crc == crc(messageOffset, inflightSince);
+        }
+
+        private static int crc(long messageOffset, long inflightSince) {
+            CRC32 crc = new CRC32();
+            crc.update(ByteBuffer.allocate(2 * Long.BYTES).putLong(messageOffset).putLong(inflightSince).array());
+            return (int) crc.getValue();
+        }
+
+        static void writeState(SegmentedLog log, long offset, int state) throws IOException {
+            log.writeAt(offset + STATE_POSITION, (ByteBuffer) ByteBuffer.allocate(Integer.BYTES).putInt(state).flip());
+        }
+    }
+
+    /**
+     * In-memory index of live inflight entries of a queue by the time they expire, the min-heap
+     * the same way {@link InflightIndex} is for {@link FileQueue}.
+     * <p>
+     * Index is built by scanning inflight log from the head on first use and keeps up with the tail afterwards,
+     * entries appended by other processes are read when the tail moves.
+     * Deletes and redeliveries made by other processes are not tracked: every entry is checked
+     * against the log before it is redelivered. Inflight log that went back, e.g. recovered queue, rebuilds the index.
+     * <p>
+     * Heap keeps replaced and removed entries until they reach the top or until they outnumber the live ones.
+     */
+    @ThreadSafe
+    private static class ExpiryIndex {
+        private static final long UNKNOWN = -1;
+
+        // offset -> expiration time of live entries, guarded by this
+        private final Map<Long, Long> inflight = new HashMap<>();
+        // {expiration time, offset}, the entry is stale unless inflight map has the same time for its offset
+        private final PriorityQueue<long[]> byExpiry = new PriorityQueue<>(
+                Comparator.<long[]>comparingLong(e -> e[0]).thenComparingLong(e -> e[1]));
+        private long knownTail = UNKNOWN;
+
+        /**
+         * Reads entries appended since the index saw the tail last time, the caller holds the queue's lock
+         */
+        synchronized void catchUp(Cursor cursor, SegmentedLog inflightLog, long inflightDelayMillis) throws IOException {
+            if (knownTail > cursor.inflightTail) {
+                inflight.clear();
+                byExpiry.clear();
+                knownTail = UNKNOWN;
+            }
+            for (long offset = Math.max(knownTail, cursor.inflightHead); offset < cursor.inflightTail;
+                 offset += InflightEntry.BYTES) {
+                InflightEntry entry = InflightEntry.read(inflightLog, offset);
+                if (entry.state == InflightEntry.INFLIGHT) {
+                    add(offset, entry.expiresAt(inflightDelayMillis));
+                } else if (entry.state == InflightEntry.EXPIRED) {
+                    add(offset, Long.MIN_VALUE);
+                }
+            }
+            caughtUp(cursor.inflightTail);
+        }
+
+        /**
+         * Entries up to the tail were added by the caller
+         */
+        synchronized void caughtUp(long inflightTail) {
+            knownTail = inflightTail;
+        }
+
+        /**
+         * Adds the entry or replaces its expiration time
+         */
+        synchronized void add(long offset, long expiresAt) {
+            inflight.put(offset, expiresAt);
+            byExpiry.add(new long[]{expiresAt, offset});
+        }
+
+        synchronized void remove(long offset) {
+            if (inflight.remove(offset) != null && byExpiry.size() > 2 * inflight.size() + 16) {
+                byExpiry.clear();
+                inflight.forEach((entryOffset, expiresAt) -> byExpiry.add(new long[]{expiresAt, entryOffset}));
+            }
+        }
+
+        /**
+         * Removes the entry expired by the given time
+         *
+         * @return offset of the entry, or -1 if none has expired
+         */
+        synchronized long pollExpired(long now) {
+            long[] top = top();
+            if (top == null || top[0] > now) {
+                return UNKNOWN;
+            }
+            byExpiry.poll();
+            inflight.remove(top[1]);
+            return top[1];
+        }
+
+        /**
+         * @return expiration time of the earliest live entry, {@link Long#MAX_VALUE} if there is none
+         */
+        synchronized long nextExpiry() {
+            long[] top = top();
+            return top == null ? Long.MAX_VALUE : top[0];
+        }
+
+        private long[] top() {
+            long[] top = byExpiry.peek();
+            while (top != null && !Objects.equals(inflight.get(top[1]), top[0])) {
+                byExpiry.poll();
+                top = byExpiry.peek();
+            }
+            return top;
+        }
+    }
+}
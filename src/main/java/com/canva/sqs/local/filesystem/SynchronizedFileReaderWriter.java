@@ -1,23 +1,25 @@
 package com.canva.sqs.local.filesystem;
 
-import com.amazonaws.services.sqs.model.Message;
-
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
-
-import static java.nio.file.StandardOpenOption.*;
-import static java.util.stream.Collectors.toList;
+import java.util.function.ObjLongConsumer;
 
 /**
  * Stateless utility class for atomic writing and reading for file.
+ * Records are stored in binary format, see {@link MessageRecordCodec}.
+ * Message bodies are not stored here, see {@link PackedBodyStore}.
+ * Files are accessed through channels of {@link FileHandleCache}.
+ * <p>
+ * Every modification increments modification counter of the file and is reported to {@link ModificationListener}
+ * while the file is still locked, so that listener can keep in-memory view of the file consistent with it.
  *
  * @see GlobalCloseableLock
  * @author Alexander Pronin
@@ -26,82 +28,148 @@ import static java.util.stream.Collectors.toList;
 @SuppressWarnings("WeakerAccess")
 @ThreadSafe
 public class SynchronizedFileReaderWriter {
+    private static final ModificationListener NO_LISTENER = (previousModCount, modCount, removed, added) -> {
+    };
+
     private SynchronizedFileReaderWriter() {
     }
 
-    public static List<Message> removeMessagesFromFile(Path filePath,
-                                                       Function<List<String>, Map<Boolean, List<Message>>> messageExtractor,
-                                                       Long time) {
-        List<Message> result = new ArrayList<>();
-        try (GlobalCloseableLock ignored = new GlobalCloseableLock(filePath.toString()).lock()) {
-            List<String> messages = Files.readAllLines(filePath);
+    /**
+     * Atomically removes records chosen by extractor from the file.
+     * Records that stay in the file are kept as is.
+     *
+     * @return removed records
+     */
+    public static List<MessageRecord> removeMessagesFromFile(
+            Path filePath, Function<List<MessageRecord>, Map<Boolean, List<MessageRecord>>> messageExtractor) {
+        return removeMessagesFromFile(filePath, messageExtractor, NO_LISTENER);
+    }
 
-            Map<Boolean, List<Message>> splitted = messageExtractor.apply(messages);
+    /**
+     * Atomically removes records chosen by extractor from the file. File is not written if nothing is removed.
+     *
+     * @return removed records
+     */
+    static List<MessageRecord> removeMessagesFromFile(
+            Path filePath, Function<List<MessageRecord>, Map<Boolean, List<MessageRecord>>> messageExtractor,
+            ModificationListener listener) {
+        List<MessageRecord> result = new ArrayList<>();
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(filePath.toString()).lock();
+             FileHandleCache.Handle handle = open(filePath)) {
+            ByteBuffer content = ChannelIO.readAll(handle.channel());
+            long modCount = MessageRecordCodec.modCount(content);
+            Map<Boolean, List<MessageRecord>> splitted = messageExtractor.apply(MessageRecordCodec.decodeFile(content));
 
             result.addAll(splitted.get(Boolean.TRUE));
-            List<String> messagesToFile = splitted.get(Boolean.FALSE)
-                    .stream()
-                    .map(m -> MessageRecord.fromMessageToString(m, time))
-                    .collect(toList());
-
-            Files.write(filePath, messagesToFile, WRITE, TRUNCATE_EXISTING);
+            if (!result.isEmpty()) {
+                writeRecords(handle.channel(), splitted.get(Boolean.FALSE), modCount + 1);
+                listener.modified(modCount, modCount + 1, result, Collections.emptyList());
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
-
-        fillBody(result, filePath);
         return result;
     }
 
-    private static void fillBody(List<Message> result, Path filePath) {
-        result.stream().forEach(message -> {
-            try {
-                String body = new String(Files.readAllBytes(getBodyFileName(filePath, message.getMessageId())));
-                message.withBody(body);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
+    /**
+     * Atomically reads all records of the file.
+     */
+    public static List<MessageRecord> readMessagesFromFile(Path filePath) throws IOException {
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(filePath.toString()).lockShared();
+             FileHandleCache.Handle handle = open(filePath)) {
+            return readRecords(handle.channel());
+        }
+    }
+
+    /**
+     * Atomically reads all records of the file and passes them together with file's modification counter
+     * to the consumer. Consumer is called while the file is locked.
+     */
+    static void readMessagesFromFile(Path filePath, ObjLongConsumer<List<MessageRecord>> consumer) throws IOException {
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(filePath.toString()).lockShared();
+             FileHandleCache.Handle handle = open(filePath)) {
+            ByteBuffer content = ChannelIO.readAll(handle.channel());
+            consumer.accept(MessageRecordCodec.decodeFile(content), MessageRecordCodec.modCount(content));
+        }
     }
 
-    public static void addMessageToEndOfFile(List<Message> messages, Path filePath, Long time) {
-        try (GlobalCloseableLock ignored = new GlobalCloseableLock(filePath.toString()).lock()) {
-            messages.stream().forEach(message -> writeBody(filePath, message));
+    /**
+     * Reads modification counter of the file without locking.
+     * Use it to find out whether the file was modified since it was read, not to read consistent data.
+     */
+    static long readModCount(Path filePath) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(MessageRecordCodec.HEADER_BYTES);
+        try (FileHandleCache.Handle handle = open(filePath)) {
+            ChannelIO.read(handle.channel(), header, 0);
+        }
+        header.flip();
+        return MessageRecordCodec.modCount(header);
+    }
 
-            List<String> toWrite = messages.stream()
-                    .map(m -> MessageRecord.fromMessageToString(m, time))
-                    .collect(toList());
+    public static void addMessageToEndOfFile(List<MessageRecord> messages, Path filePath) {
+        addMessageToEndOfFile(messages, filePath, NO_LISTENER);
+    }
 
-            Files.write(filePath, toWrite, APPEND);
+    static void addMessageToEndOfFile(List<MessageRecord> messages, Path filePath, ModificationListener listener) {
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(filePath.toString()).lock();
+             FileHandleCache.Handle handle = open(filePath)) {
+            FileChannel channel = handle.channel();
+            ByteBuffer header = ByteBuffer.allocate(MessageRecordCodec.HEADER_BYTES);
+            ChannelIO.read(channel, header, 0);
+            header.flip();
+            long modCount = MessageRecordCodec.modCount(header);
+            if (MessageRecordCodec.isCurrentVersion(header)) {
+                // counter goes first: reader that sees old counter never sees new records
+                ChannelIO.writeFully(channel, (ByteBuffer) ByteBuffer.allocate(Long.BYTES).putLong(modCount + 1).flip(),
+                        MessageRecordCodec.MOD_COUNT_POSITION);
+                ChannelIO.append(channel, MessageRecordCodec.encodeRecords(messages));
+            } else {
+                // empty, legacy text or previous version file, convert it
+                List<MessageRecord> records = readRecords(channel);
+                records.addAll(messages);
+                writeRecords(channel, records, modCount + 1);
+            }
+            listener.modified(modCount, modCount + 1, Collections.emptyList(), messages);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private static void writeBody(Path filePath, Message message) {
-        try {
-            Files.write(getBodyFileName(filePath, message.getMessageId()),
-                    message.getBody().getBytes(), StandardOpenOption.CREATE);
+    public static void addMessagesToBeginningOfFile(List<MessageRecord> messages, Path filePath) {
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(filePath.toString()).lock();
+             FileHandleCache.Handle handle = open(filePath)) {
+            ByteBuffer content = ChannelIO.readAll(handle.channel());
+            List<MessageRecord> toWrite = new ArrayList<>(messages);
+            toWrite.addAll(MessageRecordCodec.decodeFile(content));
+            writeRecords(handle.channel(), toWrite, MessageRecordCodec.modCount(content) + 1);
         } catch (IOException e) {
-            // log.error("some message, e)
-            throw new RuntimeException(e);
+            e.printStackTrace();
         }
     }
 
-    private static Path getBodyFileName(Path filePath, String messageId) {
-        return Paths.get(filePath.toString() + "." + messageId);
+    private static FileHandleCache.Handle open(Path filePath) throws IOException {
+        return FileHandleCache.getInstance().open(filePath.getParent(), filePath);
     }
 
-    public static void addMessagesToBeginningOfFile(List<Message> messages, Path filePath, Long time) {
-        try (GlobalCloseableLock ignored = new GlobalCloseableLock(filePath.toString()).lock()) {
-            List<String> oldMessages = Files.readAllLines(filePath);
-            List<String> toWrite = messages.stream()
-                    .map(m -> MessageRecord.fromMessageToString(m, time))
-                    .collect(toList());
-            toWrite.addAll(oldMessages);
-            Files.write(filePath, toWrite, WRITE, TRUNCATE_EXISTING);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private static List<MessageRecord> readRecords(FileChannel channel) throws IOException {
+        return MessageRecordCodec.decodeFile(ChannelIO.readAll(channel));
+    }
+
+    private static void writeRecords(FileChannel channel, List<MessageRecord> records, long modCount)
+            throws IOException {
+        ChannelIO.rewrite(channel, MessageRecordCodec.encodeFile(records, modCount));
+    }
+
+    /**
+     * Receives modifications of a file. Called while the file is locked.
+     */
+    interface ModificationListener {
+        /**
+         * @param previousModCount modification counter of the file before the modification
+         * @param modCount         modification counter of the file after the modification
+         * @param removed          records removed from the file
+         * @param added            records added to the file
+         */
+        void modified(long previousModCount, long modCount, List<MessageRecord> removed, List<MessageRecord> added);
     }
 }
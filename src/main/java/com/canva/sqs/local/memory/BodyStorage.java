@@ -0,0 +1,66 @@
+package com.canva.sqs.local.memory;
+
+import com.google.common.base.Utf8;
+
+import java.util.Properties;
+
+/**
+ * Where in-memory queues keep message bodies until they are received.
+ * Selected by {@value #BODY_STORAGE_KEY} property, {@link #HEAP} is used by default.
+ *
+ * @author Alexander Pronin
+ * @see InMemoryQueueService
+ * @since 18/10/2026
+ */
+public enum BodyStorage {
+    /**
+     * Body strings stay on heap
+     */
+    HEAP("heap") {
+        @Override
+        StoredMessage store(String messageId, String body, SlabAllocator slabs) {
+            return new StoredMessage.HeapMessage(messageId, body);
+        }
+    },
+    /**
+     * Bodies are encoded into direct memory of service's {@link SlabAllocator}, only small handles stay on heap,
+     * so a deep queue of large bodies adds little to the heap and to GC work.
+     * Body is decoded once the message is received, chunk is freed once the message is deleted, dropped
+     * or its queue is deleted. Bodies larger than {@value SlabAllocator#MAX_CHUNK_BYTES} bytes stay on heap.
+     */
+    OFF_HEAP("offheap") {
+        @Override
+        StoredMessage store(String messageId, String body, SlabAllocator slabs) {
+            if (body == null) {
+                return HEAP.store(messageId, null, slabs);
+            }
+            int length = Utf8.encodedLength(body);
+            long chunk = slabs.allocate(length);
+            if (chunk == SlabAllocator.TOO_LARGE) {
+                return HEAP.store(messageId, body, slabs);
+            }
+            slabs.writeUtf8(chunk, body, length);
+            return new StoredMessage.OffHeapMessage(messageId, slabs, chunk, length);
+        }
+    };
+
+    public static final String BODY_STORAGE_KEY = "sqs.memory.body.storage";
+
+    private final String name;
+
+    BodyStorage(String name) {
+        this.name = name;
+    }
+
+    abstract StoredMessage store(String messageId, String body, SlabAllocator slabs);
+
+    public static BodyStorage fromProperties(Properties props) {
+        String name = MemoryProperties.getString(props, BODY_STORAGE_KEY, HEAP.name);
+        for (BodyStorage storage : values()) {
+            if (storage.name.equals(name)) {
+                return storage;
+            }
+        }
+        throw new IllegalStateException("Unknown body storage: " + name);
+    }
+}
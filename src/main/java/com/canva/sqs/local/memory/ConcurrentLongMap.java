@@ -0,0 +1,199 @@
+package com.canva.sqs.local.memory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Concurrent map of primitive long keys: no boxing, no hashing of strings and no allocation per entry.
+ * <p>
+ * Keys are spread over {@value #SEGMENTS} segments, every segment is an open-addressing table with linear probing
+ * guarded by its own lock. Removed entry is filled by shifting the following entries of its probe sequence back,
+ * so there are no tombstones and lookups stay short however many entries come and go.
+ * Segment allocates its table on first use and doubles it once half full.
+ *
+ * @author Alexander Pronin
+ * @see InMemoryQueue
+ * @since 18/10/2026
+ */
+@ThreadSafe
+class ConcurrentLongMap<V> {
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final Segment<V>[] segments;
+
+    @SuppressWarnings("unchecked")
+    ConcurrentLongMap() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    V get(long key) {
+        long hash = hash(key);
+        return segment(hash).get(key, hash);
+    }
+
+    /**
+     * @param value not null
+     * @return previous value or null
+     */
+    V put(long key, V value) {
+        long hash = hash(key);
+        return segment(hash).put(key, hash, value);
+    }
+
+    V remove(long key) {
+        long hash = hash(key);
+        return segment(hash).remove(key, hash);
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Removes all entries, passes every removed value to the consumer outside of the locks
+     */
+    void drain(Consumer<V> consumer) {
+        for (Segment<V> segment : segments) {
+            segment.drain().forEach(consumer);
+        }
+    }
+
+    private Segment<V> segment(long hash) {
+        return segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+    }
+
+    /**
+     * Keys are mostly sequential, multiplication spreads them over both segments (high bits) and slots (low bits)
+     */
+    private static long hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static class Segment<V> {
+        // guarded by this, slot is empty if its value is null
+        private long[] keys;
+        private Object[] values;
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        synchronized V get(long key, long hash) {
+            if (values == null) {
+                return null;
+            }
+            int mask = values.length - 1;
+            for (int slot = (int) hash & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return (V) values[slot];
+                }
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V put(long key, long hash, V value) {
+            if (values == null) {
+                keys = new long[INITIAL_CAPACITY];
+                values = new Object[INITIAL_CAPACITY];
+            } else if (2 * (size + 1) > values.length) {
+                resize(2 * values.length);
+            }
+            int mask = values.length - 1;
+            int slot = (int) hash & mask;
+            for (; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    V previous = (V) values[slot];
+                    values[slot] = value;
+                    return previous;
+                }
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V remove(long key, long hash) {
+            if (values == null) {
+                return null;
+            }
+            int mask = values.length - 1;
+            for (int slot = (int) hash & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    V previous = (V) values[slot];
+                    shiftBack(slot, mask);
+                    size--;
+                    return previous;
+                }
+            }
+            return null;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized List<V> drain() {
+            List<V> drained = new ArrayList<>(size);
+            if (values != null) {
+                for (Object value : values) {
+                    if (value != null) {
+                        drained.add((V) value);
+                    }
+                }
+            }
+            keys = null;
+            values = null;
+            size = 0;
+            return drained;
+        }
+
+        /**
+         * Empties the slot, moves back entries of the same probe sequence that would not be found otherwise
+         */
+        private void shiftBack(int free, int mask) {
+            for (int slot = (free + 1) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                int home = (int) hash(keys[slot]) & mask;
+                // entry may fill the free slot unless its home lies cyclically within (free, slot]
+                boolean reachable = free <= slot ? home > free && home <= slot : home > free || home <= slot;
+                if (!reachable) {
+                    keys[free] = keys[slot];
+                    values[free] = values[slot];
+                    free = slot;
+                }
+            }
+            values[free] = null;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[capacity];
+            values = new Object[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = (int) hash(oldKeys[i]) & mask;
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
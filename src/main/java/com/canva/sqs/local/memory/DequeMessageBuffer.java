@@ -0,0 +1,32 @@
+package com.canva.sqs.local.memory;
+
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Unbounded linked deque, allocates a node per message.
+ *
+ * @author Alexander Pronin
+ * @see MemoryEngine#DEQUE
+ * @since 18/10/2026
+ */
+@ThreadSafe
+class DequeMessageBuffer implements MessageBuffer {
+    private final ConcurrentLinkedDeque<StoredMessage> messages = new ConcurrentLinkedDeque<>();
+
+    @Override
+    public boolean offer(StoredMessage message) {
+        return messages.offer(message);
+    }
+
+    @Override
+    public StoredMessage poll() {
+        return messages.poll();
+    }
+
+    @Override
+    public void redeliver(StoredMessage message) {
+        messages.addFirst(message);
+    }
+}
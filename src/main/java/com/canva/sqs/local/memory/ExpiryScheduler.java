@@ -0,0 +1,60 @@
+package com.canva.sqs.local.memory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inflight timeouts of all queues of {@link InMemoryQueueService}.
+ * <p>
+ * Scheduler owns {@value #EXPIRY_THREADS_KEY} {@link TimingWheel}s, each advanced by its own thread
+ * every {@value #EXPIRY_TICK_MILLIS_KEY} ms. Queue is assigned to one of the wheels once it is created,
+ * so number of threads and cost of a tick do not depend on number of queues.
+ * Queue has nothing to unregister: it cancels timeouts of its inflight messages once it is deleted.
+ *
+ * @author Alexander Pronin
+ * @see InMemoryQueue
+ * @since 18/10/2026
+ */
+@ThreadSafe
+public class ExpiryScheduler {
+    public static final String EXPIRY_THREADS_KEY = "sqs.memory.expiry.threads";
+    public static final String EXPIRY_TICK_MILLIS_KEY = "sqs.memory.expiry.tick.ms";
+    private static final int DEFAULT_EXPIRY_THREADS = 2;
+    private static final long DEFAULT_EXPIRY_TICK_MILLIS = 100;
+
+    private final TimingWheel[] wheels;
+    private final ScheduledExecutorService executor;
+    private final AtomicInteger nextWheel = new AtomicInteger();
+
+    ExpiryScheduler(Properties props) {
+        int threads = (int) MemoryProperties.getLong(props, EXPIRY_THREADS_KEY, DEFAULT_EXPIRY_THREADS);
+        long tick = MemoryProperties.getLong(props, EXPIRY_TICK_MILLIS_KEY, DEFAULT_EXPIRY_TICK_MILLIS);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newScheduledThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "sqs-memory-expiry-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        wheels = new TimingWheel[threads];
+        for (int i = 0; i < threads; i++) {
+            TimingWheel wheel = new TimingWheel(tick, System.nanoTime());
+            wheels[i] = wheel;
+            executor.scheduleAtFixedRate(() -> wheel.advance(System.nanoTime()), tick, tick, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return wheel for timeouts of a new queue, queues are spread over wheels evenly
+     */
+    TimingWheel assignWheel() {
+        return wheels[Math.floorMod(nextWheel.getAndIncrement(), wheels.length)];
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
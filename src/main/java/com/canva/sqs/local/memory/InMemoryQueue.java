@@ -1,101 +1,395 @@
 package com.canva.sqs.local.memory;
 
-import com.amazonaws.services.sqs.model.Message;
-import com.canva.sqs.local.IdsGenerator;
+import com.amazonaws.services.sqs.model.OverLimitException;
+import com.canva.sqs.QueueService;
+import com.canva.sqs.local.MessageArrivals;
 import com.canva.sqs.local.Queue;
+import com.canva.sqs.local.ReceivedMessage;
 import com.canva.sqs.local.SimpleIdsGenerator;
 import org.apache.http.annotation.ThreadSafe;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Inmemory thread-safe queue implementation
  *
- * Queue size is not limited
+ * Visible messages are kept in {@link MessageBuffer} of the configured {@link MemoryEngine}.
+ * Messages and body bytes held by the queue are accounted in {@link MemoryUsage} and may be limited
+ * per queue and for the whole service, message that doesn't fit is handled by {@link OverflowPolicy}.
+ * Bodies are kept according to {@link BodyStorage}, {@link ReceivedMessage} is created only when a message is received.
+ * Inflight messages are kept by their numeric receipt handles in {@link ConcurrentLongMap}.
  *
  * Uses "eager" invalidation of inflight message.
- * Submits scheduled tasks to invalidate inflight messages.
+ * Invalidation tasks of inflight messages are kept in {@link TimingWheel} of service's {@link ExpiryScheduler},
+ * deleted message cancels its task.
  *
+ * Long polling receivers wait on queue's {@link MessageArrivals}, signalled once messages are sent or redelivered.
+ *
+ * Every change of the queue's contents is handed to service's {@link MemoryJournal}, which is a no-op unless enabled.
+ * Queue restored from the journal gets its messages back through {@link #restore(String, MemoryJournal.SavedMessage, long)}.
  *
  * @author Alexander Pronin
  * @since 04/11/2017
  */
 @ThreadSafe
 public class InMemoryQueue implements Queue {
+    private final String name;
     private final Properties props;
 
-    private final ConcurrentLinkedDeque<Message> messages = new ConcurrentLinkedDeque<>();
-    // receiptHandle -> Message
-    private final ConcurrentHashMap<String, Message> inFlight = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService invalidator = Executors.newSingleThreadScheduledExecutor();
+    private final MessageBuffer messages;
+    private final BodyStorage bodyStorage;
+    private final SlabAllocator slabs;
+    private final MemoryUsage usage;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockNanos;
+    // receiptHandle -> inflight message
+    private final ConcurrentLongMap<InflightMessage> inFlight = new ConcurrentLongMap<>();
+    private final TimingWheel invalidations;
+    private final MemoryJournal journal;
+    private final MessageArrivals arrivals;
 
-    private final IdsGenerator idsGenerator = new SimpleIdsGenerator();
+    private final SimpleIdsGenerator idsGenerator = new SimpleIdsGenerator();
 
-    InMemoryQueue(Properties props) {
+    InMemoryQueue(String name, Properties props, ExpiryScheduler expiryScheduler, MemoryUsage serviceUsage,
+                  SlabAllocator slabs, MemoryJournal journal, Executor completions) {
+        this.name = name;
         this.props = props;
+        this.messages = MemoryEngine.fromProperties(props).newQueueBuffer(props);
+        this.bodyStorage = BodyStorage.fromProperties(props);
+        this.slabs = slabs;
+        this.usage = serviceUsage.forQueue(props);
+        this.overflowPolicy = OverflowPolicy.fromProperties(props);
+        this.blockNanos = TimeUnit.MILLISECONDS.toNanos(
+                MemoryProperties.getLong(props, OverflowPolicy.BLOCK_MILLIS_KEY, OverflowPolicy.DEFAULT_BLOCK_MILLIS));
+        this.invalidations = expiryScheduler.assignWheel();
+        this.journal = journal;
+        this.arrivals = new MessageArrivals(completions);
     }
 
+    /**
+     * @throws OverLimitException if message doesn't fit and {@link OverflowPolicy} couldn't make room for it
+     */
     @Override
     @Nonnull
-    public String sendMessage(String ignored, String messageBody) {
+    public String sendMessage(String queueUrl, String messageBody) {
         String messageId = idsGenerator.generateMessageId();
-        messages.add(new Message().withBody(messageBody).withMessageId(String.valueOf(messageId)));
+        send(queueUrl, bodyStorage.store(messageId, messageBody, slabs), messageBody);
         return messageId;
     }
 
+    /**
+     * Accounts the whole batch in {@link MemoryUsage} at once and offers messages one by one.
+     * If the batch doesn't fit at once or the buffer is full, the rest of it is sent message by message
+     * with {@link OverflowPolicy} applied to every message.
+     */
+    @Override
+    @Nonnull
+    public List<String> sendMessageBatch(String queueUrl, List<String> messageBodies) {
+        int count = messageBodies.size();
+        long firstId = idsGenerator.generateMessageIds(count);
+        List<StoredMessage> batch = new ArrayList<>(count);
+        long size = 0;
+        for (int i = 0; i < count; i++) {
+            StoredMessage message = bodyStorage.store(String.valueOf(firstId + i), messageBodies.get(i), slabs);
+            batch.add(message);
+            size += message.size();
+        }
+
+        List<String> messageIds = new ArrayList<>(count);
+        int sent = 0;
+        if (usage.tryAcquire(count, size)) {
+            for (; sent < count; sent++) {
+                StoredMessage message = batch.get(sent);
+                journal.sent(name, message.getMessageId(), messageBodies.get(sent));
+                if (!messages.offer(message)) {
+                    journal.deleted(name, message.getMessageId());
+                    break;
+                }
+                messageIds.add(message.getMessageId());
+                size -= message.size();
+            }
+            if (sent < count) {
+                usage.rollback(count - sent, size);
+            }
+            if (sent > 0) {
+                arrivals.signal();
+            }
+        }
+        try {
+            for (; sent < count; sent++) {
+                send(queueUrl, batch.get(sent), messageBodies.get(sent));
+                messageIds.add(batch.get(sent).getMessageId());
+            }
+        } catch (OverLimitException e) {
+            // the rest is not sent to keep order of messages
+            for (sent++; sent < count; sent++) {
+                batch.get(sent).free();
+                usage.rejected();
+            }
+        }
+        return messageIds;
+    }
+
+    /**
+     * Stores message once it fits into limits
+     *
+     * @throws OverLimitException if {@link OverflowPolicy} couldn't make room for the message, it is freed then
+     */
+    private void send(String queueUrl, StoredMessage message, String messageBody) {
+        String messageId = message.getMessageId();
+        long size = message.size();
+        long deadline = System.nanoTime() + blockNanos;
+        try {
+            while (true) {
+                long releaseCount = usage.releaseCount();
+                if (usage.tryAcquire(size)) {
+                    // journaled before the message can be received, so replay never sees receive before send
+                    journal.sent(name, messageId, messageBody);
+                    if (messages.offer(message)) {
+                        arrivals.signal();
+                        return;
+                    }
+                    journal.deleted(name, messageId);
+                    usage.rollback(size);
+                }
+                if (!overflowPolicy.makeRoom(this, releaseCount, deadline)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        message.free();
+        usage.rejected();
+        throw new OverLimitException("Queue " + queueUrl + " is full");
+    }
+
     @Override
-    public Optional<Message> receiveMessage(String queueUrl) {
-        return Optional.ofNullable(messages.poll()).map(message -> {
-            String receiptHandle = idsGenerator.generateRecipientHandlerId(message);
-            message.withReceiptHandle(receiptHandle);
-
-            inFlight.put(receiptHandle, message);
-            // move message back to messages queue and clear receiptHandle
-            // does nothing if message was deleted by recipient
-            invalidator.schedule(
-                    new InvalidationTask(receiptHandle),
-                    Long.valueOf(props.getProperty(INFLIGHT_TIMEOUT_SECONDS_KEY)),
-                    TimeUnit.SECONDS);
-            return message;
+    public Optional<ReceivedMessage> receiveMessage(String queueUrl) {
+        return Optional.ofNullable(messages.poll()).map(stored -> {
+            usage.received();
+            return receive(stored, idsGenerator.generateReceiptHandle(), inflightTimeoutMillis());
         });
     }
 
+    /**
+     * Polls up to maxNumberOfMessages messages, then accounts them and reserves their receipt handles at once
+     */
+    @Override
+    @Nonnull
+    public List<ReceivedMessage> receiveMessages(String queueUrl, int maxNumberOfMessages, int visibilityTimeoutSeconds) {
+        List<StoredMessage> polled = new ArrayList<>(maxNumberOfMessages);
+        while (polled.size() < maxNumberOfMessages) {
+            StoredMessage stored = messages.poll();
+            if (stored == null) {
+                break;
+            }
+            polled.add(stored);
+        }
+        if (polled.isEmpty()) {
+            return Collections.emptyList();
+        }
+        usage.received(polled.size());
+        long firstReceiptHandle = idsGenerator.generateReceiptHandles(polled.size());
+        long timeoutMillis = visibilityTimeoutSeconds == QueueService.DEFAULT_VISIBILITY_TIMEOUT
+                ? inflightTimeoutMillis() : TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds);
+        List<ReceivedMessage> result = new ArrayList<>(polled.size());
+        for (int i = 0; i < polled.size(); i++) {
+            result.add(receive(polled.get(i), firstReceiptHandle + i, timeoutMillis));
+        }
+        return result;
+    }
+
+    /**
+     * Used by single and batch receive. Body is read before the message is made inflight:
+     * once it is, it may expire, be deleted and have its off-heap body freed or reused at any moment.
+     */
+    private ReceivedMessage receive(StoredMessage stored, long receiptHandle, long timeoutMillis) {
+        String messageId = stored.getMessageId();
+        String body = stored.getBody();
+        journal.received(name, messageId, receiptHandle, System.currentTimeMillis() + timeoutMillis);
+        makeInflight(receiptHandle, stored, timeoutMillis);
+        return new ReceivedMessage(messageId, body, receiptHandle);
+    }
+
     /**
      * TESTING purpose only!
      *
      * @param queueUrl
      * @param receiptHandle message to invalidate inflight
      */
-    public void invalidateNow(String queueUrl, String receiptHandle) {
+    public void invalidateNow(String queueUrl, long receiptHandle) {
+        Optional.ofNullable(inFlight.get(receiptHandle)).ifPresent(InflightMessage::cancelInvalidation);
         new InvalidationTask(receiptHandle).run();
     }
 
     @Override
-    public void deleteMessage(String ignored, String receiptHandle) {
-        inFlight.remove(receiptHandle);
+    public void deleteMessage(String ignored, long receiptHandle) {
+        Optional.ofNullable(inFlight.remove(receiptHandle)).ifPresent(inflight -> {
+            inflight.cancelInvalidation();
+            journal.deleted(name, inflight.message.getMessageId());
+            usage.releaseInflight(inflight.message.size());
+            inflight.message.free();
+        });
+    }
+
+    /**
+     * Removes messages from inflight one by one, then updates {@link MemoryUsage} once for all of them
+     */
+    @Override
+    public void deleteMessageBatch(String ignored, List<Long> receiptHandles) {
+        long count = 0;
+        long size = 0;
+        for (long receiptHandle : receiptHandles) {
+            InflightMessage inflight = inFlight.remove(receiptHandle);
+            if (inflight != null) {
+                inflight.cancelInvalidation();
+                journal.deleted(name, inflight.message.getMessageId());
+                count++;
+                size += inflight.message.size();
+                inflight.message.free();
+            }
+        }
+        if (count > 0) {
+            usage.releaseInflight(count, size);
+        }
+    }
+
+    /**
+     * Discards the oldest visible message
+     *
+     * @return false if there is no visible message
+     */
+    boolean dropOldest() {
+        StoredMessage message = messages.poll();
+        if (message == null) {
+            return false;
+        }
+        journal.deleted(name, message.getMessageId());
+        usage.release(message.size());
+        message.free();
+        usage.dropped();
+        return true;
+    }
+
+    /**
+     * Puts back a message saved by {@link MemoryJournal}, limits are not applied.
+     * Inflight message keeps its receipt handle and the rest of its visibility timeout.
+     */
+    void restore(String messageId, MemoryJournal.SavedMessage saved, long nowMillis) {
+        StoredMessage message = bodyStorage.store(messageId, saved.body, slabs);
+        usage.acquire(message.size());
+        if (!saved.isInflight()) {
+            if (!messages.offer(message)) {
+                usage.rollback(message.size());
+                message.free();
+                throw new IllegalStateException("Queue " + name + " is too small to restore its messages");
+            }
+            return;
+        }
+        usage.received();
+        makeInflight(saved.receiptHandle, message, Math.max(0, saved.visibleAt - nowMillis));
+    }
+
+    private void makeInflight(long receiptHandle, StoredMessage message, long timeoutMillis) {
+        InflightMessage inflight = new InflightMessage(message);
+        inFlight.put(receiptHandle, inflight);
+        // move message back to messages queue
+        // does nothing if message was deleted by recipient
+        inflight.invalidation = invalidations.schedule(new InvalidationTask(receiptHandle), timeoutMillis);
+    }
+
+    private long inflightTimeoutMillis() {
+        return TimeUnit.SECONDS.toMillis(Long.valueOf(props.getProperty(INFLIGHT_TIMEOUT_SECONDS_KEY)));
+    }
+
+    MemoryUsage getUsage() {
+        return usage;
     }
 
+    MessageArrivals getArrivals() {
+        return arrivals;
+    }
+
+    /**
+     * Waits for messages without taking a thread, deadline is kept by the queue's {@link TimingWheel}.
+     * Future is completed on the executor of {@link MessageArrivals}, never on the wheel's thread.
+     *
+     * @return future completed with true once messages may have arrived, with false once deadline has passed
+     */
+    CompletableFuture<Boolean> awaitArrivals(long count, long deadlineNanos) {
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remainingMillis <= 0) {
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Boolean> signalled = arrivals.awaitAsync(count);
+        if (!signalled.isDone()) {
+            TimingWheel.Timeout timeout = invalidations.schedule(() -> arrivals.cancel(signalled), remainingMillis);
+            signalled.thenRun(timeout::cancel);
+        }
+        return signalled;
+    }
+
+    /**
+     * Cancels timeouts of inflight messages, queue is not known to the scheduler otherwise.
+     * Frees bodies of all messages and returns memory held by the queue to the service's limits.
+     */
     @Override
     public void cleanup(String ignored) {
-        invalidator.shutdown();
+        inFlight.drain(inflight -> {
+            inflight.cancelInvalidation();
+            inflight.message.free();
+        });
+        for (StoredMessage message = messages.poll(); message != null; message = messages.poll()) {
+            message.free();
+        }
+        usage.detach();
+        // waiting receivers find out that the queue is gone
+        arrivals.signal();
     }
 
     // pulled out to inner class for testing purpose
     private class InvalidationTask implements Runnable {
 
-        private String receiptHandle;
+        private final long receiptHandle;
 
-        private InvalidationTask(String receiptHandle) {
+        private InvalidationTask(long receiptHandle) {
             this.receiptHandle = receiptHandle;
         }
 
         @Override
         public void run() {
-            Optional.ofNullable(inFlight.remove(receiptHandle))
-                    .ifPresent(m -> messages.addFirst(m.withReceiptHandle(null)));
+            Optional.ofNullable(inFlight.remove(receiptHandle)).ifPresent(m -> {
+                journal.expired(name, m.message.getMessageId());
+                usage.expired();
+                messages.redeliver(m.message);
+                arrivals.signal();
+            });
+        }
+    }
+
+    private static class InflightMessage {
+        private final StoredMessage message;
+        // set right after the message becomes inflight
+        private volatile TimingWheel.Timeout invalidation;
+
+        private InflightMessage(StoredMessage message) {
+            this.message = message;
+        }
+
+        void cancelInvalidation() {
+            TimingWheel.Timeout timeout = invalidation;
+            if (timeout != null) {
+                timeout.cancel();
+            }
         }
     }
 }
@@ -5,12 +5,17 @@ import com.amazonaws.services.sqs.model.GetQueueUrlResult;
 import com.amazonaws.services.sqs.model.ListQueuesResult;
 import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
 import com.canva.sqs.local.AbstractLocalQueue;
+import com.canva.sqs.local.MessageArrivals;
 import com.canva.sqs.local.Queue;
+import com.canva.sqs.local.SimpleIdsGenerator;
 import org.apache.http.annotation.ThreadSafe;
 
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 /**
  * In Memory implementation of SQS
@@ -22,15 +27,61 @@ import java.util.concurrent.ConcurrentHashMap;
  * I decided to do nothing (do not throw exception in this case)
  * <p>
  * QueueUrl = QueueName
+ * <p>
+ * Inflight timeouts of all queues are served by a single {@link ExpiryScheduler}.
+ * Memory held by all queues is accounted in a single {@link MemoryUsage} that may be limited.
+ * Off-heap bodies of all queues share a single {@link SlabAllocator}.
+ * <p>
+ * Queues and messages may be journaled by {@link MemoryJournal}, then they are restored once the service is created.
+ * Background threads of the service are stopped and the journal is flushed by {@link #close()}.
+ * <p>
+ * Asynchronous operations run in the calling thread, none of them blocks
+ * except send to a full queue with {@link OverflowPolicy#BLOCK}.
+ * Long polling receivers woken up by a send or by their deadline go on in the service's own threads.
  */
 @ThreadSafe
-public class InMemoryQueueService extends AbstractLocalQueue {
-    private final ConcurrentHashMap<String, Queue> queues = new ConcurrentHashMap<>();
+public class InMemoryQueueService extends AbstractLocalQueue implements AutoCloseable {
+    private final ConcurrentHashMap<String, InMemoryQueue> queues = new ConcurrentHashMap<>();
     private final Properties props;
+    private final ExpiryScheduler expiryScheduler;
+    private final MemoryUsage usage;
+    private final SlabAllocator slabs;
+    private final MemoryJournal journal;
+    // completes futures of asynchronous long polling receivers
+    private final ExecutorService completions = MessageArrivals.newCompletionExecutor("sqs-memory-arrivals");
+    private volatile boolean closed;
 
     public InMemoryQueueService(Properties props) {
         System.out.println("Initializing In-memory queue service");
         this.props = props;
+        this.expiryScheduler = new ExpiryScheduler(props);
+        this.usage = MemoryUsage.forService(props);
+        this.slabs = new SlabAllocator(props);
+        this.journal = new MemoryJournal(props);
+        restore();
+    }
+
+    /**
+     * Recreates queues saved by the previous run, ids generated from now on don't clash with restored ones
+     */
+    private void restore() {
+        long now = System.currentTimeMillis();
+        long lastMessageId = -1;
+        long lastReceiptHandle = -1;
+        for (Map.Entry<String, Map<String, MemoryJournal.SavedMessage>> saved : journal.restore().entrySet()) {
+            InMemoryQueue queue = newQueue(saved.getKey());
+            queues.put(saved.getKey(), queue);
+            for (Map.Entry<String, MemoryJournal.SavedMessage> message : saved.getValue().entrySet()) {
+                queue.restore(message.getKey(), message.getValue(), now);
+                lastMessageId = Math.max(lastMessageId, Long.parseLong(message.getKey()));
+                lastReceiptHandle = Math.max(lastReceiptHandle, message.getValue().receiptHandle);
+            }
+        }
+        SimpleIdsGenerator.reserveUpTo(lastMessageId, lastReceiptHandle);
+    }
+
+    private InMemoryQueue newQueue(String queueName) {
+        return new InMemoryQueue(queueName, props, expiryScheduler, usage, slabs, journal, completions);
     }
 
     /**
@@ -39,7 +90,10 @@ public class InMemoryQueueService extends AbstractLocalQueue {
      */
     @Override
     public CreateQueueResult createQueue(String queueName) {
-        queues.computeIfAbsent(queueName, q -> new InMemoryQueue(props));
+        queues.computeIfAbsent(queueName, q -> {
+            journal.queueCreated(q);
+            return newQueue(q);
+        });
         return new CreateQueueResult().withQueueUrl(queueName);
     }
 
@@ -52,7 +106,10 @@ public class InMemoryQueueService extends AbstractLocalQueue {
      */
     @Override
     public void deleteQueue(String queueUrl) {
-        Optional.ofNullable(queues.remove(queueUrl)).ifPresent(queue -> queue.cleanup(queueUrl));
+        Optional.ofNullable(queues.remove(queueUrl)).ifPresent(queue -> {
+            journal.queueDeleted(queueUrl);
+            queue.cleanup(queueUrl);
+        });
     }
 
     @Override
@@ -69,8 +126,73 @@ public class InMemoryQueueService extends AbstractLocalQueue {
         }
     }
 
+    /**
+     * @return messages and bytes held by all queues
+     */
+    public MemoryUsage getUsage() {
+        return usage;
+    }
+
+    /**
+     * @return messages and bytes held by the queue, empty if queue does not exist
+     */
+    public Optional<MemoryUsage> getUsage(String queueUrl) {
+        return Optional.ofNullable(queues.get(queueUrl)).map(InMemoryQueue::getUsage);
+    }
+
+    /**
+     * @return direct memory of off-heap bodies, see {@link BodyStorage#OFF_HEAP}
+     */
+    public SlabAllocator getSlabs() {
+        return slabs;
+    }
+
+    /**
+     * @return journal of queues, see {@link MemoryJournal#JOURNAL_DIR_KEY}
+     */
+    public MemoryJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Stops expiry of inflight messages, flushes and stops the journal.
+     * Long polling receivers are released at once, as their deadlines are kept by the stopped {@link ExpiryScheduler}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        expiryScheduler.shutdown();
+        queues.values().forEach(queue -> queue.getArrivals().signal());
+        completions.shutdown();
+        journal.shutdown();
+    }
+
     @Override
     protected Queue getQueue(String queueUrl) {
         return queues.get(queueUrl);
     }
+
+    @Override
+    protected long arrivals(String queueUrl) {
+        return Optional.ofNullable(queues.get(queueUrl)).map(queue -> queue.getArrivals().count()).orElse(0L);
+    }
+
+    /**
+     * Parks the receiver on queue's {@link MessageArrivals}, signalled by sends and by expiry of inflight messages
+     */
+    @Override
+    protected boolean awaitMessages(String queueUrl, long arrivals, long deadlineNanos) throws InterruptedException {
+        InMemoryQueue queue = queues.get(queueUrl);
+        return queue != null && !closed && queue.getArrivals().await(arrivals, deadlineNanos);
+    }
+
+    /**
+     * Deadline of the receiver is kept by the same {@link TimingWheel} as inflight timeouts of the queue
+     */
+    @Override
+    protected CompletableFuture<Boolean> awaitMessagesAsync(String queueUrl, long arrivals, long deadlineNanos) {
+        InMemoryQueue queue = queues.get(queueUrl);
+        return queue == null || closed
+                ? CompletableFuture.completedFuture(false) : queue.awaitArrivals(arrivals, deadlineNanos);
+    }
 }
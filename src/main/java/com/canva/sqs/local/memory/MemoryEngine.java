@@ -0,0 +1,80 @@
+package com.canva.sqs.local.memory;
+
+import java.util.Properties;
+
+/**
+ * Storage engines available for in-memory SQS.
+ * Selected by {@value #SQS_MEMORY_ENGINE_KEY} property, {@link #DEQUE} is used by default.
+ * Queue is split into {@value #SHARDS_KEY} buffers of the engine if the property is above 1,
+ * see {@link ShardedMessageBuffer}.
+ *
+ * @author Alexander Pronin
+ * @see InMemoryQueueService
+ * @since 18/10/2026
+ */
+public enum MemoryEngine {
+    /**
+     * Unbounded linked deque. See {@link DequeMessageBuffer}
+     */
+    DEQUE("deque") {
+        @Override
+        MessageBuffer newBuffer(Properties props) {
+            return new DequeMessageBuffer();
+        }
+    },
+    /**
+     * Preallocated ring of {@value #RING_CAPACITY_KEY} messages. See {@link RingMessageBuffer}
+     */
+    RING("ring") {
+        @Override
+        MessageBuffer newBuffer(Properties props) {
+            return new RingMessageBuffer(
+                    (int) (MemoryProperties.getLong(props, RING_CAPACITY_KEY, DEFAULT_RING_CAPACITY) / shards(props)));
+        }
+    };
+
+    public static final String SQS_MEMORY_ENGINE_KEY = "sqs.memory.engine";
+    /**
+     * Capacity of the whole queue, it is split between shards
+     */
+    public static final String RING_CAPACITY_KEY = "sqs.memory.ring.capacity";
+    public static final String SHARDS_KEY = "sqs.memory.shards";
+    private static final int DEFAULT_RING_CAPACITY = 16384;
+
+    private final String name;
+
+    MemoryEngine(String name) {
+        this.name = name;
+    }
+
+    abstract MessageBuffer newBuffer(Properties props);
+
+    /**
+     * @return buffer for a new queue, sharded if configured
+     */
+    MessageBuffer newQueueBuffer(Properties props) {
+        int shards = shards(props);
+        if (shards == 1) {
+            return newBuffer(props);
+        }
+        MessageBuffer[] buffers = new MessageBuffer[shards];
+        for (int i = 0; i < shards; i++) {
+            buffers[i] = newBuffer(props);
+        }
+        return new ShardedMessageBuffer(buffers);
+    }
+
+    private static int shards(Properties props) {
+        return (int) Math.max(1, MemoryProperties.getLong(props, SHARDS_KEY, 1));
+    }
+
+    public static MemoryEngine fromProperties(Properties props) {
+        String name = MemoryProperties.getString(props, SQS_MEMORY_ENGINE_KEY, DEQUE.name);
+        for (MemoryEngine engine : values()) {
+            if (engine.name.equals(name)) {
+                return engine;
+            }
+        }
+        throw new IllegalStateException("Unknown memory engine: " + name);
+    }
+}
@@ -0,0 +1,515 @@
+package com.canva.sqs.local.memory;
+
+import com.canva.sqs.local.ReceivedMessage;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Best-effort persistence of in-memory queues across restarts, enabled by {@value #JOURNAL_DIR_KEY} property.
+ * <p>
+ * Queue operations only put a record into an in-memory queue, a background thread appends records
+ * to the current journal file every {@value #FLUSH_MILLIS_KEY} ms. Nothing is synced, records that weren't
+ * written before a crash are lost, messages may be redelivered or reappear after restart.
+ * <p>
+ * Every {@value #SNAPSHOT_INTERVAL_MILLIS_KEY} ms the background thread starts a new journal file
+ * and compacts the previous snapshot and closed journals into a new snapshot: records that recreate
+ * queues, their messages and inflight state. So restart reads state once plus a short journal tail.
+ * Compaction holds the state of all queues in memory of the background thread while it runs.
+ * <p>
+ * Records that wait for the background thread are bounded by {@value #MAX_PENDING_KEY} property.
+ * Once the thread falls that far behind, records are dropped until the next snapshot starts a new journal,
+ * or until the thread catches up if snapshots are disabled. Dropped records are lost as if the service crashed.
+ * <p>
+ * File names carry a generation: {@code snapshot-N} includes all journals up to {@code journal-N}.
+ *
+ * @author Alexander Pronin
+ * @see InMemoryQueueService
+ * @since 18/10/2026
+ */
+@ThreadSafe
+public class MemoryJournal {
+    public static final String JOURNAL_DIR_KEY = "sqs.memory.journal.dir";
+    public static final String FLUSH_MILLIS_KEY = "sqs.memory.journal.flush.ms";
+    public static final String SNAPSHOT_INTERVAL_MILLIS_KEY = "sqs.memory.snapshot.interval.ms";
+    public static final String MAX_PENDING_KEY = "sqs.memory.journal.max.pending";
+    private static final long DEFAULT_FLUSH_MILLIS = 100;
+    private static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 60_000;
+    private static final long DEFAULT_MAX_PENDING = 1_000_000;
+
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    private final Path dir;
+    private final long flushMillis;
+    private final long snapshotIntervalMillis;
+    private final long maxPending;
+    private final ConcurrentLinkedQueue<Record> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicBoolean dropping = new AtomicBoolean();
+
+    // guarded by this
+    private ScheduledExecutorService executor;
+    private long generation;
+    private DataOutputStream out;
+    private long unsnapshottedRecords;
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong restoredMessages = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    MemoryJournal(Properties props) {
+        String dirStr = MemoryProperties.getString(props, JOURNAL_DIR_KEY, null);
+        dir = dirStr == null ? null : Paths.get(dirStr);
+        flushMillis = MemoryProperties.getLong(props, FLUSH_MILLIS_KEY, DEFAULT_FLUSH_MILLIS);
+        snapshotIntervalMillis = MemoryProperties.getLong(props, SNAPSHOT_INTERVAL_MILLIS_KEY,
+                DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+        maxPending = MemoryProperties.getLong(props, MAX_PENDING_KEY, DEFAULT_MAX_PENDING);
+    }
+
+    boolean isEnabled() {
+        return dir != null;
+    }
+
+    /**
+     * Reads state saved by the previous run in the current thread and starts journaling
+     *
+     * @return queue name -> message id -> message in the order of the queue, empty if journal is disabled
+     */
+    synchronized Map<String, Map<String, SavedMessage>> restore() {
+        if (dir == null) {
+            return new LinkedHashMap<>();
+        }
+        State state = new State();
+        try {
+            Files.createDirectories(dir);
+            generation = load(state, Long.MAX_VALUE) + 1;
+            out = open(generation);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to restore in-memory queues from " + dir, e);
+        }
+        state.queues.values().forEach(messages -> restoredMessages.addAndGet(messages.size()));
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sqs-memory-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        if (snapshotIntervalMillis > 0) {
+            executor.scheduleWithFixedDelay(this::snapshot, snapshotIntervalMillis, snapshotIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        return state.queues;
+    }
+
+    void queueCreated(String queue) {
+        append(new Record(Record.CREATE_QUEUE, queue, null, null, 0, 0));
+    }
+
+    void queueDeleted(String queue) {
+        append(new Record(Record.DELETE_QUEUE, queue, null, null, 0, 0));
+    }
+
+    void sent(String queue, String messageId, String body) {
+        append(new Record(Record.SEND, queue, messageId, body, 0, 0));
+    }
+
+    /**
+     * @param visibleAtMillis time the message becomes visible again unless it is deleted
+     */
+    void received(String queue, String messageId, long receiptHandle, long visibleAtMillis) {
+        append(new Record(Record.RECEIVE, queue, messageId, null, receiptHandle, visibleAtMillis));
+    }
+
+    void expired(String queue, String messageId) {
+        append(new Record(Record.EXPIRE, queue, messageId, null, 0, 0));
+    }
+
+    /**
+     * Message is deleted, dropped or could not be stored
+     */
+    void deleted(String queue, String messageId) {
+        append(new Record(Record.DELETE, queue, messageId, null, 0, 0));
+    }
+
+    private void append(Record record) {
+        if (dir == null) {
+            return;
+        }
+        if (dropping.get()) {
+            droppedRecords.incrementAndGet();
+            return;
+        }
+        if (pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            droppedRecords.incrementAndGet();
+            if (dropping.compareAndSet(false, true)) {
+                System.err.println("In-memory journal " + dir + " is " + maxPending
+                        + " records behind, records are dropped until the next snapshot");
+            }
+            return;
+        }
+        pending.add(record);
+    }
+
+    /**
+     * Writes pending records to the current journal in the current thread
+     */
+    public synchronized void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            for (Record record = pending.poll(); record != null; record = pending.poll()) {
+                pendingCount.decrementAndGet();
+                record.write(out);
+                records.incrementAndGet();
+                unsnapshottedRecords++;
+            }
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (snapshotIntervalMillis <= 0) {
+            // no snapshot is coming
+            resume();
+        }
+    }
+
+    private void resume() {
+        if (dropping.compareAndSet(true, false)) {
+            System.err.println("In-memory journal " + dir + " is resumed, " + droppedRecords.get()
+                    + " records were dropped");
+        }
+    }
+
+    /**
+     * Starts a new journal and compacts everything before it into a snapshot in the current thread.
+     * Does nothing if nothing was journaled since the previous snapshot.
+     */
+    public synchronized void snapshot() {
+        flush();
+        resume();
+        if (out == null || unsnapshottedRecords == 0) {
+            return;
+        }
+        try {
+            long compacted = generation;
+            out.close();
+            out = open(++generation);
+            unsnapshottedRecords = 0;
+
+            State state = new State();
+            load(state, compacted);
+            Path tmp = dir.resolve(SNAPSHOT_PREFIX + compacted + ".tmp");
+            try (DataOutputStream snapshot = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                state.write(snapshot);
+            }
+            Files.move(tmp, dir.resolve(SNAPSHOT_PREFIX + compacted), StandardCopyOption.ATOMIC_MOVE);
+
+            for (Path file : files()) {
+                if (generation(file) <= compacted && !file.getFileName().toString().equals(SNAPSHOT_PREFIX + compacted)) {
+                    Files.delete(file);
+                }
+            }
+            snapshots.incrementAndGet();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Flushes pending records and stops journaling
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        flush();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Applies the latest snapshot up to the given generation and journals after it
+     *
+     * @return the latest generation found
+     */
+    private long load(State state, long upTo) throws IOException {
+        List<Path> files = files();
+        long snapshot = files.stream()
+                .filter(file -> file.getFileName().toString().startsWith(SNAPSHOT_PREFIX))
+                .mapToLong(MemoryJournal::generation)
+                .filter(g -> g <= upTo)
+                .max()
+                .orElse(0);
+        long latest = snapshot;
+        for (Path file : files) {
+            long g = generation(file);
+            boolean journal = file.getFileName().toString().startsWith(JOURNAL_PREFIX);
+            if ((journal && g > snapshot && g <= upTo) || (!journal && g == snapshot)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    state.replay(new DataInputStream(new BufferedInputStream(in)));
+                }
+                latest = Math.max(latest, g);
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * @return snapshots and journals ordered by generation, snapshot of a generation before its journal
+     */
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                    .filter(file -> generation(file) >= 0)
+                    .sorted((a, b) -> {
+                        int byGeneration = Long.compare(generation(a), generation(b));
+                        return byGeneration != 0 ? byGeneration
+                                : b.getFileName().toString().compareTo(a.getFileName().toString());
+                    })
+                    .collect(toList());
+        }
+    }
+
+    private DataOutputStream open(long generation) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(dir.resolve(JOURNAL_PREFIX + generation))));
+    }
+
+    private static long generation(Path file) {
+        String name = file.getFileName().toString();
+        String generation = name.startsWith(JOURNAL_PREFIX) ? name.substring(JOURNAL_PREFIX.length())
+                : name.startsWith(SNAPSHOT_PREFIX) ? name.substring(SNAPSHOT_PREFIX.length()) : "";
+        try {
+            return Long.parseLong(generation);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public long getRecords() {
+        return records.get();
+    }
+
+    public long getSnapshots() {
+        return snapshots.get();
+    }
+
+    public long getRestoredMessages() {
+        return restoredMessages.get();
+    }
+
+    /**
+     * @return records dropped because {@value #MAX_PENDING_KEY} records were waiting to be written
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * Message as it was saved: inflight if it has a receipt handle
+     */
+    static class SavedMessage {
+        final String body;
+        long receiptHandle = ReceivedMessage.INVALID_RECEIPT_HANDLE;
+        long visibleAt;
+
+        SavedMessage(String body) {
+            this.body = body;
+        }
+
+        boolean isInflight() {
+            return receiptHandle != ReceivedMessage.INVALID_RECEIPT_HANDLE;
+        }
+    }
+
+    /**
+     * Queues rebuilt from records
+     */
+    private static class State {
+        private final Map<String, Map<String, SavedMessage>> queues = new LinkedHashMap<>();
+
+        /**
+         * Applies records until the end of the stream, torn record at the end is ignored
+         */
+        void replay(DataInputStream in) throws IOException {
+            try {
+                for (Record record = Record.read(in); record != null; record = Record.read(in)) {
+                    apply(record);
+                }
+            } catch (EOFException e) {
+                // the last record wasn't written completely
+            }
+        }
+
+        private void apply(Record record) {
+            if (record.type == Record.CREATE_QUEUE) {
+                queues.putIfAbsent(record.queue, new LinkedHashMap<>());
+                return;
+            }
+            if (record.type == Record.DELETE_QUEUE) {
+                queues.remove(record.queue);
+                return;
+            }
+            Map<String, SavedMessage> messages = queues.get(record.queue);
+            if (messages == null) {
+                return;
+            }
+            SavedMessage message = messages.get(record.messageId);
+            switch (record.type) {
+                case Record.SEND:
+                    messages.put(record.messageId, new SavedMessage(record.body));
+                    break;
+                case Record.RECEIVE:
+                    if (message != null) {
+                        message.receiptHandle = record.receiptHandle;
+                        message.visibleAt = record.time;
+                    }
+                    break;
+                case Record.EXPIRE:
+                    if (message != null) {
+                        message.receiptHandle = ReceivedMessage.INVALID_RECEIPT_HANDLE;
+                    }
+                    break;
+                case Record.DELETE:
+                    messages.remove(record.messageId);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown journal record: " + record.type);
+            }
+        }
+
+        /**
+         * Writes records that recreate the state
+         */
+        void write(DataOutputStream out) throws IOException {
+            for (Map.Entry<String, Map<String, SavedMessage>> queue : queues.entrySet()) {
+                new Record(Record.CREATE_QUEUE, queue.getKey(), null, null, 0, 0).write(out);
+                for (Map.Entry<String, SavedMessage> entry : queue.getValue().entrySet()) {
+                    SavedMessage message = entry.getValue();
+                    new Record(Record.SEND, queue.getKey(), entry.getKey(), message.body, 0, 0).write(out);
+                    if (message.isInflight()) {
+                        new Record(Record.RECEIVE, queue.getKey(), entry.getKey(), null,
+                                message.receiptHandle, message.visibleAt).write(out);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Journal record: {@code [byte type][UTF queue]} followed by fields of the type
+     */
+    private static class Record {
+        static final byte CREATE_QUEUE = 1;
+        static final byte DELETE_QUEUE = 2;
+        static final byte SEND = 3;
+        static final byte RECEIVE = 4;
+        static final byte EXPIRE = 5;
+        static final byte DELETE = 6;
+        private static final int NULL_BODY = -1;
+
+        private final byte type;
+        private final String queue;
+        private final String messageId;
+        private final String body;
+        private final long receiptHandle;
+        private final long time;
+
+        Record(byte type, String queue, String messageId, String body, long receiptHandle, long time) {
+            this.type = type;
+            this.queue = queue;
+            this.messageId = messageId;
+            this.body = body;
+            this.receiptHandle = receiptHandle;
+            this.time = time;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(type);
+            out.writeUTF(queue);
+            if (type == CREATE_QUEUE || type == DELETE_QUEUE) {
+                return;
+            }
+            out.writeUTF(messageId);
+            if (type == SEND) {
+                if (body == null) {
+                    out.writeInt(NULL_BODY);
+                } else {
+                    // body may exceed the 64 KB limit of writeUTF
+                    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            } else if (type == RECEIVE) {
+                out.writeLong(receiptHandle);
+                out.writeLong(time);
+            }
+        }
+
+        /**
+         * @return null at the end of the stream
+         */
+        static Record read(DataInputStream in) throws IOException {
+            int type = in.read();
+            if (type < 0) {
+                return null;
+            }
+            String queue = in.readUTF();
+            if (type == CREATE_QUEUE || type == DELETE_QUEUE) {
+                return new Record((byte) type, queue, null, null, 0, 0);
+            }
+            String messageId = in.readUTF();
+            String body = null;
+            long receiptHandle = 0;
+            long time = 0;
+            if (type == SEND) {
+                int length = in.readInt();
+                if (length != NULL_BODY) {
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    body = new String(bytes, StandardCharsets.UTF_8);
+                }
+            } else if (type == RECEIVE) {
+                receiptHandle = in.readLong();
+                time = in.readLong();
+            }
+            return new Record((byte) type, queue, messageId, body, receiptHandle, time);
+        }
+    }
+}
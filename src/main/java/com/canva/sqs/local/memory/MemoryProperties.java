@@ -0,0 +1,26 @@
+package com.canva.sqs.local.memory;
+
+import java.util.Properties;
+
+/**
+ * Reading of in-memory SQS settings.
+ * Mocked properties return null even for a property with default, so defaults are applied here.
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+final class MemoryProperties {
+
+    private MemoryProperties() {
+    }
+
+    static String getString(Properties props, String key, String defaultValue) {
+        String value = props.getProperty(key);
+        return value == null ? defaultValue : value;
+    }
+
+    static long getLong(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+}
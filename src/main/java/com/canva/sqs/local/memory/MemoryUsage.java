@@ -0,0 +1,254 @@
+package com.canva.sqs.local.memory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Messages and body bytes held by an in-memory queue or by the whole service, with optional limits.
+ * <p>
+ * Queue's usage has service's usage as a parent, every update is applied to both, so both levels cost O(1):
+ * message is acquired on send and released on delete or drop, receive and expiry only move it
+ * between visible and inflight. Limits apply to all held messages, inflight ones occupy memory as well.
+ * <p>
+ * Acquisition adds first and rolls back if a limit is exceeded, concurrent senders near the limit
+ * may both be refused while only one of them would fit.
+ * Senders blocked by {@link OverflowPolicy#BLOCK} wait on the service's usage for any release.
+ *
+ * @author Alexander Pronin
+ * @see InMemoryQueue
+ * @since 18/10/2026
+ */
+@ThreadSafe
+public class MemoryUsage {
+    public static final String QUEUE_MAX_MESSAGES_KEY = "sqs.memory.queue.max.messages";
+    public static final String QUEUE_MAX_BYTES_KEY = "sqs.memory.queue.max.bytes";
+    public static final String SERVICE_MAX_MESSAGES_KEY = "sqs.memory.max.messages";
+    public static final String SERVICE_MAX_BYTES_KEY = "sqs.memory.max.bytes";
+    private static final long UNLIMITED = 0;
+
+    private final long maxMessages;
+    private final long maxBytes;
+    private final MemoryUsage parent;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong inflight = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // used by the service's usage only
+    private final AtomicLong releases = new AtomicLong();
+    private volatile int waiters;
+
+    private MemoryUsage(long maxMessages, long maxBytes, MemoryUsage parent) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.parent = parent;
+    }
+
+    static MemoryUsage forService(Properties props) {
+        return new MemoryUsage(MemoryProperties.getLong(props, SERVICE_MAX_MESSAGES_KEY, UNLIMITED),
+                MemoryProperties.getLong(props, SERVICE_MAX_BYTES_KEY, UNLIMITED), null);
+    }
+
+    MemoryUsage forQueue(Properties props) {
+        return new MemoryUsage(MemoryProperties.getLong(props, QUEUE_MAX_MESSAGES_KEY, UNLIMITED),
+                MemoryProperties.getLong(props, QUEUE_MAX_BYTES_KEY, UNLIMITED), this);
+    }
+
+    /**
+     * Accounts a new message if it fits into limits of this and all parent levels
+     *
+     * @return false if any limit would be exceeded, nothing is accounted then
+     */
+    boolean tryAcquire(long size) {
+        return tryAcquire(1, size);
+    }
+
+    /**
+     * Accounts a batch of messages at once if all of them fit into limits of this and all parent levels
+     *
+     * @param size total size of messages
+     * @return false if any limit would be exceeded, nothing is accounted then
+     */
+    boolean tryAcquire(long count, long size) {
+        long totalCount = messages.addAndGet(count);
+        long total = bytes.addAndGet(size);
+        if ((maxMessages != UNLIMITED && totalCount > maxMessages) || (maxBytes != UNLIMITED && total > maxBytes)
+                || (parent != null && !parent.tryAcquire(count, size))) {
+            messages.addAndGet(-count);
+            bytes.addAndGet(-size);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Accounts a message regardless of limits, e.g. restored one that was accepted before restart
+     */
+    void acquire(long size) {
+        for (MemoryUsage usage = this; usage != null; usage = usage.parent) {
+            usage.messages.incrementAndGet();
+            usage.bytes.addAndGet(size);
+        }
+    }
+
+    /**
+     * Visible message of the given size is removed
+     */
+    void release(long size) {
+        rollback(size);
+        root().signal();
+    }
+
+    /**
+     * Acquired message wasn't stored after all. Waiters are not woken up, it frees nothing they could use.
+     */
+    void rollback(long size) {
+        rollback(1, size);
+    }
+
+    /**
+     * Acquired messages of the given total size weren't stored after all
+     */
+    void rollback(long count, long size) {
+        for (MemoryUsage usage = this; usage != null; usage = usage.parent) {
+            usage.messages.addAndGet(-count);
+            usage.bytes.addAndGet(-size);
+        }
+    }
+
+    /**
+     * Inflight message of the given size is deleted
+     */
+    void releaseInflight(long size) {
+        releaseInflight(1, size);
+    }
+
+    /**
+     * Inflight messages of the given total size are deleted, waiters are woken up once
+     */
+    void releaseInflight(long count, long size) {
+        for (MemoryUsage usage = this; usage != null; usage = usage.parent) {
+            usage.inflight.addAndGet(-count);
+        }
+        rollback(count, size);
+        root().signal();
+    }
+
+    /**
+     * Visible message becomes inflight
+     */
+    void received() {
+        received(1);
+    }
+
+    /**
+     * Visible messages become inflight
+     */
+    void received(long count) {
+        for (MemoryUsage usage = this; usage != null; usage = usage.parent) {
+            usage.inflight.addAndGet(count);
+        }
+        // a slot of a bounded buffer is free
+        root().signal();
+    }
+
+    /**
+     * Inflight message becomes visible again
+     */
+    void expired() {
+        for (MemoryUsage usage = this; usage != null; usage = usage.parent) {
+            usage.inflight.decrementAndGet();
+        }
+    }
+
+    void rejected() {
+        rejected.incrementAndGet();
+    }
+
+    void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Removes everything accounted by this level from the parents, once the queue is deleted
+     */
+    void detach() {
+        long count = messages.getAndSet(0);
+        long total = bytes.getAndSet(0);
+        long received = inflight.getAndSet(0);
+        for (MemoryUsage usage = parent; usage != null; usage = usage.parent) {
+            usage.messages.addAndGet(-count);
+            usage.bytes.addAndGet(-total);
+            usage.inflight.addAndGet(-received);
+        }
+        root().signal();
+    }
+
+    /**
+     * @return token to pass to {@link #awaitRelease(long, long)}, taken before an attempt to acquire
+     */
+    long releaseCount() {
+        return root().releases.get();
+    }
+
+    /**
+     * Waits until anything is released after the token was taken
+     *
+     * @return false if deadline has passed
+     */
+    boolean awaitRelease(long releaseCount, long deadlineNanos) throws InterruptedException {
+        MemoryUsage root = root();
+        synchronized (root) {
+            root.waiters++;
+            try {
+                while (root.releases.get() == releaseCount) {
+                    long remaining = deadlineNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(root, remaining);
+                }
+                return true;
+            } finally {
+                root.waiters--;
+            }
+        }
+    }
+
+    private void signal() {
+        releases.incrementAndGet();
+        if (waiters > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private MemoryUsage root() {
+        return parent == null ? this : parent.root();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getInflight() {
+        return inflight.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,30 @@
+package com.canva.sqs.local.memory;
+
+
+/**
+ * Storage of visible messages of {@link InMemoryQueue}.
+ * Implementations are thread-safe and non-blocking.
+ *
+ * @author Alexander Pronin
+ * @see MemoryEngine
+ * @since 18/10/2026
+ */
+interface MessageBuffer {
+    /**
+     * Appends message to the tail
+     *
+     * @return false if buffer is full
+     */
+    boolean offer(StoredMessage message);
+
+    /**
+     * @return message from the head or null if buffer is empty
+     */
+    StoredMessage poll();
+
+    /**
+     * Returns message whose inflight timeout expired to the head, so it is received before the others.
+     * Message has already been admitted once, so it is never rejected.
+     */
+    void redeliver(StoredMessage message);
+}
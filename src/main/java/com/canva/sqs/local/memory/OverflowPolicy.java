@@ -0,0 +1,72 @@
+package com.canva.sqs.local.memory;
+
+import java.util.Properties;
+
+/**
+ * What in-memory queue does with a message that doesn't fit into {@link MemoryUsage} limits
+ * or into its {@link MessageBuffer}. Selected by {@value #OVERFLOW_POLICY_KEY} property,
+ * {@link #REJECT} is used by default. Message that can't be sent fails with
+ * {@link com.amazonaws.services.sqs.model.OverLimitException}.
+ *
+ * @author Alexander Pronin
+ * @see InMemoryQueue#sendMessage(String, String)
+ * @since 18/10/2026
+ */
+public enum OverflowPolicy {
+    /**
+     * Fails at once
+     */
+    REJECT("reject") {
+        @Override
+        boolean makeRoom(InMemoryQueue queue, long releaseCount, long deadlineNanos) {
+            return false;
+        }
+    },
+    /**
+     * Waits for {@value #BLOCK_MILLIS_KEY} ms until messages are received or deleted by consumers
+     */
+    BLOCK("block") {
+        @Override
+        boolean makeRoom(InMemoryQueue queue, long releaseCount, long deadlineNanos) throws InterruptedException {
+            return queue.getUsage().awaitRelease(releaseCount, deadlineNanos);
+        }
+    },
+    /**
+     * Discards the oldest visible message of the same queue. Fails if queue has no visible message,
+     * e.g. all of its messages are inflight or service-wide limit is taken by other queues.
+     */
+    DROP_OLDEST("drop-oldest") {
+        @Override
+        boolean makeRoom(InMemoryQueue queue, long releaseCount, long deadlineNanos) {
+            return queue.dropOldest();
+        }
+    };
+
+    public static final String OVERFLOW_POLICY_KEY = "sqs.memory.overflow.policy";
+    public static final String BLOCK_MILLIS_KEY = "sqs.memory.overflow.block.ms";
+    static final long DEFAULT_BLOCK_MILLIS = 1000;
+
+    private final String name;
+
+    OverflowPolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Called after the message didn't fit
+     *
+     * @param releaseCount {@link MemoryUsage#releaseCount()} taken before the failed attempt
+     * @return true if sending should be retried
+     */
+    abstract boolean makeRoom(InMemoryQueue queue, long releaseCount, long deadlineNanos) throws InterruptedException;
+
+    public static OverflowPolicy fromProperties(Properties props) {
+        String name = MemoryProperties.getString(props, OVERFLOW_POLICY_KEY, REJECT.name);
+        for (OverflowPolicy policy : values()) {
+            if (policy.name.equals(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalStateException("Unknown overflow policy: " + name);
+    }
+}
@@ -0,0 +1,129 @@
+package com.canva.sqs.local.memory;
+
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Bounded multi-producer multi-consumer ring buffer, slots are preallocated once.
+ * <p>
+ * Producers and consumers claim positions by CAS on their own {@link Sequence}.
+ * Every slot has a sequence of its own: it equals the position when the slot is free for the producer of that position
+ * and {@code position + 1} when it is published for the consumer of that position.
+ * Consumer frees the slot for the producer of the next lap by setting it to {@code position + capacity}.
+ * So producers and consumers touch shared state only to claim a position, nothing is allocated per message.
+ * <p>
+ * Expired inflight messages can't be put before the head of the ring, they go to a separate redelivery deque
+ * that is polled first. Redelivery is rare, so the deque is empty and cheap to poll most of the time.
+ *
+ * @author Alexander Pronin
+ * @see MemoryEngine#RING
+ * @since 18/10/2026
+ */
+@ThreadSafe
+class RingMessageBuffer implements MessageBuffer {
+    private final StoredMessage[] slots;
+    private final AtomicLongArray published;
+    private final int mask;
+
+    private final Sequence head = new Sequence();
+    private final Sequence tail = new Sequence();
+
+    private final ConcurrentLinkedDeque<StoredMessage> redelivered = new ConcurrentLinkedDeque<>();
+
+    /**
+     * @param capacity rounded up to the power of two
+     */
+    RingMessageBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new StoredMessage[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    @Override
+    public boolean offer(StoredMessage message) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long difference = published.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = message;
+                    published.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // slot still holds a message of the previous lap
+                return false;
+            }
+            // otherwise another producer has claimed the position
+        }
+    }
+
+    @Override
+    public StoredMessage poll() {
+        StoredMessage message = redelivered.poll();
+        if (message != null) {
+            return message;
+        }
+        while (true) {
+            long position = head.get();
+            int index = (int) (position & mask);
+            long difference = published.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    message = slots[index];
+                    slots[index] = null;
+                    published.lazySet(index, position + slots.length);
+                    return message;
+                }
+            } else if (difference < 0) {
+                // producer of the position hasn't published yet
+                return null;
+            }
+            // otherwise another consumer has claimed the position
+        }
+    }
+
+    @Override
+    public void redeliver(StoredMessage message) {
+        redelivered.addFirst(message);
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    private static class LeftPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class Value extends LeftPadding {
+        protected volatile long value;
+    }
+
+    private static class RightPadding extends Value {
+        protected long p9, p10, p11, p12, p13, p14, p15;
+    }
+
+    /**
+     * Position counter padded to a cache line of its own, so head and tail don't false share
+     */
+    private static final class Sequence extends RightPadding {
+        private static final AtomicLongFieldUpdater<Value> VALUE = AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+        long get() {
+            return value;
+        }
+
+        boolean compareAndSet(long expected, long updated) {
+            return VALUE.compareAndSet(this, expected, updated);
+        }
+    }
+}
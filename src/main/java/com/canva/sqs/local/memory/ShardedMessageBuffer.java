@@ -0,0 +1,57 @@
+package com.canva.sqs.local.memory;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Buffer split into independent shards, so that concurrent producers and consumers of a hot queue
+ * mostly touch different heads and tails.
+ * <p>
+ * Every thread has a home shard chosen by its id: it sends to the home shard and receives from it first,
+ * then steals from the other shards in turn. Sending to a full shard falls back to the others as well.
+ * Order is relaxed: messages of a single producer keep their order within its shard,
+ * messages of different producers may be received in any order. Standard SQS gives best-effort order only.
+ *
+ * @author Alexander Pronin
+ * @see MemoryEngine
+ * @since 18/10/2026
+ */
+@ThreadSafe
+class ShardedMessageBuffer implements MessageBuffer {
+    private final MessageBuffer[] shards;
+
+    ShardedMessageBuffer(MessageBuffer[] shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public boolean offer(StoredMessage message) {
+        int home = home();
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[(home + i) % shards.length].offer(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public StoredMessage poll() {
+        int home = home();
+        for (int i = 0; i < shards.length; i++) {
+            StoredMessage message = shards[(home + i) % shards.length].poll();
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void redeliver(StoredMessage message) {
+        shards[home()].redeliver(message);
+    }
+
+    private int home() {
+        return (int) (Thread.currentThread().getId() % shards.length);
+    }
+}
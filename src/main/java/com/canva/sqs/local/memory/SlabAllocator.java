@@ -0,0 +1,232 @@
+package com.canva.sqs.local.memory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Arena of direct memory for message bodies of {@link BodyStorage#OFF_HEAP}.
+ * <p>
+ * Memory is reserved in slabs of {@value #SLAB_BYTES_KEY} bytes, every slab is cut into chunks of a single
+ * size class: powers of two from {@value #MIN_CHUNK_BYTES} to {@value #MAX_CHUNK_BYTES} bytes.
+ * Body takes the smallest chunk it fits into, so at most half of a chunk is wasted.
+ * Freed chunk goes to the free list of its slab and is reused by the next allocation at once.
+ * Allocation takes a chunk of the lowest slab that has one, so that chunks of higher slabs drain.
+ * Slab whose chunks are all free, e.g. once its queue is deleted, is released, except
+ * {@value #MAX_SPARE_SLABS} spare slab per size class kept, so that a queue going empty and back
+ * does not reserve direct memory again.
+ * <p>
+ * Chunk is referred to by a long: size class, slab index and offset within the slab.
+ * Strings are coded through a per-thread scratch array and copied to and from chunks in bulk,
+ * the only allocation is the string being read.
+ *
+ * @author Alexander Pronin
+ * @see StoredMessage
+ * @since 18/10/2026
+ */
+@ThreadSafe
+public class SlabAllocator {
+    public static final String SLAB_BYTES_KEY = "sqs.memory.offheap.slab.bytes";
+    private static final long DEFAULT_SLAB_BYTES = 1 << 20;
+    static final int MIN_CHUNK_BYTES = 64;
+    static final int MAX_CHUNK_BYTES = 64 * 1024;
+    /**
+     * Returned for a body larger than the largest chunk
+     */
+    static final long TOO_LARGE = -1;
+    private static final int MAX_SPARE_SLABS = 1;
+
+    private static final int MIN_CHUNK_BITS = Integer.numberOfTrailingZeros(MIN_CHUNK_BYTES);
+    private static final int MAX_CHUNK_BITS = Integer.numberOfTrailingZeros(MAX_CHUNK_BYTES);
+
+    private static final ThreadLocal<CharsetEncoder> ENCODER =
+            ThreadLocal.withInitial(StandardCharsets.UTF_8::newEncoder);
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[MAX_CHUNK_BYTES]);
+    // string fits into a chunk, so it has no more chars than the chunk has bytes
+    private static final ThreadLocal<char[]> CHARS_SCRATCH = ThreadLocal.withInitial(() -> new char[MAX_CHUNK_BYTES]);
+
+    private final SizeClass[] sizeClasses = new SizeClass[MAX_CHUNK_BITS - MIN_CHUNK_BITS + 1];
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    SlabAllocator(Properties props) {
+        int slabBytes = (int) MemoryProperties.getLong(props, SLAB_BYTES_KEY, DEFAULT_SLAB_BYTES);
+        for (int i = 0; i < sizeClasses.length; i++) {
+            int chunkBytes = MIN_CHUNK_BYTES << i;
+            sizeClasses[i] = new SizeClass(i, chunkBytes, Math.max(chunkBytes, slabBytes - slabBytes % chunkBytes));
+        }
+    }
+
+    /**
+     * @return chunk to keep the given number of bytes in or {@link #TOO_LARGE}
+     */
+    long allocate(int length) {
+        if (length > MAX_CHUNK_BYTES) {
+            return TOO_LARGE;
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(MIN_CHUNK_BYTES, length) - 1);
+        SizeClass sizeClass = sizeClasses[bits - MIN_CHUNK_BITS];
+        long chunk = sizeClass.allocate();
+        usedBytes.addAndGet(sizeClass.chunkBytes);
+        return chunk;
+    }
+
+    /**
+     * @param length UTF-8 length of the string, chunk must be allocated for it
+     */
+    void writeUtf8(long chunk, String src, int length) {
+        // encoder is several times faster on array backed buffers than on a string or direct memory
+        char[] chars = CHARS_SCRATCH.get();
+        src.getChars(0, src.length(), chars, 0);
+        byte[] bytes = SCRATCH.get();
+        ByteBuffer encoded = ByteBuffer.wrap(bytes, 0, length);
+        CharsetEncoder encoder = ENCODER.get().reset();
+        encoder.encode(CharBuffer.wrap(chars, 0, src.length()), encoded, true);
+        encoder.flush(encoded);
+
+        ByteBuffer dst = slab(chunk).duplicate();
+        dst.position(offset(chunk));
+        dst.put(bytes, 0, length);
+    }
+
+    String readUtf8(long chunk, int length) {
+        ByteBuffer src = slab(chunk).duplicate();
+        src.position(offset(chunk));
+        byte[] bytes = SCRATCH.get();
+        src.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    void free(long chunk) {
+        SizeClass sizeClass = sizeClasses[sizeClass(chunk)];
+        sizeClass.free(chunk);
+        usedBytes.addAndGet(-sizeClass.chunkBytes);
+    }
+
+    /**
+     * @return direct memory taken by slabs
+     */
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * @return direct memory taken by allocated chunks
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    private ByteBuffer slab(long chunk) {
+        return sizeClasses[sizeClass(chunk)].slabs[(int) (chunk >>> 32) & 0xFFFFFF];
+    }
+
+    private static int sizeClass(long chunk) {
+        return (int) (chunk >>> 56);
+    }
+
+    private static int offset(long chunk) {
+        return (int) chunk;
+    }
+
+    private class SizeClass {
+        private final int index;
+        private final int chunkBytes;
+        private final int slabBytes;
+        private final int chunksPerSlab;
+
+        // replaced whenever a slab is added or released, so readers see every slab created before the chunk they read
+        private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+        // guarded by this
+        // slab index -> indexes of its free chunks, released slab has none
+        private int[][] free = new int[0][];
+        private int[] freeCounts = new int[0];
+        // slabs with free chunks, the lowest one is allocated from, so that higher ones drain
+        private final BitSet available = new BitSet();
+        private int spareSlabs;
+
+        SizeClass(int index, int chunkBytes, int slabBytes) {
+            this.index = index;
+            this.chunkBytes = chunkBytes;
+            this.slabBytes = slabBytes;
+            this.chunksPerSlab = slabBytes / chunkBytes;
+        }
+
+        synchronized long allocate() {
+            int slab = available.nextSetBit(0);
+            if (slab < 0) {
+                slab = addSlab();
+            }
+            if (freeCounts[slab] == chunksPerSlab) {
+                spareSlabs--;
+            }
+            int chunkIndex = free[slab][--freeCounts[slab]];
+            if (freeCounts[slab] == 0) {
+                available.clear(slab);
+            }
+            return ((long) index << 56) | ((long) slab << 32) | ((long) chunkIndex * chunkBytes);
+        }
+
+        synchronized void free(long chunk) {
+            int slab = (int) (chunk >>> 32) & 0xFFFFFF;
+            free[slab][freeCounts[slab]++] = offset(chunk) / chunkBytes;
+            available.set(slab);
+            if (freeCounts[slab] == chunksPerSlab) {
+                if (spareSlabs < MAX_SPARE_SLABS) {
+                    spareSlabs++;
+                } else {
+                    releaseSlab(slab);
+                }
+            }
+        }
+
+        /**
+         * @return index of the new slab, index of a released slab is reused
+         */
+        private int addSlab() {
+            int slab = 0;
+            while (slab < free.length && free[slab] != null) {
+                slab++;
+            }
+            ByteBuffer[] grown = Arrays.copyOf(slabs, Math.max(slabs.length, slab + 1));
+            grown[slab] = ByteBuffer.allocateDirect(slabBytes);
+            slabs = grown;
+            reservedBytes.addAndGet(slabBytes);
+
+            if (slab == free.length) {
+                free = Arrays.copyOf(free, slab + 1);
+                freeCounts = Arrays.copyOf(freeCounts, slab + 1);
+            }
+            int[] chunks = new int[chunksPerSlab];
+            // lowest offsets on top, so a fresh slab is filled in order
+            for (int i = 0; i < chunksPerSlab; i++) {
+                chunks[i] = chunksPerSlab - 1 - i;
+            }
+            free[slab] = chunks;
+            freeCounts[slab] = chunksPerSlab;
+            available.set(slab);
+            spareSlabs++;
+            return slab;
+        }
+
+        /**
+         * Drops the slab whose chunks are all free, its memory is reclaimed by GC
+         */
+        private void releaseSlab(int slab) {
+            ByteBuffer[] remaining = slabs.clone();
+            remaining[slab] = null;
+            slabs = remaining;
+            reservedBytes.addAndGet(-slabBytes);
+
+            free[slab] = null;
+            freeCounts[slab] = 0;
+            available.clear(slab);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.canva.sqs.local.memory;
+
+import com.google.common.base.Utf8;
+
+/**
+ * Message held by {@link InMemoryQueue}: id and body only.
+ * {@link com.canva.sqs.local.ReceivedMessage} is created once the message is returned to a consumer.
+ *
+ * @author Alexander Pronin
+ * @see BodyStorage
+ * @since 18/10/2026
+ */
+abstract class StoredMessage {
+    private final String messageId;
+
+    StoredMessage(String messageId) {
+        this.messageId = messageId;
+    }
+
+    String getMessageId() {
+        return messageId;
+    }
+
+    abstract String getBody();
+
+    /**
+     * @return body bytes accounted in {@link MemoryUsage}
+     */
+    abstract long size();
+
+    /**
+     * Releases memory of the body, message must not be used after it
+     */
+    void free() {
+    }
+
+    /**
+     * Body is kept as is
+     */
+    static class HeapMessage extends StoredMessage {
+        private final String body;
+        private final int size;
+
+        HeapMessage(String messageId, String body) {
+            super(messageId);
+            this.body = body;
+            this.size = body == null ? 0 : Utf8.encodedLength(body);
+        }
+
+        @Override
+        String getBody() {
+            return body;
+        }
+
+        @Override
+        long size() {
+            return size;
+        }
+    }
+
+    /**
+     * UTF-8 body is kept in a chunk of {@link SlabAllocator}
+     */
+    static class OffHeapMessage extends StoredMessage {
+        private final SlabAllocator slabs;
+        private final long chunk;
+        private final int length;
+
+        OffHeapMessage(String messageId, SlabAllocator slabs, long chunk, int length) {
+            super(messageId);
+            this.slabs = slabs;
+            this.chunk = chunk;
+            this.length = length;
+        }
+
+        @Override
+        String getBody() {
+            return slabs.readUtf8(chunk, length);
+        }
+
+        @Override
+        long size() {
+            return length;
+        }
+
+        @Override
+        void free() {
+            slabs.free(chunk);
+        }
+    }
+}
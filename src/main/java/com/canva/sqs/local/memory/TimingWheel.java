@@ -0,0 +1,178 @@
+package com.canva.sqs.local.memory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hierarchical timing wheel: O(1) scheduling and cancellation of timeouts, amortized O(1) expiration.
+ * <p>
+ * Time is split into ticks of fixed duration. Level {@code k} of the wheel has {@value #SLOTS} slots
+ * of {@code SLOTS^k} ticks each, timeout is put into the lowest level whose range covers its delay.
+ * Once a lower level completes its round, the current slot of the next level is cascaded down,
+ * so every timeout is moved at most once per level before it expires.
+ * <p>
+ * Slots are intrusive doubly-linked lists, cancelled timeout is unlinked immediately
+ * and costs nothing when its slot expires.
+ * Timeouts expire with tick precision, never earlier than requested.
+ * <p>
+ * Wheel has no thread of its own, owner calls {@link #advance(long)} periodically.
+ * Expired tasks are run by the advancing thread outside of the wheel's lock.
+ *
+ * @author Alexander Pronin
+ * @see InMemoryQueue
+ * @since 18/10/2026
+ */
+@ThreadSafe
+class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    // 64^6 ticks is decades even for a millisecond tick
+    private static final int LEVELS = 6;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Slot[][] slots = new Slot[LEVELS][SLOTS];
+
+    // guarded by this
+    private long currentTick;
+    private int size;
+
+    TimingWheel(long tickMillis, long nowNanos) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.startNanos = nowNanos;
+        for (Slot[] level : slots) {
+            for (int i = 0; i < SLOTS; i++) {
+                level[i] = new Slot();
+            }
+        }
+    }
+
+    /**
+     * Schedules task to be run once delay expires
+     *
+     * @return handle to cancel the task with
+     */
+    synchronized Timeout schedule(Runnable task, long delayMillis) {
+        long delayTicks = (TimeUnit.MILLISECONDS.toNanos(delayMillis) + tickNanos - 1) / tickNanos;
+        // current tick is partially elapsed, one more tick makes sure the task doesn't run earlier
+        Timeout timeout = new Timeout(task, currentTick + Math.max(1, delayTicks) + 1);
+        insert(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Runs tasks of all timeouts expired by the given time in the current thread.
+     */
+    void advance(long nowNanos) {
+        List<Runnable> expired = new ArrayList<>();
+        synchronized (this) {
+            long targetTick = (nowNanos - startNanos) / tickNanos;
+            while (currentTick < targetTick && size > 0) {
+                currentTick++;
+                cascade();
+                Slot slot = slots[0][(int) (currentTick & SLOT_MASK)];
+                for (Timeout timeout = slot.head; timeout != null; timeout = slot.head) {
+                    slot.unlink(timeout);
+                    expired.add(timeout.task);
+                    size--;
+                }
+            }
+            // nothing to expire, skip empty ticks at once
+            currentTick = Math.max(currentTick, targetTick);
+        }
+        expired.forEach(Runnable::run);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Moves timeouts of higher levels that are due within the next round of the lower level down
+     */
+    private void cascade() {
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                Slot slot = slots[level][(int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK)];
+                for (Timeout timeout = slot.head; timeout != null; timeout = slot.head) {
+                    slot.unlink(timeout);
+                    insert(timeout);
+                }
+            }
+        }
+    }
+
+    private void insert(Timeout timeout) {
+        long remaining = timeout.deadlineTick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && remaining >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        long deadline = Math.min(timeout.deadlineTick, currentTick + (1L << (SLOT_BITS * LEVELS)) - 1);
+        slots[level][(int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK)].link(timeout);
+    }
+
+    /**
+     * Scheduled task. Cancellation is O(1) and idempotent.
+     */
+    class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        // guarded by the wheel
+        private Slot slot;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Removes task from the wheel. Does nothing if task has already expired.
+         */
+        void cancel() {
+            synchronized (TimingWheel.this) {
+                if (slot != null) {
+                    slot.unlink(this);
+                    size--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Doubly-linked list of timeouts
+     */
+    private static class Slot {
+        private Timeout head;
+
+        void link(Timeout timeout) {
+            timeout.slot = this;
+            timeout.prev = null;
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            head = timeout;
+        }
+
+        void unlink(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.slot = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+}
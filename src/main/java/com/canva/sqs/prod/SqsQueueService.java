@@ -1,11 +1,24 @@
 package com.canva.sqs.prod;
 
-import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClient;
 import com.amazonaws.services.sqs.model.*;
+import com.canva.sqs.AsyncQueueService;
 import com.canva.sqs.QueueService;
 
-public class SqsQueueService implements QueueService {
-    private final AmazonSQSClient sqsClient;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+/**
+ * Blocking operations use the async client as a plain one,
+ * asynchronous operations are bridged from its callbacks to {@link CompletableFuture}.
+ * Long polling receive holds a thread of the client's executor while it waits, the same as any request does.
+ */
+public class SqsQueueService implements QueueService, AsyncQueueService {
+    private final AmazonSQSAsyncClient sqsClient;
 
     //
     // Task 4: Optionally implement parts of me.
@@ -16,21 +29,51 @@ public class SqsQueueService implements QueueService {
     //
     public SqsQueueService() {
         System.out.println("I'm alive Master");
-        this.sqsClient = new AmazonSQSClient();
+        this.sqsClient = new AmazonSQSAsyncClient();
     }
 
     public SendMessageResult sendMessage(String queueUrl, String messageBody) {
         return sqsClient.sendMessage(queueUrl, messageBody);
     }
 
+    @Override
+    public SendMessageBatchResult sendMessageBatch(String queueUrl, List<SendMessageBatchRequestEntry> entries) {
+        return sqsClient.sendMessageBatch(queueUrl, entries);
+    }
+
     public ReceiveMessageResult receiveMessage(String queueUrl) {
         return sqsClient.receiveMessage(queueUrl);
     }
 
+    @Override
+    public ReceiveMessageResult receiveMessage(String queueUrl, int maxNumberOfMessages, int visibilityTimeoutSeconds,
+                                               int waitTimeSeconds) {
+        return sqsClient.receiveMessage(
+                receiveRequest(queueUrl, maxNumberOfMessages, visibilityTimeoutSeconds, waitTimeSeconds));
+    }
+
+    private static ReceiveMessageRequest receiveRequest(String queueUrl, int maxNumberOfMessages,
+                                                        int visibilityTimeoutSeconds, int waitTimeSeconds) {
+        ReceiveMessageRequest request = new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(maxNumberOfMessages);
+        if (visibilityTimeoutSeconds != DEFAULT_VISIBILITY_TIMEOUT) {
+            request.setVisibilityTimeout(visibilityTimeoutSeconds);
+        }
+        // zero is not sent, so that ReceiveMessageWaitTimeSeconds of the queue still applies
+        if (waitTimeSeconds > 0) {
+            request.setWaitTimeSeconds(waitTimeSeconds);
+        }
+        return request;
+    }
+
     public void deleteMessage(String queueUrl, String receiptHandle) {
         sqsClient.deleteMessage(queueUrl, receiptHandle);
     }
 
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(String queueUrl, List<DeleteMessageBatchRequestEntry> entries) {
+        return sqsClient.deleteMessageBatch(queueUrl, entries);
+    }
+
     @Override
     public CreateQueueResult createQueue(String queueName) {
         return sqsClient.createQueue(queueName);
@@ -55,4 +98,54 @@ public class SqsQueueService implements QueueService {
     public void invalidateNow(String queueUrl, String receiptHandle) {
 
     }
+
+    @Override
+    public CompletableFuture<SendMessageResult> sendMessageAsync(String queueUrl, String messageBody) {
+        return call(sqsClient::sendMessageAsync, new SendMessageRequest(queueUrl, messageBody));
+    }
+
+    @Override
+    public CompletableFuture<SendMessageBatchResult> sendMessageBatchAsync(String queueUrl,
+                                                                           List<SendMessageBatchRequestEntry> entries) {
+        return call(sqsClient::sendMessageBatchAsync, new SendMessageBatchRequest(queueUrl, entries));
+    }
+
+    @Override
+    public CompletableFuture<ReceiveMessageResult> receiveMessageAsync(String queueUrl, int maxNumberOfMessages,
+                                                                       int visibilityTimeoutSeconds,
+                                                                       int waitTimeSeconds) {
+        return call(sqsClient::receiveMessageAsync,
+                receiveRequest(queueUrl, maxNumberOfMessages, visibilityTimeoutSeconds, waitTimeSeconds));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteMessageAsync(String queueUrl, String receiptHandle) {
+        return call(sqsClient::deleteMessageAsync, new DeleteMessageRequest(queueUrl, receiptHandle));
+    }
+
+    @Override
+    public CompletableFuture<DeleteMessageBatchResult> deleteMessageBatchAsync(
+            String queueUrl, List<DeleteMessageBatchRequestEntry> entries) {
+        return call(sqsClient::deleteMessageBatchAsync, new DeleteMessageBatchRequest(queueUrl, entries));
+    }
+
+    /**
+     * Completes the future from the callback of the async client, in its thread
+     */
+    private static <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> call(
+            BiFunction<Q, AsyncHandler<Q, R>, Future<R>> operation, Q request) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        operation.apply(request, new AsyncHandler<Q, R>() {
+            @Override
+            public void onError(Exception exception) {
+                future.completeExceptionally(exception);
+            }
+
+            @Override
+            public void onSuccess(Q ignored, R result) {
+                future.complete(result);
+            }
+        });
+        return future;
+    }
 }
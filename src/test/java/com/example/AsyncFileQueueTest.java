@@ -0,0 +1,81 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.canva.sqs.BlockingQueueService;
+import com.canva.sqs.QueueService;
+import com.canva.sqs.local.filesystem.FileQueueService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.filesystem.FileQueueService.ASYNC_THREADS_KEY;
+import static com.canva.sqs.local.filesystem.FileQueueService.SQS_QUEUES_DIR_KEY;
+import static com.canva.sqs.local.memory.InMemoryQueue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * File based tests through asynchronous operations and {@link BlockingQueueService},
+ * file I/O runs on a single thread
+ */
+public class AsyncFileQueueTest extends TestCases {
+    private Path tempDirectory;
+    private FileQueueService async;
+
+    @Before
+    public void init() throws IOException {
+        tempDirectory = Files.createTempDirectory("sqs_tests");
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        props.setProperty(SQS_QUEUES_DIR_KEY, tempDirectory.toString());
+        props.setProperty(ASYNC_THREADS_KEY, "1");
+        async = new FileQueueService(props);
+        service = new BlockingQueueService(async, async);
+        CreateQueueResult queue = service.createQueue("queueName");
+        queueUrl = queue.getQueueUrl();
+    }
+
+    @Test
+    public void testWaitingReceiversDontHoldIoThreads() throws Exception {
+        List<CompletableFuture<ReceiveMessageResult>> receives = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            receives.add(async.receiveMessageAsync(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10));
+        }
+        Thread.sleep(200);
+        assertTrue(receives.stream().noneMatch(CompletableFuture::isDone));
+
+        async.sendMessageAsync(queueUrl, "body").get(2, TimeUnit.SECONDS);
+        CompletableFuture.anyOf(receives.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        long received = receives.stream()
+                .filter(CompletableFuture::isDone)
+                .filter(receive -> !receive.join().getMessages().isEmpty())
+                .count();
+        assertEquals(1, received);
+    }
+
+    @After
+    public void cleanup() {
+        async.close();
+        try {
+            Files.walk(tempDirectory, FileVisitOption.FOLLOW_LINKS)
+                    .sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.canva.sqs.BlockingQueueService;
+import com.canva.sqs.QueueService;
+import com.canva.sqs.local.memory.InMemoryQueueService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.memory.InMemoryQueue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * In-memory tests through asynchronous operations and {@link BlockingQueueService}
+ */
+public class AsyncInMemoryQueueTest extends TestCases {
+    private InMemoryQueueService async;
+
+    @Before
+    public void init() {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        async = new InMemoryQueueService(props);
+        service = new BlockingQueueService(async, async);
+        CreateQueueResult queue = service.createQueue("queueName");
+        queueUrl = queue.getQueueUrl();
+    }
+
+    @After
+    public void closeService() {
+        async.close();
+    }
+
+    @Test
+    public void testLongPollingReceiversTakeNoThreads() throws Exception {
+        List<CompletableFuture<ReceiveMessageResult>> receives = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            receives.add(async.receiveMessageAsync(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10));
+        }
+        Thread.sleep(100);
+        assertTrue(receives.stream().noneMatch(CompletableFuture::isDone));
+
+        for (int i = 0; i < 100; i++) {
+            async.sendMessageAsync(queueUrl, "body" + i).get(1, TimeUnit.SECONDS);
+        }
+        Set<String> bodies = new HashSet<>();
+        for (CompletableFuture<ReceiveMessageResult> receive : receives) {
+            bodies.add(receive.get(5, TimeUnit.SECONDS).getMessages().get(0).getBody());
+        }
+        assertEquals(100, bodies.size());
+    }
+
+    @Test
+    public void testLongPollingReceiveCompletesEmptyAfterWaitTime() throws Exception {
+        CompletableFuture<ReceiveMessageResult> receive =
+                async.receiveMessageAsync(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 1);
+        assertFalse(receive.isDone());
+        assertTrue(receive.get(5, TimeUnit.SECONDS).getMessages().isEmpty());
+    }
+
+    @Test
+    public void testWokenReceiveGoesOnInServiceThread() throws Exception {
+        CompletableFuture<String> receivingThread = async
+                .receiveMessageAsync(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10)
+                .thenApply(result -> Thread.currentThread().getName());
+        Thread.sleep(100);
+        async.sendMessage(queueUrl, "body");
+        assertEquals("sqs-memory-arrivals", receivingThread.get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> expiredThread = async
+                .receiveMessageAsync(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 1)
+                .thenApply(result -> Thread.currentThread().getName());
+        assertEquals("sqs-memory-arrivals", expiredThread.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCloseReleasesLongPollingReceivers() throws Exception {
+        CompletableFuture<ReceiveMessageResult> receive =
+                async.receiveMessageAsync(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 20);
+        Thread.sleep(100);
+        assertFalse(receive.isDone());
+
+        async.close();
+        assertTrue(receive.get(5, TimeUnit.SECONDS).getMessages().isEmpty());
+    }
+
+    @Test
+    public void testInvalidArgumentsFailTheFuture() throws Exception {
+        CompletableFuture<ReceiveMessageResult> receive =
+                async.receiveMessageAsync(queueUrl, 0, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 0);
+        try {
+            receive.get(1, TimeUnit.SECONDS);
+            fail("Max number of messages is out of limits");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+}
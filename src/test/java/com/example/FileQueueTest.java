@@ -2,7 +2,15 @@ package com.example;
 
 import com.amazonaws.services.sqs.model.CreateQueueResult;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.canva.sqs.QueueService;
+import com.canva.sqs.local.filesystem.FileDurability;
+import com.canva.sqs.local.filesystem.FileHandleCache;
+import com.canva.sqs.local.filesystem.FileIdsGenerator;
+import com.canva.sqs.local.filesystem.FileQueueCompactor;
 import com.canva.sqs.local.filesystem.FileQueueService;
+import com.canva.sqs.local.filesystem.GlobalCloseableLock;
+import com.canva.sqs.local.filesystem.MessageRecord;
+import com.canva.sqs.local.filesystem.SynchronizedFileReaderWriter;
 import com.google.common.collect.testing.Helpers;
 import org.junit.After;
 import org.junit.Before;
@@ -14,13 +22,25 @@ import java.io.IOException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import static com.canva.sqs.local.filesystem.FileDescriptor.SEMAPHORE;
 import static com.canva.sqs.local.filesystem.FileQueueService.SQS_QUEUES_DIR_KEY;
 import static com.canva.sqs.local.memory.InMemoryQueue.INFLIGHT_TIMEOUT_SECONDS_KEY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class FileQueueTest extends TestCases {
 
@@ -71,8 +91,255 @@ public class FileQueueTest extends TestCases {
         );
     }
 
+    @Test
+    public void testReceiveLegacyRecordWithBodyFile() throws IOException {
+        Files.write(Paths.get(queueUrl, "messages"), Collections.singletonList("42:0:null"));
+        Files.write(Paths.get(queueUrl, "messages.42"), "legacy body".getBytes());
+        service.sendMessage(queueUrl, "packed body");
+
+        assertEquals("legacy body", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        assertEquals("packed body", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testCompactionReclaimsBodyOfDeletedMessage() throws IOException {
+        Files.write(Paths.get(queueUrl, "messages"), Collections.singletonList("42:0:null"));
+        Files.write(Paths.get(queueUrl, "messages.42"), "legacy body".getBytes());
+        FileQueueCompactor compactor = ((FileQueueService) service).getCompactor();
+
+        String receiptHandle = service.receiveMessage(queueUrl).getMessages().get(0).getReceiptHandle();
+        compactor.compact();
+        assertTrue(Files.exists(Paths.get(queueUrl, "messages.42")));
+
+        service.deleteMessage(queueUrl, receiptHandle);
+        compactor.compact();
+        compactor.compact();
+        assertFalse(Files.exists(Paths.get(queueUrl, "messages.42")));
+        assertEquals("legacy body".length(), compactor.getBytesReclaimed());
+    }
+
+    @Test
+    public void testOpenFilesAreBounded() {
+        FileHandleCache.getInstance().setMaxOpenFiles(16);
+        try {
+            for (int i = 0; i < 10; i++) {
+                String url = service.createQueue("queue" + i).getQueueUrl();
+                service.sendMessage(url, "body" + i);
+                assertEquals("body" + i, service.receiveMessage(url).getMessages().get(0).getBody());
+            }
+            assertTrue(FileHandleCache.getInstance().getOpenFiles() <= 16);
+        } finally {
+            FileHandleCache.getInstance().setMaxOpenFiles(1024);
+        }
+    }
+
+    @Test
+    public void testDeleteQueueClosesItsFiles() {
+        service.sendMessage(queueUrl, "body");
+        int openFiles = FileHandleCache.getInstance().getOpenFiles();
+
+        service.deleteQueue(queueUrl);
+        assertTrue(FileHandleCache.getInstance().getOpenFiles() < openFiles);
+    }
+
+    @Test
+    public void testDeleteQueueWaitsForOperationsInFlight() throws Exception {
+        Thread deleter = new Thread(() -> service.deleteQueue(queueUrl));
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(SEMAPHORE.getPath(queueUrl).toString()).lockShared()) {
+            deleter.start();
+            deleter.join(200);
+            assertTrue(deleter.isAlive());
+            assertTrue(Files.exists(Paths.get(queueUrl)));
+        }
+        deleter.join(10_000);
+        assertFalse(deleter.isAlive());
+        assertFalse(Files.exists(Paths.get(queueUrl)));
+
+        // queue that does not exist anymore
+        service.deleteQueue(queueUrl);
+    }
+
+    @Test
+    public void testLeasedIdsAreUniqueAcrossGenerators() {
+        Path idsFile = Paths.get(queueUrl, "ids");
+        FileIdsGenerator first = new FileIdsGenerator(idsFile, 10);
+        FileIdsGenerator second = new FileIdsGenerator(idsFile, 10);
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 25; i++) {
+            assertTrue(ids.add(first.generateMessageId()));
+            assertTrue(ids.add(second.generateMessageId()));
+        }
+        // a new generator, e.g. after restart, starts after all leased ranges
+        assertEquals("60", new FileIdsGenerator(idsFile, 10).generateMessageId());
+    }
+
+    @Test
+    public void testLeaseIsNotUsedAfterIdsFileIsRecreated() throws IOException {
+        Path idsFile = Paths.get(queueUrl, "ids");
+        try (FileIdsGenerator generator = new FileIdsGenerator(idsFile, 10)) {
+            assertEquals("0", generator.generateRecipientHandlerId(null));
+
+            // another process deletes the queue and recreates it
+            Files.delete(idsFile);
+            try (FileIdsGenerator anotherProcess = new FileIdsGenerator(idsFile, 10)) {
+                Set<String> ids = new HashSet<>();
+                for (int i = 0; i < 5; i++) {
+                    assertTrue(ids.add(anotherProcess.generateRecipientHandlerId(null)));
+                    assertTrue(ids.add(generator.generateRecipientHandlerId(null)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIdsExceedIntegerRange() throws IOException {
+        Path idsFile = Paths.get(queueUrl, "ids");
+        Files.write(idsFile, Arrays.asList(String.valueOf(Integer.MAX_VALUE), "0"));
+        FileIdsGenerator generator = new FileIdsGenerator(idsFile, 1);
+
+        assertEquals(String.valueOf(Integer.MAX_VALUE), generator.generateMessageId());
+        assertEquals(String.valueOf(Integer.MAX_VALUE + 1L), generator.generateMessageId());
+    }
+
+    @Test
+    public void testGroupCommitReleasesConcurrentSenders() throws InterruptedException {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        props.setProperty(SQS_QUEUES_DIR_KEY, tempDirectory.toString());
+        props.setProperty(FileDurability.SQS_FILE_DURABILITY_KEY, "group");
+        props.setProperty(FileDurability.GROUP_COMMIT_OPERATIONS_KEY, "4");
+        try (FileQueueService durableService = new FileQueueService(props, clockMock)) {
+            Thread[] senders = new Thread[3];
+            for (int i = 0; i < senders.length; i++) {
+                senders[i] = new Thread(() -> {
+                    for (int j = 0; j < 10; j++) {
+                        durableService.sendMessage(queueUrl, "body");
+                    }
+                });
+                senders[i].start();
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            for (int i = 0; i < 30; i++) {
+                assertEquals("body", durableService.receiveMessage(queueUrl).getMessages().get(0).getBody());
+            }
+        }
+    }
+
+    @Test
+    public void testOperationsSyncThemselvesOnceGroupCommitIsClosed() {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        props.setProperty(SQS_QUEUES_DIR_KEY, tempDirectory.toString());
+        props.setProperty(FileDurability.SQS_FILE_DURABILITY_KEY, "group");
+        FileQueueService durableService = new FileQueueService(props, clockMock);
+        durableService.close();
+
+        durableService.sendMessage(queueUrl, "body");
+        assertEquals("body", durableService.receiveMessage(queueUrl).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testInflightExpiresAfterTimeoutSeconds() {
+        service.sendMessage(queueUrl, "body");
+        Mockito.when(clockMock.millis()).thenReturn(1000L);
+        service.receiveMessage(queueUrl);
+
+        Mockito.when(clockMock.millis()).thenReturn(1000L + 9_999);
+        Helpers.assertEmpty(service.receiveMessage(queueUrl).getMessages());
+        Mockito.when(clockMock.millis()).thenReturn(1000L + 10_001);
+        assertEquals("body", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testVisibilityTimeoutOverridesQueueTimeout() {
+        service.sendMessage(queueUrl, "short");
+        service.sendMessage(queueUrl, "long");
+        Mockito.when(clockMock.millis()).thenReturn(1000L);
+        service.receiveMessage(queueUrl, 1, 2);
+        service.receiveMessage(queueUrl, 1, 30);
+
+        Mockito.when(clockMock.millis()).thenReturn(1000L + 2_001);
+        assertEquals("short", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        Mockito.when(clockMock.millis()).thenReturn(1000L + 10_001);
+        Helpers.assertEmpty(service.receiveMessage(queueUrl).getMessages());
+        Mockito.when(clockMock.millis()).thenReturn(1000L + 30_001);
+        assertEquals("long", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testLongPollingReceiveIsWokenByExpiry() {
+        Mockito.when(clockMock.millis()).thenAnswer(invocation -> System.currentTimeMillis());
+        service.sendMessage(queueUrl, "expiring");
+        service.receiveMessage(queueUrl, 1, 1);
+
+        long start = System.nanoTime();
+        assertEquals("expiring", service.receiveMessage(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10)
+                .getMessages().get(0).getBody());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testLongPollingReceiveIsWokenBySendOfAnotherProcess() throws Exception {
+        // service of another process shares nothing with this one but queue files
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        props.setProperty(SQS_QUEUES_DIR_KEY, tempDirectory.toString());
+        try (FileQueueService anotherProcess = new FileQueueService(props, clockMock)) {
+            CompletableFuture<ReceiveMessageResult> receive = CompletableFuture.supplyAsync(
+                    () -> service.receiveMessage(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10));
+            Thread.sleep(200);
+            assertFalse(receive.isDone());
+
+            anotherProcess.sendMessage(queueUrl, "remote");
+            assertEquals("remote", receive.get(5, TimeUnit.SECONDS).getMessages().get(0).getBody());
+        }
+    }
+
+    @Test
+    public void testLongPollingReceiveRetriesWhenAnotherProcessChangesInflight() throws Exception {
+        Mockito.when(clockMock.millis()).thenAnswer(invocation -> System.currentTimeMillis());
+        service.sendMessage(queueUrl, "expiring");
+        service.receiveMessage(queueUrl, 1, 1);
+        service.sendMessage(queueUrl, "held");
+        String receiptHandle = service.receiveMessage(queueUrl, 1, 60).getMessages().get(0).getReceiptHandle();
+
+        long start = System.nanoTime();
+        CompletableFuture<ReceiveMessageResult> receive = CompletableFuture.supplyAsync(
+                () -> service.receiveMessage(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10));
+        Thread.sleep(200);
+        assertFalse(receive.isDone());
+
+        // another process modifies inflight file, then deletion of this process makes its index stale
+        SynchronizedFileReaderWriter.addMessageToEndOfFile(Collections.emptyList(), Paths.get(queueUrl, "inflight"));
+        service.deleteMessage(queueUrl, receiptHandle);
+
+        assertEquals("expiring", receive.get(5, TimeUnit.SECONDS).getMessages().get(0).getBody());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testInflightModifiedByAnotherProcess() {
+        service.sendMessage(queueUrl, "body");
+        Mockito.when(clockMock.millis()).thenReturn(100_000L);
+        service.receiveMessage(queueUrl);
+
+        // another process makes the message look received long ago
+        Path inflight = Paths.get(queueUrl, "inflight");
+        List<MessageRecord> records = SynchronizedFileReaderWriter.removeMessagesFromFile(inflight,
+                all -> all.stream().collect(Collectors.partitioningBy(record -> true)));
+        SynchronizedFileReaderWriter.addMessageToEndOfFile(records.stream()
+                .map(record -> record.withReceiptHandle(record.getReceiptHandle(), 0))
+                .collect(Collectors.toList()), inflight);
+
+        Mockito.when(clockMock.millis()).thenReturn(100_001L);
+        assertEquals("body", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+    }
+
     @After
     public void cleanup() {
+        ((FileQueueService) service).close();
         try {
             Files.walk(tempDirectory, FileVisitOption.FOLLOW_LINKS)
                     .sorted(Comparator.reverseOrder())
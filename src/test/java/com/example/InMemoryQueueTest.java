@@ -1,12 +1,42 @@
 package com.example;
 
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
 import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.OverLimitException;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.canva.sqs.QueueService;
 import com.canva.sqs.local.memory.InMemoryQueueService;
+import com.canva.sqs.local.memory.MemoryUsage;
+import com.google.common.collect.testing.Helpers;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+import static com.canva.sqs.local.memory.ExpiryScheduler.EXPIRY_TICK_MILLIS_KEY;
 import static com.canva.sqs.local.memory.InMemoryQueue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static com.canva.sqs.local.memory.MemoryUsage.QUEUE_MAX_MESSAGES_KEY;
+import static com.canva.sqs.local.memory.MemoryUsage.SERVICE_MAX_BYTES_KEY;
+import static com.canva.sqs.local.memory.OverflowPolicy.BLOCK_MILLIS_KEY;
+import static com.canva.sqs.local.memory.OverflowPolicy.OVERFLOW_POLICY_KEY;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class InMemoryQueueTest extends TestCases {
 
@@ -15,9 +45,252 @@ public class InMemoryQueueTest extends TestCases {
         Properties props = new Properties();
         String delay = String.valueOf(10);
         props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, delay);
+        configure(props);
         service = new InMemoryQueueService(props);
         String queueName = "queueName";
         CreateQueueResult queue = service.createQueue(queueName);
         queueUrl = queue.getQueueUrl();
     }
+
+    @After
+    public void closeService() {
+        ((InMemoryQueueService) service).close();
+    }
+
+    /**
+     * Lets subclasses run the same tests with different settings
+     */
+    protected void configure(Properties props) {
+    }
+
+    @Test
+    public void testInflightExpiresAfterTimeout() throws InterruptedException {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "1");
+        props.setProperty(EXPIRY_TICK_MILLIS_KEY, "10");
+        configure(props);
+        InMemoryQueueService service = new InMemoryQueueService(props);
+        String url = service.createQueue("expiring").getQueueUrl();
+        service.sendMessage(url, "expiring");
+        service.sendMessage(url, "deleted");
+        service.receiveMessage(url);
+        Message deleted = service.receiveMessage(url).getMessages().get(0);
+        service.deleteMessage(url, deleted.getReceiptHandle());
+
+        Thread.sleep(500);
+        Helpers.assertEmpty(service.receiveMessage(url).getMessages());
+        Thread.sleep(1000);
+        assertEquals("expiring", service.receiveMessage(url).getMessages().get(0).getBody());
+        Helpers.assertEmpty(service.receiveMessage(url).getMessages());
+        service.deleteQueue(url);
+    }
+
+    @Test
+    public void testVisibilityTimeoutOverridesQueueTimeout() throws InterruptedException {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        props.setProperty(EXPIRY_TICK_MILLIS_KEY, "10");
+        configure(props);
+        InMemoryQueueService service = new InMemoryQueueService(props);
+        String url = service.createQueue("expiring").getQueueUrl();
+        service.sendMessage(url, "short");
+        service.sendMessage(url, "long");
+        assertEquals("short", service.receiveMessage(url, 1, 1).getMessages().get(0).getBody());
+        assertEquals("long", service.receiveMessage(url).getMessages().get(0).getBody());
+
+        Thread.sleep(1500);
+        List<Message> received = service.receiveMessage(url, 10, 1).getMessages();
+        assertEquals(1, received.size());
+        assertEquals("short", received.get(0).getBody());
+        service.deleteQueue(url);
+    }
+
+    @Test
+    public void testLongPollingReceiveIsWokenByExpiry() {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        props.setProperty(EXPIRY_TICK_MILLIS_KEY, "10");
+        configure(props);
+        InMemoryQueueService service = new InMemoryQueueService(props);
+        String url = service.createQueue("expiring").getQueueUrl();
+        service.sendMessage(url, "expiring");
+        service.receiveMessage(url, 1, 1);
+
+        long start = System.nanoTime();
+        assertEquals("expiring", service.receiveMessage(url, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10)
+                .getMessages().get(0).getBody());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        service.deleteQueue(url);
+    }
+
+    @Test
+    public void testDeleteQueueWakesLongPollingReceivers() throws Exception {
+        CompletableFuture<List<Message>> receive = CompletableFuture.supplyAsync(() -> service.receiveMessage(
+                queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10).getMessages());
+        Thread.sleep(200);
+        service.deleteQueue(queueUrl);
+        Helpers.assertEmpty(receive.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testUsageIsTrackedOnEveryOperation() {
+        service.sendMessage(queueUrl, "12345");
+        service.sendMessage(queueUrl, "123");
+        Message received = service.receiveMessage(queueUrl).getMessages().get(0);
+        MemoryUsage usage = ((InMemoryQueueService) service).getUsage(queueUrl).get();
+        assertEquals(2, usage.getMessages());
+        assertEquals(8, usage.getBytes());
+        assertEquals(1, usage.getInflight());
+
+        service.invalidateNow(queueUrl, received.getReceiptHandle());
+        assertEquals(0, usage.getInflight());
+        received = service.receiveMessage(queueUrl).getMessages().get(0);
+        service.deleteMessage(queueUrl, received.getReceiptHandle());
+        assertEquals(1, usage.getMessages());
+        assertEquals(3, usage.getBytes());
+        assertEquals(0, usage.getInflight());
+        assertEquals(1, ((InMemoryQueueService) service).getUsage().getMessages());
+
+        service.deleteQueue(queueUrl);
+        assertEquals(0, ((InMemoryQueueService) service).getUsage().getMessages());
+        assertEquals(0, ((InMemoryQueueService) service).getUsage().getBytes());
+    }
+
+    @Test
+    public void testQueueLimitRejectsMessage() {
+        InMemoryQueueService service = limitedService(QUEUE_MAX_MESSAGES_KEY, "2", "reject");
+        String url = service.createQueue("limited").getQueueUrl();
+        String other = service.createQueue("other").getQueueUrl();
+        service.sendMessage(url, "first");
+        service.sendMessage(url, "second");
+        try {
+            service.sendMessage(url, "third");
+            fail("Queue is full");
+        } catch (OverLimitException e) {
+            assertEquals(1, service.getUsage(url).get().getRejected());
+        }
+        // limit is per queue
+        service.sendMessage(other, "third");
+        // inflight message holds memory until it is deleted
+        Message received = service.receiveMessage(url).getMessages().get(0);
+        try {
+            service.sendMessage(url, "third");
+            fail("Queue is full");
+        } catch (OverLimitException e) {
+            // expected
+        }
+        service.deleteMessage(url, received.getReceiptHandle());
+        service.sendMessage(url, "third");
+    }
+
+    @Test
+    public void testServiceLimitDropsOldestMessage() {
+        InMemoryQueueService service = limitedService(SERVICE_MAX_BYTES_KEY, "11", "drop-oldest");
+        String url = service.createQueue("limited").getQueueUrl();
+        service.sendMessage(url, "first");
+        service.sendMessage(url, "second");
+        service.sendMessage(url, "third");
+        assertEquals(1, service.getUsage(url).get().getDropped());
+        assertEquals("second", service.receiveMessage(url).getMessages().get(0).getBody());
+        assertEquals("third", service.receiveMessage(url).getMessages().get(0).getBody());
+
+        // both messages are inflight, nothing to drop
+        try {
+            service.sendMessage(url, "fourth");
+            fail("Service is full");
+        } catch (OverLimitException e) {
+            assertEquals(11, service.getUsage().getBytes());
+        }
+    }
+
+    @Test
+    public void testBlockedSenderProceedsOnceMessageIsDeleted() throws Exception {
+        InMemoryQueueService service = limitedService(QUEUE_MAX_MESSAGES_KEY, "1", "block");
+        String url = service.createQueue("limited").getQueueUrl();
+        service.sendMessage(url, "first");
+        Message received = service.receiveMessage(url).getMessages().get(0);
+
+        CompletableFuture<String> blocked = CompletableFuture.supplyAsync(
+                () -> service.sendMessage(url, "second").getMessageId());
+        Thread.sleep(100);
+        assertEquals(false, blocked.isDone());
+        service.deleteMessage(url, received.getReceiptHandle());
+        blocked.get();
+        assertEquals("second", service.receiveMessage(url).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testManyInflightMessagesAreDeletedInAnyOrder() {
+        List<Message> received = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            service.sendMessage(queueUrl, String.valueOf(i));
+            received.add(service.receiveMessage(queueUrl).getMessages().get(0));
+        }
+        Collections.shuffle(received, new Random(42));
+        for (Message message : received.subList(0, 500)) {
+            service.deleteMessage(queueUrl, message.getReceiptHandle());
+        }
+        for (Message message : received) {
+            service.invalidateNow(queueUrl, message.getReceiptHandle());
+        }
+        Set<String> redelivered = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            redelivered.add(service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        }
+        Helpers.assertEmpty(service.receiveMessage(queueUrl).getMessages());
+        assertEquals(received.subList(500, 1000).stream().map(Message::getBody).collect(toSet()), redelivered);
+    }
+
+    @Test
+    public void testBatchOverQueueLimitFailsTail() {
+        InMemoryQueueService service = limitedService(QUEUE_MAX_MESSAGES_KEY, "2", "reject");
+        String url = service.createQueue("limited").getQueueUrl();
+        service.sendMessage(url, "first");
+        SendMessageBatchResult result = service.sendMessageBatch(url, Arrays.asList(
+                new SendMessageBatchRequestEntry("a", "second"),
+                new SendMessageBatchRequestEntry("b", "third"),
+                new SendMessageBatchRequestEntry("c", "fourth")));
+        assertEquals(1, result.getSuccessful().size());
+        assertEquals("a", result.getSuccessful().get(0).getId());
+        assertEquals(Arrays.asList("b", "c"),
+                result.getFailed().stream().map(BatchResultErrorEntry::getId).collect(toList()));
+        assertEquals(2, service.getUsage(url).get().getMessages());
+        assertEquals(2, service.getUsage(url).get().getRejected());
+
+        // batch that fits is accounted at once
+        service.deleteQueue(url);
+        url = service.createQueue("limited").getQueueUrl();
+        assertEquals(2, service.sendMessageBatch(url, Arrays.asList(
+                new SendMessageBatchRequestEntry("a", "first"),
+                new SendMessageBatchRequestEntry("b", "second"))).getSuccessful().size());
+        assertEquals("first", service.receiveMessage(url).getMessages().get(0).getBody());
+        assertEquals("second", service.receiveMessage(url).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testBatchDeleteReleasesUsage() {
+        service.sendMessage(queueUrl, "12345");
+        service.sendMessage(queueUrl, "123");
+        List<Message> received = service.receiveMessage(queueUrl, 2, QueueService.DEFAULT_VISIBILITY_TIMEOUT)
+                .getMessages();
+        MemoryUsage usage = ((InMemoryQueueService) service).getUsage(queueUrl).get();
+        assertEquals(2, usage.getInflight());
+        service.deleteMessageBatch(queueUrl, received.stream()
+                .map(message -> new DeleteMessageBatchRequestEntry(message.getMessageId(), message.getReceiptHandle()))
+                .collect(toList()));
+        assertEquals(0, usage.getMessages());
+        assertEquals(0, usage.getBytes());
+        assertEquals(0, usage.getInflight());
+        assertEquals(0, ((InMemoryQueueService) service).getUsage().getMessages());
+    }
+
+    private InMemoryQueueService limitedService(String limitKey, String limit, String policy) {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        props.setProperty(limitKey, limit);
+        props.setProperty(OVERFLOW_POLICY_KEY, policy);
+        props.setProperty(BLOCK_MILLIS_KEY, "10000");
+        configure(props);
+        return new InMemoryQueueService(props);
+    }
 }
@@ -0,0 +1,154 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.canva.sqs.local.memory.InMemoryQueueService;
+import com.google.common.collect.Sets;
+import com.google.common.collect.testing.Helpers;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static com.canva.sqs.local.memory.InMemoryQueue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static com.canva.sqs.local.memory.MemoryJournal.FLUSH_MILLIS_KEY;
+import static com.canva.sqs.local.memory.MemoryJournal.JOURNAL_DIR_KEY;
+import static com.canva.sqs.local.memory.MemoryJournal.MAX_PENDING_KEY;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * In-memory tests with journaling enabled, every service gets its own journal directory
+ */
+public class JournaledQueueTest extends InMemoryQueueTest {
+    private final List<Path> journalDirs = new ArrayList<>();
+
+    @Override
+    protected void configure(Properties props) {
+        try {
+            Path dir = Files.createTempDirectory("sqs_journal_tests");
+            journalDirs.add(dir);
+            props.setProperty(JOURNAL_DIR_KEY, dir.toString());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testQueuesAreRestoredAfterRestart() {
+        Properties props = journaledProps();
+        InMemoryQueueService before = new InMemoryQueueService(props);
+        String url = before.createQueue("restored").getQueueUrl();
+        before.createQueue("deleted");
+        before.deleteQueue("deleted");
+        before.sendMessage(url, "inflight");
+        before.sendMessage(url, "deleted");
+        String visibleId = before.sendMessage(url, "visible").getMessageId();
+        Message inflight = before.receiveMessage(url).getMessages().get(0);
+        Message deleted = before.receiveMessage(url).getMessages().get(0);
+        before.deleteMessage(url, deleted.getReceiptHandle());
+        before.close();
+
+        InMemoryQueueService after = new InMemoryQueueService(props);
+        assertEquals(2, after.getJournal().getRestoredMessages());
+        assertEquals(1, after.listQueues().getQueueUrls().size());
+        assertEquals(2, after.getUsage(url).get().getMessages());
+        assertEquals(1, after.getUsage(url).get().getInflight());
+
+        Message visible = after.receiveMessage(url).getMessages().get(0);
+        assertEquals(visibleId, visible.getMessageId());
+        assertEquals("visible", visible.getBody());
+        Helpers.assertEmpty(after.receiveMessage(url).getMessages());
+
+        after.invalidateNow(url, inflight.getReceiptHandle());
+        Message redelivered = after.receiveMessage(url).getMessages().get(0);
+        assertEquals("inflight", redelivered.getBody());
+        assertNotEquals(inflight.getReceiptHandle(), redelivered.getReceiptHandle());
+        assertNotEquals(visibleId, after.sendMessage(url, "new").getMessageId());
+        after.deleteMessage(url, visible.getReceiptHandle());
+        after.deleteMessage(url, redelivered.getReceiptHandle());
+        assertEquals(1, after.getUsage(url).get().getMessages());
+        after.close();
+    }
+
+    @Test
+    public void testSnapshotCompactsJournals() throws IOException {
+        Properties props = journaledProps();
+        InMemoryQueueService before = new InMemoryQueueService(props);
+        String url = before.createQueue("compacted").getQueueUrl();
+        for (int i = 0; i < 10; i++) {
+            before.sendMessage(url, "message" + i);
+        }
+        for (int i = 0; i < 9; i++) {
+            Message received = before.receiveMessage(url).getMessages().get(0);
+            before.deleteMessage(url, received.getReceiptHandle());
+        }
+        before.getJournal().snapshot();
+        before.sendMessage(url, "after snapshot");
+        before.close();
+        assertEquals(1, before.getJournal().getSnapshots());
+        try (Stream<Path> files = Files.list(journalDirs.get(journalDirs.size() - 1))) {
+            assertEquals(Sets.newHashSet("snapshot-1", "journal-2"),
+                    files.map(file -> file.getFileName().toString()).collect(toSet()));
+        }
+
+        InMemoryQueueService after = new InMemoryQueueService(props);
+        assertEquals("message9", after.receiveMessage(url).getMessages().get(0).getBody());
+        assertEquals("after snapshot", after.receiveMessage(url).getMessages().get(0).getBody());
+        Helpers.assertEmpty(after.receiveMessage(url).getMessages());
+        after.close();
+    }
+
+    @Test
+    public void testRecordsAreDroppedUntilSnapshotOnceJournalFallsBehind() {
+        Properties props = journaledProps();
+        props.setProperty(FLUSH_MILLIS_KEY, "3600000");
+        props.setProperty(MAX_PENDING_KEY, "2");
+        InMemoryQueueService before = new InMemoryQueueService(props);
+        String url = before.createQueue("behind").getQueueUrl();
+        before.sendMessage(url, "journaled");
+        before.sendMessage(url, "dropped");
+        before.sendMessage(url, "dropped too");
+        assertEquals(2, before.getJournal().getDroppedRecords());
+
+        before.getJournal().snapshot();
+        before.sendMessage(url, "after snapshot");
+        before.close();
+
+        InMemoryQueueService after = new InMemoryQueueService(props);
+        assertEquals("journaled", after.receiveMessage(url).getMessages().get(0).getBody());
+        assertEquals("after snapshot", after.receiveMessage(url).getMessages().get(0).getBody());
+        Helpers.assertEmpty(after.receiveMessage(url).getMessages());
+        after.close();
+    }
+
+    private Properties journaledProps() {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        configure(props);
+        return props;
+    }
+
+    @After
+    public void cleanup() {
+        ((InMemoryQueueService) service).close();
+        for (Path dir : journalDirs) {
+            try (Stream<Path> files = Files.walk(dir, FileVisitOption.FOLLOW_LINKS)) {
+                files.sorted(Comparator.reverseOrder())
+                        .map(Path::toFile)
+                        .forEach(File::delete);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example;
+
+import java.util.Properties;
+
+import static com.canva.sqs.local.filesystem.FileIoMode.SQS_FILE_IO_KEY;
+
+/**
+ * Log engine tests with cursor and inflight log mapped into memory
+ */
+public class MappedSegmentedLogQueueTest extends SegmentedLogQueueTest {
+
+    @Override
+    protected void configure(Properties props) {
+        props.setProperty(SQS_FILE_IO_KEY, "mmap");
+    }
+}
@@ -0,0 +1,72 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.canva.sqs.local.memory.InMemoryQueueService;
+import com.canva.sqs.local.memory.SlabAllocator;
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static com.canva.sqs.local.memory.BodyStorage.BODY_STORAGE_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * In-memory tests with message bodies kept in direct memory
+ */
+public class OffHeapQueueTest extends InMemoryQueueTest {
+
+    @Override
+    protected void configure(Properties props) {
+        props.setProperty(BODY_STORAGE_KEY, "offheap");
+    }
+
+    @Test
+    public void testBodiesAreFreedOnDelete() {
+        SlabAllocator slabs = ((InMemoryQueueService) service).getSlabs();
+        String body = "тело 😀 " + Strings.repeat("x", 1000);
+        service.sendMessage(queueUrl, body);
+        service.sendMessage(queueUrl, "short");
+        assertEquals(1024 + 64, slabs.getUsedBytes());
+
+        Message received = service.receiveMessage(queueUrl).getMessages().get(0);
+        assertEquals(body, received.getBody());
+        service.invalidateNow(queueUrl, received.getReceiptHandle());
+        received = service.receiveMessage(queueUrl).getMessages().get(0);
+        assertEquals(body, received.getBody());
+        service.deleteMessage(queueUrl, received.getReceiptHandle());
+        assertEquals(64, slabs.getUsedBytes());
+
+        service.receiveMessage(queueUrl);
+        service.sendMessage(queueUrl, "visible");
+        service.deleteQueue(queueUrl);
+        assertEquals(0, slabs.getUsedBytes());
+    }
+
+    @Test
+    public void testSlabsAreReleasedOnDelete() {
+        SlabAllocator slabs = ((InMemoryQueueService) service).getSlabs();
+        String body = Strings.repeat("x", 1000);
+        for (int i = 0; i < 3000; i++) {
+            service.sendMessage(queueUrl, body);
+        }
+        long reserved = slabs.getReservedBytes();
+        assertTrue(reserved >= 3000 * 1024);
+
+        service.deleteQueue(queueUrl);
+        assertEquals(0, slabs.getUsedBytes());
+        // a spare slab is kept
+        assertTrue(slabs.getReservedBytes() < reserved);
+        assertTrue(slabs.getReservedBytes() <= 1 << 20);
+    }
+
+    @Test
+    public void testLargeBodyStaysOnHeap() {
+        SlabAllocator slabs = ((InMemoryQueueService) service).getSlabs();
+        String body = Strings.repeat("x", 100 * 1024);
+        service.sendMessage(queueUrl, body);
+        assertEquals(0, slabs.getUsedBytes());
+        assertEquals(body, service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+    }
+}
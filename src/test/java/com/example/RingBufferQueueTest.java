@@ -0,0 +1,64 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.OverLimitException;
+import com.canva.sqs.local.memory.InMemoryQueueService;
+import com.google.common.collect.testing.Helpers;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static com.canva.sqs.local.Queue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static com.canva.sqs.local.memory.MemoryEngine.RING_CAPACITY_KEY;
+import static com.canva.sqs.local.memory.MemoryEngine.SQS_MEMORY_ENGINE_KEY;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * In-memory tests with messages kept in a ring buffer
+ */
+public class RingBufferQueueTest extends InMemoryQueueTest {
+
+    @Override
+    protected void configure(Properties props) {
+        props.setProperty(SQS_MEMORY_ENGINE_KEY, "ring");
+    }
+
+    @Test
+    public void testRingWrapsAroundAndRedeliversToHead() {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        props.setProperty(SQS_MEMORY_ENGINE_KEY, "ring");
+        props.setProperty(RING_CAPACITY_KEY, "4");
+        InMemoryQueueService service = new InMemoryQueueService(props);
+        String url = service.createQueue("ring").getQueueUrl();
+
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                service.sendMessage(url, lap + "-" + i);
+            }
+            Message first = service.receiveMessage(url).getMessages().get(0);
+            assertEquals(lap + "-0", first.getBody());
+            service.invalidateNow(url, first.getReceiptHandle());
+            for (int i = 0; i < 4; i++) {
+                Message message = service.receiveMessage(url).getMessages().get(0);
+                assertEquals(lap + "-" + i, message.getBody());
+                service.deleteMessage(url, message.getReceiptHandle());
+            }
+            Helpers.assertEmpty(service.receiveMessage(url).getMessages());
+        }
+        service.deleteQueue(url);
+    }
+
+    @Test(expected = OverLimitException.class)
+    public void testFullRingRejectsMessage() {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "10");
+        props.setProperty(SQS_MEMORY_ENGINE_KEY, "ring");
+        props.setProperty(RING_CAPACITY_KEY, "4");
+        InMemoryQueueService service = new InMemoryQueueService(props);
+        String url = service.createQueue("ring").getQueueUrl();
+        for (int i = 0; i < 5; i++) {
+            service.sendMessage(url, "body");
+        }
+    }
+}
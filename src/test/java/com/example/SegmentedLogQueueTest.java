@@ -0,0 +1,262 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.canva.sqs.QueueService;
+import com.canva.sqs.local.filesystem.FileQueueCheckpointer;
+import com.canva.sqs.local.filesystem.FileQueueCompactor;
+import com.canva.sqs.local.filesystem.FileQueueService;
+import com.google.common.base.Strings;
+import com.google.common.collect.testing.Helpers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.filesystem.FileDescriptor.CURSOR;
+import static com.canva.sqs.local.filesystem.FileDescriptor.MESSAGES_LOG;
+import static com.canva.sqs.local.filesystem.FileQueueService.SQS_QUEUES_DIR_KEY;
+import static com.canva.sqs.local.filesystem.FileStorageEngine.SQS_FILE_ENGINE_KEY;
+import static com.canva.sqs.local.filesystem.SegmentedLogQueue.SEGMENT_BYTES_KEY;
+import static com.canva.sqs.local.memory.InMemoryQueue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedLogQueueTest extends TestCases {
+
+    private Path tempDirectory;
+    private Clock clockMock;
+    private Properties props;
+
+    @Before
+    public void init() throws IOException {
+        props = new Properties();
+        tempDirectory = Files.createTempDirectory("sqs_tests");
+        clockMock = Mockito.mock(Clock.class);
+
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, String.valueOf(10));
+        props.setProperty(SQS_QUEUES_DIR_KEY, tempDirectory.toString());
+        props.setProperty(SQS_FILE_ENGINE_KEY, "log");
+        // tiny segments to make every test roll them
+        props.setProperty(SEGMENT_BYTES_KEY, String.valueOf(64));
+        configure(props);
+
+        service = new FileQueueService(props, clockMock);
+
+        CreateQueueResult queue = service.createQueue("queueName");
+        queueUrl = queue.getQueueUrl();
+    }
+
+    /**
+     * Lets subclasses run the same tests with different settings
+     */
+    protected void configure(Properties props) {
+    }
+
+    @Test
+    public void testInvalidationByTimeout() {
+        service.sendMessage(queueUrl, "body");
+        ReceiveMessageResult receiveMessageResult = service.receiveMessage(queueUrl);
+
+        Helpers.assertEmpty(service.receiveMessage(queueUrl).getMessages());
+
+        Mockito.when(clockMock.millis()).thenReturn(Long.MAX_VALUE);
+        ReceiveMessageResult invalidatedMessageResult = service.receiveMessage(queueUrl);
+
+        assertEquals(
+                receiveMessageResult.getMessages().get(0).getMessageId(),
+                invalidatedMessageResult.getMessages().get(0).getMessageId()
+        );
+    }
+
+    @Test
+    public void testVisibilityTimeoutOverridesQueueTimeout() {
+        service.sendMessage(queueUrl, "long");
+        service.sendMessage(queueUrl, "short");
+        Mockito.when(clockMock.millis()).thenReturn(1000L);
+        service.receiveMessage(queueUrl, 1, 30);
+
+        Mockito.when(clockMock.millis()).thenReturn(1000L + 10_001);
+        assertEquals("short", service.receiveMessage(queueUrl, 1, 2).getMessages().get(0).getBody());
+        Helpers.assertEmpty(service.receiveMessage(queueUrl).getMessages());
+        // entry with a shorter timeout doesn't wait for the entry at the head of inflight log
+        Mockito.when(clockMock.millis()).thenReturn(1000L + 12_002);
+        assertEquals("short", service.receiveMessage(queueUrl, 2, 60).getMessages().get(0).getBody());
+        Mockito.when(clockMock.millis()).thenReturn(1000L + 30_001);
+        ReceiveMessageResult result = service.receiveMessage(queueUrl, 2, QueueService.DEFAULT_VISIBILITY_TIMEOUT);
+        assertEquals(1, result.getMessages().size());
+        assertEquals("long", result.getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testLongVisibilityTimeoutDoesNotHoldBackLaterMessages() {
+        service.sendMessage(queueUrl, "long");
+        service.sendMessage(queueUrl, "default");
+        Mockito.when(clockMock.millis()).thenReturn(1000L);
+        service.receiveMessage(queueUrl, 1, 43200, 0);
+        service.receiveMessage(queueUrl);
+
+        Mockito.when(clockMock.millis()).thenReturn(1000L + 10_001);
+        assertEquals("default", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testExpiredEntryDeletedByAnotherProcessIsNotRedelivered() {
+        // service of another process shares nothing with this one but queue files
+        service.sendMessage(queueUrl, "deleted");
+        Mockito.when(clockMock.millis()).thenReturn(1000L);
+        String receiptHandle = service.receiveMessage(queueUrl).getMessages().get(0).getReceiptHandle();
+        try (FileQueueService anotherProcess = new FileQueueService(props, clockMock)) {
+            anotherProcess.deleteMessage(queueUrl, receiptHandle);
+        }
+
+        Mockito.when(clockMock.millis()).thenReturn(1000L + 10_001);
+        Helpers.assertEmpty(service.receiveMessage(queueUrl).getMessages());
+    }
+
+    @Test
+    public void testLongPollingReceiveIsWokenByExpiry() {
+        Mockito.when(clockMock.millis()).thenAnswer(invocation -> System.currentTimeMillis());
+        service.sendMessage(queueUrl, "expiring");
+        service.receiveMessage(queueUrl, 1, 1);
+
+        long start = System.nanoTime();
+        assertEquals("expiring", service.receiveMessage(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10)
+                .getMessages().get(0).getBody());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testLongPollingReceiveIsWokenBySendOfAnotherProcess() throws Exception {
+        // service of another process shares nothing with this one but queue files
+        try (FileQueueService anotherProcess = new FileQueueService(props, clockMock)) {
+            CompletableFuture<ReceiveMessageResult> receive = CompletableFuture.supplyAsync(
+                    () -> service.receiveMessage(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10));
+            Thread.sleep(200);
+            assertFalse(receive.isDone());
+
+            anotherProcess.sendMessage(queueUrl, "remote");
+            assertEquals("remote", receive.get(5, TimeUnit.SECONDS).getMessages().get(0).getBody());
+        }
+    }
+
+    @Test
+    public void testMessagesLogCreatedAfterWatchIsWatched() throws Exception {
+        Path messagesLog = MESSAGES_LOG.getPath(queueUrl);
+        Path moved = tempDirectory.resolve("moved-messages-log");
+        Files.move(messagesLog, moved);
+        CompletableFuture<ReceiveMessageResult> receive = CompletableFuture.supplyAsync(
+                () -> service.receiveMessage(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10));
+        Thread.sleep(200);
+        Files.move(moved, messagesLog);
+        Thread.sleep(200);
+        assertFalse(receive.isDone());
+
+        try (FileQueueService anotherProcess = new FileQueueService(props, clockMock)) {
+            anotherProcess.sendMessage(queueUrl, "remote");
+        }
+        assertEquals("remote", receive.get(5, TimeUnit.SECONDS).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testMessagesSpanSegments() {
+        String[] bodies = {"a", Strings.repeat("b", 40), Strings.repeat("c", 100), "d", Strings.repeat("e", 58)};
+        for (String body : bodies) {
+            service.sendMessage(queueUrl, body);
+        }
+        for (String body : bodies) {
+            assertEquals(body, service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        }
+        Helpers.assertEmpty(service.receiveMessage(queueUrl).getMessages());
+    }
+
+    @Test
+    public void testCompactionReclaimsConsumedSegments() {
+        for (int i = 0; i < 10; i++) {
+            service.sendMessage(queueUrl, Strings.repeat("x", 40));
+        }
+        for (int i = 0; i < 9; i++) {
+            ReceiveMessageResult result = service.receiveMessage(queueUrl);
+            service.deleteMessage(queueUrl, result.getMessages().get(0).getReceiptHandle());
+        }
+        FileQueueCompactor compactor = ((FileQueueService) service).getCompactor();
+        compactor.compact();
+        assertEquals(0, compactor.getBytesReclaimed());
+        compactor.compact();
+        assertTrue(compactor.getBytesReclaimed() > 0);
+
+        assertEquals(Strings.repeat("x", 40), service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        service.sendMessage(queueUrl, "body");
+        assertEquals("body", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testRecoveryFromCheckpointWhenCursorIsCorrupted() throws IOException {
+        for (String body : new String[]{"a", "b", "c", "d", "e"}) {
+            service.sendMessage(queueUrl, body);
+        }
+        assertEquals("a", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        FileQueueCheckpointer checkpointer = ((FileQueueService) service).getCheckpointer();
+        checkpointer.checkpoint();
+        assertEquals(1, checkpointer.getCheckpoints());
+        assertEquals("b", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+
+        Files.write(CURSOR.getPath(queueUrl), new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, StandardOpenOption.WRITE);
+        ((FileQueueService) service).close();
+        service = new FileQueueService(props, clockMock);
+        assertEquals(1, ((FileQueueService) service).getCheckpointer().getRepairedQueues());
+
+        // received messages are replayed from inflight log written after the checkpoint
+        assertEquals("c", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        Mockito.when(clockMock.millis()).thenReturn(Long.MAX_VALUE);
+        assertEquals("a", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        assertEquals("b", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testRecoveryDropsTornTail() throws IOException {
+        service.sendMessage(queueUrl, "a");
+        service.sendMessage(queueUrl, "b");
+        // second record starts right after the first one: [int length][int crc]["a"]
+        try (FileChannel segment = FileChannel.open(MESSAGES_LOG.getPath(queueUrl).resolve(String.format("%020d", 0)),
+                StandardOpenOption.WRITE)) {
+            segment.write(ByteBuffer.wrap(new byte[]{'x'}), 2 * 9 - 1);
+        }
+        ((FileQueueService) service).close();
+        service = new FileQueueService(props, clockMock);
+        assertEquals(1, ((FileQueueService) service).getCheckpointer().getRepairedQueues());
+
+        assertEquals("a", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        Helpers.assertEmpty(service.receiveMessage(queueUrl).getMessages());
+        service.sendMessage(queueUrl, "c");
+        assertEquals("c", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+    }
+
+    @After
+    public void cleanup() {
+        ((FileQueueService) service).close();
+        try {
+            Files.walk(tempDirectory, FileVisitOption.FOLLOW_LINKS)
+                    .sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.memory.MemoryEngine.SHARDS_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * In-memory tests with every queue split into shards
+ */
+public class ShardedQueueTest extends InMemoryQueueTest {
+
+    @Override
+    protected void configure(Properties props) {
+        props.setProperty(SHARDS_KEY, "4");
+    }
+
+    @Test
+    public void testConsumersStealFromOtherShards() throws Exception {
+        int producers = 4;
+        int perProducer = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            executor.submit(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    service.sendMessage(queueUrl, producer + "-" + i);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // a single consumer drains all shards
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        for (List<Message> messages = service.receiveMessage(queueUrl).getMessages(); !messages.isEmpty();
+             messages = service.receiveMessage(queueUrl).getMessages()) {
+            received.add(messages.get(0).getBody());
+            service.deleteMessage(queueUrl, messages.get(0).getReceiptHandle());
+        }
+        assertEquals(producers * perProducer, received.size());
+    }
+
+    @Test
+    public void testMessagesOfProducerKeepTheirOrder() throws Exception {
+        ExecutorService producer = Executors.newSingleThreadExecutor();
+        Future<?> sent = producer.submit(() -> {
+            for (int i = 0; i < 100; i++) {
+                service.sendMessage(queueUrl, String.valueOf(i));
+            }
+        });
+        sent.get();
+        producer.shutdown();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.valueOf(i), service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        }
+    }
+}
@@ -7,7 +7,12 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.collect.testing.Helpers.assertContains;
 import static com.google.common.collect.testing.Helpers.assertEmpty;
@@ -178,6 +183,147 @@ public abstract class TestCases {
         assertEquals(sendMessageResult.getMessageId(), receiveMessageResult.getMessages().get(0).getMessageId());
     }
 
+    @Test
+    public void testSendMessageBatchKeepsOrder() {
+        service.sendMessage(queueUrl, "single");
+        SendMessageBatchResult result = service.sendMessageBatch(queueUrl, Arrays.asList(
+                new SendMessageBatchRequestEntry("a", "body:a"),
+                new SendMessageBatchRequestEntry("b", "тело b")));
+        assertEmpty(result.getFailed());
+        assertEquals(2, result.getSuccessful().size());
+        assertEquals("a", result.getSuccessful().get(0).getId());
+        assertEquals("b", result.getSuccessful().get(1).getId());
+
+        assertEquals("single", service.receiveMessage(queueUrl).getMessages().get(0).getBody());
+        for (SendMessageBatchResultEntry entry : result.getSuccessful()) {
+            Message message = service.receiveMessage(queueUrl).getMessages().get(0);
+            assertEquals(entry.getMessageId(), message.getMessageId());
+            assertEquals(entry.getId().equals("a") ? "body:a" : "тело b", message.getBody());
+        }
+        assertEmpty(service.receiveMessage(queueUrl).getMessages());
+    }
+
+    @Test
+    public void testSendMessageBatchValidatesEntries() {
+        try {
+            service.sendMessageBatch(queueUrl, new ArrayList<>());
+            fail("Batch is empty");
+        } catch (EmptyBatchRequestException e) {
+            // expected
+        }
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i <= QueueService.MAX_BATCH_ENTRIES; i++) {
+            entries.add(new SendMessageBatchRequestEntry(String.valueOf(i), "body"));
+        }
+        try {
+            service.sendMessageBatch(queueUrl, entries);
+            fail("Batch is too large");
+        } catch (TooManyEntriesInBatchRequestException e) {
+            // expected
+        }
+        try {
+            service.sendMessageBatch(queueUrl, Arrays.asList(
+                    new SendMessageBatchRequestEntry("a", "body"), new SendMessageBatchRequestEntry("a", "body")));
+            fail("Batch ids are not distinct");
+        } catch (BatchEntryIdsNotDistinctException e) {
+            // expected
+        }
+        assertEmpty(service.receiveMessage(queueUrl).getMessages());
+    }
+
+    @Test
+    public void testReceiveMessageBatch() {
+        for (String body : new String[]{"a", "b", "c"}) {
+            service.sendMessage(queueUrl, body);
+        }
+        List<Message> received = service.receiveMessage(queueUrl, 2, QueueService.DEFAULT_VISIBILITY_TIMEOUT)
+                .getMessages();
+        assertEquals(2, received.size());
+        assertEquals("a", received.get(0).getBody());
+        assertEquals("b", received.get(1).getBody());
+        assertNotEquals(received.get(0).getReceiptHandle(), received.get(1).getReceiptHandle());
+
+        service.invalidateNow(queueUrl, received.get(0).getReceiptHandle());
+        service.deleteMessage(queueUrl, received.get(1).getReceiptHandle());
+        received = service.receiveMessage(queueUrl, QueueService.MAX_BATCH_ENTRIES,
+                QueueService.DEFAULT_VISIBILITY_TIMEOUT).getMessages();
+        assertEquals(2, received.size());
+        assertEquals("a", received.get(0).getBody());
+        assertEquals("c", received.get(1).getBody());
+        assertEmpty(service.receiveMessage(queueUrl, QueueService.MAX_BATCH_ENTRIES, 0).getMessages());
+    }
+
+    @Test
+    public void testReceiveMessageBatchValidatesArguments() {
+        for (int[] args : new int[][]{{0, 10}, {QueueService.MAX_BATCH_ENTRIES + 1, 10},
+                {1, -2}, {1, QueueService.MAX_VISIBILITY_TIMEOUT + 1}}) {
+            try {
+                service.receiveMessage(queueUrl, args[0], args[1]);
+                fail("Arguments are out of limits: " + Arrays.toString(args));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        for (int waitTimeSeconds : new int[]{-1, QueueService.MAX_WAIT_TIME_SECONDS + 1}) {
+            try {
+                service.receiveMessage(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, waitTimeSeconds);
+                fail("Wait time is out of limits: " + waitTimeSeconds);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testLongPollingReceiveIsWokenBySend() throws Exception {
+        CompletableFuture<ReceiveMessageResult> receive = CompletableFuture.supplyAsync(
+                () -> service.receiveMessage(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 10));
+        Thread.sleep(200);
+        assertFalse(receive.isDone());
+
+        service.sendMessage(queueUrl, "late");
+        assertEquals("late", receive.get(5, TimeUnit.SECONDS).getMessages().get(0).getBody());
+    }
+
+    @Test
+    public void testLongPollingReceiveReturnsEmptyAfterWaitTime() {
+        long start = System.nanoTime();
+        assertEmpty(service.receiveMessage(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 1).getMessages());
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+
+        service.sendMessage(queueUrl, "ready");
+        start = System.nanoTime();
+        assertEquals("ready", service.receiveMessage(queueUrl, 1, QueueService.DEFAULT_VISIBILITY_TIMEOUT, 1)
+                .getMessages().get(0).getBody());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testDeleteMessageBatch() {
+        for (String body : new String[]{"a", "b", "c"}) {
+            service.sendMessage(queueUrl, body);
+        }
+        List<Message> received = service.receiveMessage(queueUrl, 3, QueueService.DEFAULT_VISIBILITY_TIMEOUT)
+                .getMessages();
+        DeleteMessageBatchResult result = service.deleteMessageBatch(queueUrl, Arrays.asList(
+                new DeleteMessageBatchRequestEntry("a", received.get(0).getReceiptHandle()),
+                new DeleteMessageBatchRequestEntry("malformed", "not a handle"),
+                new DeleteMessageBatchRequestEntry("c", received.get(2).getReceiptHandle())));
+        assertEquals(2, result.getSuccessful().size());
+        assertEquals("a", result.getSuccessful().get(0).getId());
+        assertEquals("c", result.getSuccessful().get(1).getId());
+        assertEquals(1, result.getFailed().size());
+        assertEquals("malformed", result.getFailed().get(0).getId());
+        assertTrue(result.getFailed().get(0).getSenderFault());
+
+        for (Message message : received) {
+            service.invalidateNow(queueUrl, message.getReceiptHandle());
+        }
+        received = service.receiveMessage(queueUrl, 3, QueueService.DEFAULT_VISIBILITY_TIMEOUT).getMessages();
+        assertEquals(1, received.size());
+        assertEquals("b", received.get(0).getBody());
+    }
+
     // Queue management tests
     @Test
     public void testCreateQueue() {
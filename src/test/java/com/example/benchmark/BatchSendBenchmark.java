@@ -0,0 +1,99 @@
+package com.example.benchmark;
+
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.canva.sqs.QueueService;
+import com.canva.sqs.local.filesystem.FileQueueCheckpointer;
+import com.canva.sqs.local.filesystem.FileQueueCompactor;
+import com.canva.sqs.local.filesystem.FileQueueService;
+import com.canva.sqs.local.memory.InMemoryQueueService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.Queue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static com.canva.sqs.local.filesystem.FileQueueService.SQS_QUEUES_DIR_KEY;
+import static com.canva.sqs.local.filesystem.FileStorageEngine.SQS_FILE_ENGINE_KEY;
+
+/**
+ * Cost of sending {@value QueueService#MAX_BATCH_ENTRIES} messages one by one and as a single batch
+ * with in-memory and both file engines. Queue is recreated every iteration, so only sends are measured, e.g.:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="BatchSendBenchmark"
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchSendBenchmark {
+    @Param({"memory", "text", "log"})
+    public String engine;
+
+    private Path baseDir;
+    private QueueService service;
+    private String queueUrl;
+    private final List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("sqs_benchmark");
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "30");
+        if (engine.equals("memory")) {
+            service = new InMemoryQueueService(props);
+        } else {
+            props.setProperty(SQS_QUEUES_DIR_KEY, baseDir.toString());
+            props.setProperty(SQS_FILE_ENGINE_KEY, engine);
+            props.setProperty(FileQueueCompactor.INTERVAL_MILLIS_KEY, "0");
+            props.setProperty(FileQueueCheckpointer.INTERVAL_MILLIS_KEY, "0");
+            service = new FileQueueService(props);
+        }
+        for (int i = 0; i < QueueService.MAX_BATCH_ENTRIES; i++) {
+            entries.add(new SendMessageBatchRequestEntry(String.valueOf(i), "body " + i));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createQueue() {
+        queueUrl = service.createQueue("queue").getQueueUrl();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteQueue() {
+        service.deleteQueue(queueUrl);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.walk(baseDir, FileVisitOption.FOLLOW_LINKS)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @Benchmark
+    public void sendOneByOne(Blackhole blackhole) {
+        for (SendMessageBatchRequestEntry entry : entries) {
+            blackhole.consume(service.sendMessage(queueUrl, entry.getMessageBody()));
+        }
+    }
+
+    @Benchmark
+    public SendMessageBatchResult sendBatch() {
+        return service.sendMessageBatch(queueUrl, entries);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.benchmark;
+
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.canva.sqs.local.filesystem.FileQueueService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.Queue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static com.canva.sqs.local.filesystem.FileDurability.SQS_FILE_DURABILITY_KEY;
+import static com.canva.sqs.local.filesystem.FileQueueCompactor.INTERVAL_MILLIS_KEY;
+import static com.canva.sqs.local.filesystem.FileQueueService.SQS_QUEUES_DIR_KEY;
+import static com.canva.sqs.local.filesystem.FileStorageEngine.SQS_FILE_ENGINE_KEY;
+
+/**
+ * Throughput and latency of {@link FileQueueService#sendMessage(String, String)} in every durability mode.
+ * Threads send to the same queue, group commit pays off with several concurrent senders, e.g.:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="DurabilityBenchmark -t 4"
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DurabilityBenchmark {
+    @Param({"none", "group", "sync"})
+    public String durability;
+
+    @Param({"text", "log"})
+    public String engine;
+
+    private Path baseDir;
+    private FileQueueService service;
+    private String queueUrl;
+
+    @Setup
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("sqs_benchmark");
+        Properties props = new Properties();
+        props.setProperty(SQS_QUEUES_DIR_KEY, baseDir.toString());
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "30");
+        props.setProperty(SQS_FILE_ENGINE_KEY, engine);
+        props.setProperty(SQS_FILE_DURABILITY_KEY, durability);
+        props.setProperty(INTERVAL_MILLIS_KEY, "0");
+        service = new FileQueueService(props);
+        queueUrl = service.createQueue("queue").getQueueUrl();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        service.close();
+        Files.walk(baseDir, FileVisitOption.FOLLOW_LINKS)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @Benchmark
+    public SendMessageResult send() {
+        return service.sendMessage(queueUrl, "body");
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.benchmark;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.canva.sqs.local.memory.InMemoryQueueService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.canva.sqs.local.Queue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+
+/**
+ * In-memory SQS with many queues sharing a single expiry scheduler.
+ * Every queue holds an inflight message, so the scheduler keeps a timeout per queue.
+ * Cost of operations and of queue creation should not depend on number of queues, e.g.:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="ExpirySchedulerBenchmark"
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpirySchedulerBenchmark {
+    private static final AtomicLong TEMPORARY_QUEUES = new AtomicLong();
+
+    @Param({"1000", "100000"})
+    public int queues;
+
+    private InMemoryQueueService service;
+
+    @Setup
+    public void setUp() {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "600");
+        service = new InMemoryQueueService(props);
+        for (int i = 0; i < queues; i++) {
+            String queueUrl = service.createQueue("queue" + i).getQueueUrl();
+            service.sendMessage(queueUrl, "inflight");
+            service.receiveMessage(queueUrl);
+        }
+    }
+
+    @Benchmark
+    public Message sendReceiveDelete() {
+        String queueUrl = "queue" + ThreadLocalRandom.current().nextInt(queues);
+        service.sendMessage(queueUrl, "body");
+        Message message = service.receiveMessage(queueUrl).getMessages().get(0);
+        service.deleteMessage(queueUrl, message.getReceiptHandle());
+        return message;
+    }
+
+    @Benchmark
+    public void createAndDeleteQueue() {
+        String queueUrl = service.createQueue("temporary" + TEMPORARY_QUEUES.getAndIncrement()).getQueueUrl();
+        service.sendMessage(queueUrl, "body");
+        service.receiveMessage(queueUrl);
+        service.deleteQueue(queueUrl);
+    }
+}
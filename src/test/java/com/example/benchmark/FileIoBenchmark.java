@@ -0,0 +1,81 @@
+package com.example.benchmark;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.canva.sqs.local.filesystem.FileQueueService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.Queue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static com.canva.sqs.local.filesystem.FileIoMode.SQS_FILE_IO_KEY;
+import static com.canva.sqs.local.filesystem.FileQueueCompactor.INTERVAL_MILLIS_KEY;
+import static com.canva.sqs.local.filesystem.FileQueueService.SQS_QUEUES_DIR_KEY;
+import static com.canva.sqs.local.filesystem.FileStorageEngine.SQS_FILE_ENGINE_KEY;
+
+/**
+ * Cost of cursor and inflight log access of the log engine with channel and mapped I/O.
+ * {@link #receiveEmpty()} reads the cursor only, {@link #sendReceiveDelete()} updates cursor and inflight entries, e.g.:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="FileIoBenchmark"
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileIoBenchmark {
+    @Param({"channel", "mmap"})
+    public String io;
+
+    private Path baseDir;
+    private FileQueueService service;
+    private String queueUrl;
+    private String emptyQueueUrl;
+
+    @Setup
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("sqs_benchmark");
+        Properties props = new Properties();
+        props.setProperty(SQS_QUEUES_DIR_KEY, baseDir.toString());
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "30");
+        props.setProperty(SQS_FILE_ENGINE_KEY, "log");
+        props.setProperty(SQS_FILE_IO_KEY, io);
+        props.setProperty(INTERVAL_MILLIS_KEY, "0");
+        service = new FileQueueService(props);
+        queueUrl = service.createQueue("queue").getQueueUrl();
+        emptyQueueUrl = service.createQueue("empty").getQueueUrl();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        service.close();
+        Files.walk(baseDir, FileVisitOption.FOLLOW_LINKS)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @Benchmark
+    public ReceiveMessageResult receiveEmpty() {
+        return service.receiveMessage(emptyQueueUrl);
+    }
+
+    @Benchmark
+    public Message sendReceiveDelete() {
+        service.sendMessage(queueUrl, "body");
+        Message message = service.receiveMessage(queueUrl).getMessages().get(0);
+        service.deleteMessage(queueUrl, message.getReceiptHandle());
+        return message;
+    }
+}
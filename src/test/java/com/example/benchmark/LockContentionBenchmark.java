@@ -0,0 +1,100 @@
+package com.example.benchmark;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.canva.sqs.local.filesystem.FileQueueService;
+import com.canva.sqs.local.filesystem.GlobalCloseableLock;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.canva.sqs.local.filesystem.FileQueueCompactor.INTERVAL_MILLIS_KEY;
+import static com.canva.sqs.local.filesystem.FileQueueService.SQS_QUEUES_DIR_KEY;
+import static com.canva.sqs.local.filesystem.FileStorageEngine.SQS_FILE_ENGINE_KEY;
+import static com.canva.sqs.local.Queue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+
+/**
+ * Multi-queue throughput of file based SQS.
+ * Every benchmark thread works with its own queue, so throughput should scale with number of threads.
+ * {@link #lockSameFile()} is a baseline where all threads contend for a single file.
+ * <p>
+ * Run with increasing number of threads, e.g.:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="LockContentionBenchmark -t 4"
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LockContentionBenchmark {
+    private static final AtomicInteger QUEUES = new AtomicInteger();
+
+    @Param({"text", "log"})
+    public String engine;
+
+    private Path baseDir;
+    private FileQueueService service;
+
+    @Setup
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("sqs_benchmark");
+        Properties props = new Properties();
+        props.setProperty(SQS_QUEUES_DIR_KEY, baseDir.toString());
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "30");
+        props.setProperty(SQS_FILE_ENGINE_KEY, engine);
+        props.setProperty(INTERVAL_MILLIS_KEY, "0");
+        service = new FileQueueService(props);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        service.close();
+        Files.walk(baseDir, FileVisitOption.FOLLOW_LINKS)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadQueue {
+        String queueUrl;
+
+        @Setup
+        public void setUp(LockContentionBenchmark benchmark) {
+            queueUrl = benchmark.service.createQueue("queue" + QUEUES.getAndIncrement()).getQueueUrl();
+        }
+    }
+
+    @Benchmark
+    public void lockOwnFile(ThreadQueue queue) throws IOException {
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(queue.queueUrl + "/benchmark").lock()) {
+            // empty critical section
+        }
+    }
+
+    @Benchmark
+    public void lockSameFile() throws IOException {
+        try (GlobalCloseableLock ignored = new GlobalCloseableLock(baseDir + "/benchmark").lock()) {
+            // empty critical section
+        }
+    }
+
+    @Benchmark
+    public Message sendReceiveDeleteOwnQueue(ThreadQueue queue) {
+        service.sendMessage(queue.queueUrl, "body");
+        Message message = service.receiveMessage(queue.queueUrl).getMessages().get(0);
+        service.deleteMessage(queue.queueUrl, message.getReceiptHandle());
+        return message;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.benchmark;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.canva.sqs.local.memory.InMemoryQueueService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.Queue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static com.canva.sqs.local.memory.MemoryEngine.RING_CAPACITY_KEY;
+import static com.canva.sqs.local.memory.MemoryEngine.SQS_MEMORY_ENGINE_KEY;
+
+/**
+ * In-memory SQS engines under concurrent producers and consumers of a single queue.
+ * Every thread both sends and consumes, so the queue neither grows nor drains.
+ * Run with GC profiler to compare allocation rate as well, e.g.:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="MemoryEngineBenchmark -prof gc"
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class MemoryEngineBenchmark {
+    private static final String QUEUE = "queue";
+
+    @Param({"deque", "ring"})
+    public String engine;
+
+    private InMemoryQueueService service;
+
+    @Setup
+    public void setUp() {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "600");
+        props.setProperty(SQS_MEMORY_ENGINE_KEY, engine);
+        // receive may miss a message whose producer has not published it yet, so the queue slowly grows
+        props.setProperty(RING_CAPACITY_KEY, String.valueOf(1 << 22));
+        service = new InMemoryQueueService(props);
+        service.createQueue(QUEUE);
+    }
+
+    @Benchmark
+    public Message sendReceiveDelete() {
+        service.sendMessage(QUEUE, "body");
+        List<Message> messages = service.receiveMessage(QUEUE).getMessages();
+        for (Message message : messages) {
+            service.deleteMessage(QUEUE, message.getReceiptHandle());
+        }
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+}
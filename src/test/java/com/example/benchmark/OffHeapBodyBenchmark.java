@@ -0,0 +1,88 @@
+package com.example.benchmark;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.canva.sqs.local.memory.InMemoryQueueService;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.Queue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static com.canva.sqs.local.memory.BodyStorage.BODY_STORAGE_KEY;
+
+/**
+ * In-memory SQS with a deep backlog of multi-KB bodies kept on heap or off heap.
+ * Every operation consumes the oldest message and sends a new one, so the backlog keeps its size
+ * while its bodies age and die. Heap used by the backlog is printed after setup, GC pauses after the run.
+ * Run with GC profiler to compare allocation and GC time as well, e.g.:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="OffHeapBodyBenchmark -prof gc"
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-XX:MaxDirectMemorySize=1g"})
+@State(Scope.Benchmark)
+public class OffHeapBodyBenchmark {
+    private static final String QUEUE = "queue";
+
+    @Param({"heap", "offheap"})
+    public String storage;
+
+    @Param({"50000"})
+    public int backlog;
+
+    @Param({"4096"})
+    public int bodyBytes;
+
+    private InMemoryQueueService service;
+    private char[] body;
+
+    @Setup
+    public void setUp() {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "600");
+        props.setProperty(BODY_STORAGE_KEY, storage);
+        service = new InMemoryQueueService(props);
+        service.createQueue(QUEUE);
+        body = new char[bodyBytes];
+        Arrays.fill(body, 'x');
+
+        long heapBefore = usedHeap();
+        for (int i = 0; i < backlog; i++) {
+            service.sendMessage(QUEUE, new String(body));
+        }
+        System.out.printf("%n%s backlog: heap %d MB, off-heap %d MB%n", storage,
+                (usedHeap() - heapBefore) >> 20, service.getSlabs().getUsedBytes() >> 20);
+    }
+
+    @TearDown
+    public void tearDown() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+            time += gc.getCollectionTime();
+        }
+        System.out.printf("%n%s GC: %d collections, %d ms total pause%n", storage, count, time);
+    }
+
+    @Benchmark
+    public Message receiveDeleteSend() {
+        Message message = service.receiveMessage(QUEUE).getMessages().get(0);
+        service.deleteMessage(QUEUE, message.getReceiptHandle());
+        service.sendMessage(QUEUE, new String(body));
+        return message;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.benchmark;
+
+import com.canva.sqs.local.filesystem.FileQueueCheckpointer;
+import com.canva.sqs.local.filesystem.FileQueueCompactor;
+import com.canva.sqs.local.filesystem.FileQueueService;
+import com.canva.sqs.local.filesystem.SegmentedLogQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.Queue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static com.canva.sqs.local.filesystem.FileQueueService.SQS_QUEUES_DIR_KEY;
+import static com.canva.sqs.local.filesystem.FileStorageEngine.SQS_FILE_ENGINE_KEY;
+
+/**
+ * Startup time of {@link FileQueueService} over a deep queue of the log engine, with and without checkpoint.
+ * Without checkpoint the whole messages log is replayed, with checkpoint only the tail written after it, e.g.:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="RecoveryBenchmark"
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+    private static final int TAIL_MESSAGES = 1000;
+
+    @Param({"10000000"})
+    public long messages;
+
+    @Param({"true", "false"})
+    public boolean checkpoint;
+
+    private Path baseDir;
+    private Properties props;
+
+    @Setup
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("sqs_benchmark");
+        props = new Properties();
+        props.setProperty(SQS_QUEUES_DIR_KEY, baseDir.toString());
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "30");
+        props.setProperty(SQS_FILE_ENGINE_KEY, "log");
+        props.setProperty(FileQueueCompactor.INTERVAL_MILLIS_KEY, "0");
+        props.setProperty(FileQueueCheckpointer.INTERVAL_MILLIS_KEY, "0");
+        FileQueueService service = new FileQueueService(props);
+        String queueUrl = service.createQueue("queue").getQueueUrl();
+
+        SegmentedLogQueue.sendMessages(queueUrl, "message body", messages - TAIL_MESSAGES);
+        if (checkpoint) {
+            service.getCheckpointer().checkpoint();
+        }
+        SegmentedLogQueue.sendMessages(queueUrl, "message body", TAIL_MESSAGES);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.walk(baseDir, FileVisitOption.FOLLOW_LINKS)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @Benchmark
+    public FileQueueService start() {
+        return new FileQueueService(props);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.benchmark;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.canva.sqs.local.memory.InMemoryQueueService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.canva.sqs.local.Queue.INFLIGHT_TIMEOUT_SECONDS_KEY;
+import static com.canva.sqs.local.memory.MemoryEngine.SHARDS_KEY;
+
+/**
+ * A single hot in-memory queue consumed by many threads, one buffer vs shards.
+ * Every operation consumes a message of the backlog and sends a new one, so consumers never run dry.
+ * Compare consumer scaling by running with different number of threads, e.g.:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="ShardedQueueBenchmark -t 64"
+ *
+ * @author Alexander Pronin
+ * @since 18/10/2026
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedQueueBenchmark {
+    private static final String QUEUE = "queue";
+
+    @Param({"1", "16"})
+    public int shards;
+
+    private InMemoryQueueService service;
+
+    @Setup
+    public void setUp() {
+        Properties props = new Properties();
+        props.setProperty(INFLIGHT_TIMEOUT_SECONDS_KEY, "600");
+        props.setProperty(SHARDS_KEY, String.valueOf(shards));
+        service = new InMemoryQueueService(props);
+        service.createQueue(QUEUE);
+        for (int i = 0; i < 100_000; i++) {
+            service.sendMessage(QUEUE, "body");
+        }
+    }
+
+    @Benchmark
+    public List<Message> receiveDeleteSend() {
+        List<Message> messages = service.receiveMessage(QUEUE).getMessages();
+        for (Message message : messages) {
+            service.deleteMessage(QUEUE, message.getReceiptHandle());
+        }
+        service.sendMessage(QUEUE, "body");
+        return messages;
+    }
+}